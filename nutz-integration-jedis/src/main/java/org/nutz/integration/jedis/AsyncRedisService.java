@@ -0,0 +1,369 @@
+package org.nutz.integration.jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.nutz.lang.Streams;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 异步版的RedisService. 命令放入队列后立即返回RedisFuture, 由少量常驻的工作线程各自持有一个连接,
+ * 把队列中积攒的命令一次性写入Pipeline执行, 即自动合并成批, 并发越高每批越大.
+ * <p/>
+ * 同一个调用线程的命令总是由同一个工作线程按顺序执行. 集群模式下使用JedisClusterWrapper的ClusterPipeline.
+ * 常用命令已提供快捷方法, 其他命令可通过submit(Command)执行
+ *
+ * @author wendal
+ *
+ */
+public class AsyncRedisService {
+
+    private static final Log log = Logs.get();
+
+    protected JedisAgent jedisAgent;
+
+    /**
+     * 工作线程数, 即常驻连接数
+     */
+    protected int connections = 2;
+
+    /**
+     * 每批最多执行的命令数
+     */
+    protected int maxBatch = 1024;
+
+    protected volatile Worker[] workers;
+
+    protected volatile boolean running;
+
+    public synchronized void init() {
+        if (workers != null)
+            return;
+        running = true;
+        Worker[] tmp = new Worker[Math.max(1, connections)];
+        for (int i = 0; i < tmp.length; i++) {
+            tmp[i] = new Worker("redis.async." + i);
+            tmp[i].start();
+        }
+        workers = tmp;
+    }
+
+    /**
+     * 已提交的命令仍会执行完, 之后提交的命令直接以IllegalStateException失败
+     */
+    public synchronized void depose() {
+        running = false;
+        if (workers == null)
+            return;
+        for (Worker worker : workers)
+            worker.interrupt();
+    }
+
+    public <T> RedisFuture<T> submit(Command<T> command) {
+        if (workers == null)
+            init();
+        RedisFuture<T> future = new RedisFuture<T>();
+        if (!running) {
+            future.fail(new IllegalStateException("AsyncRedisService is closed"));
+            return future;
+        }
+        Worker[] tmp = workers;
+        Worker worker = tmp[(int) (Thread.currentThread().getId() % tmp.length)];
+        Task task = new Task(command, future);
+        worker.queue.offer(task);
+        // 与depose并发时, 工作线程可能已经退出, 还在队列中的话由这里负责失败
+        if (!running && worker.queue.remove(task))
+            future.fail(new IllegalStateException("AsyncRedisService is closed"));
+        return future;
+    }
+
+    public RedisFuture<String> get(final String key) {
+        return submit(new Command<String>() {
+            public Response<String> apply(Pipeline pipe) {
+                return pipe.get(key);
+            }
+        });
+    }
+
+    public RedisFuture<byte[]> get(final byte[] key) {
+        return submit(new Command<byte[]>() {
+            public Response<byte[]> apply(Pipeline pipe) {
+                return pipe.get(key);
+            }
+        });
+    }
+
+    public RedisFuture<String> set(final String key, final String value) {
+        return submit(new Command<String>() {
+            public Response<String> apply(Pipeline pipe) {
+                return pipe.set(key, value);
+            }
+        });
+    }
+
+    public RedisFuture<String> set(final byte[] key, final byte[] value) {
+        return submit(new Command<String>() {
+            public Response<String> apply(Pipeline pipe) {
+                return pipe.set(key, value);
+            }
+        });
+    }
+
+    public RedisFuture<String> setex(final String key, final int seconds, final String value) {
+        return submit(new Command<String>() {
+            public Response<String> apply(Pipeline pipe) {
+                return pipe.setex(key, seconds, value);
+            }
+        });
+    }
+
+    public RedisFuture<Long> del(final String key) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.del(key);
+            }
+        });
+    }
+
+    public RedisFuture<Boolean> exists(final String key) {
+        return submit(new Command<Boolean>() {
+            public Response<Boolean> apply(Pipeline pipe) {
+                return pipe.exists(key);
+            }
+        });
+    }
+
+    public RedisFuture<Long> expire(final String key, final int seconds) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.expire(key, seconds);
+            }
+        });
+    }
+
+    public RedisFuture<Long> incr(final String key) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.incr(key);
+            }
+        });
+    }
+
+    public RedisFuture<String> hget(final String key, final String field) {
+        return submit(new Command<String>() {
+            public Response<String> apply(Pipeline pipe) {
+                return pipe.hget(key, field);
+            }
+        });
+    }
+
+    public RedisFuture<Long> hset(final String key, final String field, final String value) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.hset(key, field, value);
+            }
+        });
+    }
+
+    public RedisFuture<Long> hdel(final String key, final String... fields) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.hdel(key, fields);
+            }
+        });
+    }
+
+    public RedisFuture<Map<String, String>> hgetAll(final String key) {
+        return submit(new Command<Map<String, String>>() {
+            public Response<Map<String, String>> apply(Pipeline pipe) {
+                return pipe.hgetAll(key);
+            }
+        });
+    }
+
+    public RedisFuture<Long> sadd(final String key, final String... members) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.sadd(key, members);
+            }
+        });
+    }
+
+    public RedisFuture<Long> srem(final String key, final String... members) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.srem(key, members);
+            }
+        });
+    }
+
+    public RedisFuture<Set<String>> smembers(final String key) {
+        return submit(new Command<Set<String>>() {
+            public Response<Set<String>> apply(Pipeline pipe) {
+                return pipe.smembers(key);
+            }
+        });
+    }
+
+    public RedisFuture<Boolean> sismember(final String key, final String member) {
+        return submit(new Command<Boolean>() {
+            public Response<Boolean> apply(Pipeline pipe) {
+                return pipe.sismember(key, member);
+            }
+        });
+    }
+
+    public RedisFuture<Long> zadd(final String key, final double score, final String member) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.zadd(key, score, member);
+            }
+        });
+    }
+
+    public RedisFuture<Double> zscore(final String key, final String member) {
+        return submit(new Command<Double>() {
+            public Response<Double> apply(Pipeline pipe) {
+                return pipe.zscore(key, member);
+            }
+        });
+    }
+
+    public RedisFuture<Long> lpush(final String key, final String... values) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.lpush(key, values);
+            }
+        });
+    }
+
+    public RedisFuture<Long> rpush(final String key, final String... values) {
+        return submit(new Command<Long>() {
+            public Response<Long> apply(Pipeline pipe) {
+                return pipe.rpush(key, values);
+            }
+        });
+    }
+
+    public RedisFuture<List<String>> lrange(final String key, final long start, final long end) {
+        return submit(new Command<List<String>>() {
+            public Response<List<String>> apply(Pipeline pipe) {
+                return pipe.lrange(key, start, end);
+            }
+        });
+    }
+    public void setJedisAgent(JedisAgent jedisAgent) {
+        this.jedisAgent = jedisAgent;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * 把一个命令写入pipeline. 集群模式下只能使用单key命令
+     */
+    public interface Command<T> {
+        Response<T> apply(Pipeline pipe);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected static class Task {
+        protected final Command command;
+        protected final RedisFuture future;
+
+        public Task(Command command, RedisFuture future) {
+            this.command = command;
+            this.future = future;
+        }
+    }
+
+    protected class Worker extends Thread {
+
+        protected LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+
+        public Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        public void run() {
+            List<Task> batch = new ArrayList<Task>();
+            Jedis jedis = null;
+            while (running || !queue.isEmpty()) {
+                try {
+                    Task first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null)
+                        continue;
+                    batch.add(first);
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                try {
+                    if (jedis == null)
+                        jedis = jedisAgent.jedis();
+                    execute(jedis, batch);
+                }
+                catch (Throwable e) {
+                    log.debug("batch fail, reconnect", e);
+                    for (Task task : batch)
+                        if (!task.future.isDone())
+                            task.future.fail(e);
+                    Streams.safeClose(jedis);
+                    jedis = null;
+                }
+                batch.clear();
+            }
+            Streams.safeClose(jedis);
+            Task task;
+            while ((task = queue.poll()) != null)
+                task.future.fail(new IllegalStateException("AsyncRedisService is closed"));
+        }
+
+        @SuppressWarnings("unchecked")
+        protected void execute(Jedis jedis, List<Task> batch) {
+            Pipeline pipe = jedis.pipelined();
+            List<Response<?>> resps = new ArrayList<Response<?>>(batch.size());
+            for (Task task : batch) {
+                try {
+                    resps.add(task.command.apply(pipe));
+                }
+                catch (RuntimeException e) {
+                    resps.add(null);
+                    task.future.fail(e);
+                }
+            }
+            if (pipe instanceof ClusterPipeline)
+                ((ClusterPipeline) pipe).close();
+            else
+                pipe.sync();
+            for (int i = 0; i < batch.size(); i++) {
+                Response<?> resp = resps.get(i);
+                if (resp == null)
+                    continue;
+                try {
+                    batch.get(i).future.done(resp.get());
+                }
+                catch (JedisDataException e) {
+                    batch.get(i).future.fail(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.nutz.integration.jedis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nutz.lang.Lang;
+import org.nutz.lang.Streams;
+import org.nutz.lang.Strings;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * RedisService.get/hget的本地缓存. 只缓存指定前缀的key, 总数不超过maxSize, 按LRU淘汰.
+ * <p/>
+ * 一致性依赖redis的keyspace通知: 用一个独立连接订阅 __keyspace@db__:前缀* , 任何修改/删除/过期都会使本地缓存失效.
+ * 订阅断开期间不使用缓存. 需要redis开启notify-keyspace-events(至少包含K及相应的事件), 可设置autoConfig自动开启.
+ * <p/>
+ * 集群模式下keyspace通知只在各节点本地产生, 暂不支持, 自动禁用
+ *
+ * @author wendal
+ *
+ */
+public class ClientSideCache {
+
+    private static final Log log = Logs.get();
+
+    public static final Object MISS = new Object();
+
+    protected static final Object NULL = new Object();
+
+    protected JedisAgent jedisAgent;
+
+    protected String[] prefixes = new String[0];
+
+    protected int maxSize = 10000;
+
+    protected int database;
+
+    /**
+     * 是否自动设置notify-keyspace-events
+     */
+    protected boolean autoConfig;
+
+    protected LinkedHashMap<String, Entry> lru = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * 每次失效加一. 从redis读取前记下, 写入本地缓存前若已变化则放弃写入, 避免把旧值缓存起来
+     */
+    protected AtomicLong generation = new AtomicLong();
+
+    protected AtomicLong hits = new AtomicLong();
+
+    protected AtomicLong misses = new AtomicLong();
+
+    protected AtomicLong invalidations = new AtomicLong();
+
+    protected volatile boolean listening;
+
+    protected volatile boolean running = true;
+
+    protected boolean disabled;
+
+    protected Thread thread;
+
+    protected Listener listener = new Listener();
+
+    /**
+     * 是否配置了前缀
+     */
+    public boolean isEnabled() {
+        return prefixes.length > 0 && !disabled;
+    }
+
+    /**
+     * key是否在缓存范围内
+     */
+    public boolean accept(String key) {
+        if (prefixes.length == 0 || disabled)
+            return false;
+        boolean match = false;
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                match = true;
+                break;
+            }
+        }
+        if (!match)
+            return false;
+        if (thread == null)
+            start();
+        return listening;
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    public Object get(String key) {
+        Entry en;
+        synchronized (lru) {
+            en = lru.get(key);
+        }
+        Object value = en == null ? MISS : en.value;
+        return count(value);
+    }
+
+    public Object hget(String key, String field) {
+        Entry en;
+        synchronized (lru) {
+            en = lru.get(key);
+        }
+        Object value = en == null ? null : en.fields.get(field);
+        return count(value == null ? MISS : value);
+    }
+
+    /**
+     * 写入本地缓存. value也可以是其他只读对象, 例如集合的快照
+     * @param gen 从redis读取之前的generation()
+     */
+    public void put(String key, Object value, long gen) {
+        synchronized (lru) {
+            if (gen != generation.get() || !listening)
+                return;
+            entry(key).value = value == null ? NULL : value;
+        }
+    }
+
+    public void hput(String key, String field, String value, long gen) {
+        synchronized (lru) {
+            if (gen != generation.get() || !listening)
+                return;
+            entry(key).fields.put(field, value == null ? NULL : value);
+        }
+    }
+
+    public void invalidate(String key) {
+        synchronized (lru) {
+            generation.incrementAndGet();
+            if (lru.remove(key) != null)
+                invalidations.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        synchronized (lru) {
+            generation.incrementAndGet();
+            lru.clear();
+        }
+    }
+
+    protected Entry entry(String key) {
+        Entry en = lru.get(key);
+        if (en == null) {
+            en = new Entry();
+            lru.put(key, en);
+        }
+        return en;
+    }
+
+    protected Object count(Object value) {
+        if (value == MISS) {
+            misses.incrementAndGet();
+            return MISS;
+        }
+        hits.incrementAndGet();
+        return value == NULL ? null : value;
+    }
+
+    protected synchronized void start() {
+        if (thread != null)
+            return;
+        Jedis jedis = jedisAgent.jedis();
+        try {
+            if (jedis instanceof JedisClusterWrapper) {
+                log.warn("client side cache not support redis cluster, disabled");
+                disabled = true;
+                return;
+            }
+            if (autoConfig) {
+                List<String> re = jedis.configGet("notify-keyspace-events");
+                String flags = re.size() > 1 ? re.get(1) : "";
+                if (!flags.contains("K") || !flags.contains("A"))
+                    jedis.configSet("notify-keyspace-events", flags + "KA");
+            }
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+        thread = new Thread("jedis.csc") {
+            public void run() {
+                listen();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    protected void listen() {
+        List<String> patterns = new ArrayList<String>();
+        for (String prefix : prefixes)
+            patterns.add("__keyspace@" + database + "__:" + prefix + "*");
+        int count = 0;
+        while (running) {
+            Jedis jedis = null;
+            try {
+                jedis = jedisAgent.jedis();
+                jedis.psubscribe(listener, patterns.toArray(new String[patterns.size()]));
+            }
+            catch (Exception e) {
+                if (!running)
+                    break;
+                log.debug("psubscribe fail, retry later", e);
+                Lang.quiteSleep(Math.min(30000, 1000L << Math.min(count++, 5)));
+            }
+            finally {
+                listening = false;
+                clear();
+                Streams.safeClose(jedis);
+            }
+        }
+    }
+
+    public void depose() {
+        running = false;
+        try {
+            if (listener.isSubscribed())
+                listener.punsubscribe();
+        }
+        catch (Exception e) {
+            log.debug("punsubscribe fail", e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    public void setJedisAgent(JedisAgent jedisAgent) {
+        this.jedisAgent = jedisAgent;
+    }
+
+    /**
+     * 逗号分隔的前缀列表, 为空则不启用
+     */
+    public void setPrefixes(String prefixes) {
+        this.prefixes = Strings.isBlank(prefixes) ? new String[0] : Strings.splitIgnoreBlank(prefixes);
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setDatabase(int database) {
+        this.database = database;
+    }
+
+    public void setAutoConfig(boolean autoConfig) {
+        this.autoConfig = autoConfig;
+    }
+
+    protected static class Entry {
+        protected volatile Object value = MISS;
+        protected ConcurrentHashMap<String, Object> fields = new ConcurrentHashMap<String, Object>();
+    }
+
+    protected class Listener extends JedisPubSub {
+
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+            if (subscribedChannels == prefixes.length) {
+                clear();
+                listening = true;
+            }
+        }
+
+        public void onPMessage(String pattern, String channel, String message) {
+            invalidate(channel.substring(channel.indexOf("__:") + 3));
+        }
+    }
+}
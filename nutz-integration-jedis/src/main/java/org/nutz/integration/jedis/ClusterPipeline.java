@@ -0,0 +1,216 @@
+package org.nutz.integration.jedis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.nutz.lang.Lang;
+import org.nutz.lang.Streams;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * 集群模式下的Pipeline. 按key所在的slot把命令写入对应节点的连接, sync时各节点并行读取响应,
+ * 再按命令的原始顺序填充Response.
+ * <p/>
+ * 只支持单key命令, 多key命令及事务(multi/exec)无法跨slot执行. 遇到MOVED时会刷新slot表,
+ * 但不会自动重试, 该命令的Response.get()会抛出JedisMovedDataException
+ *
+ * @author wendal
+ *
+ */
+public class ClusterPipeline extends Pipeline {
+
+    protected static ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "jedis.cluster.pipeline");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    protected JedisClusterWrapper wrapper;
+
+    /**
+     * 本pipeline借用的连接, key为host:port
+     */
+    protected Map<String, Jedis> nodes = new LinkedHashMap<String, Jedis>();
+
+    /**
+     * 每个命令写入了哪个连接, 即命令的原始顺序
+     */
+    protected List<Client> order = new ArrayList<Client>();
+
+    /**
+     * 读取响应失败的连接, close时销毁而不是归还
+     */
+    protected Set<Client> broken = new HashSet<Client>();
+
+    public ClusterPipeline(JedisClusterWrapper wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    protected Client getClient(String key) {
+        return client(JedisClusterCRC16.getSlot(key));
+    }
+
+    protected Client getClient(byte[] key) {
+        return client(JedisClusterCRC16.getSlot(key));
+    }
+
+    protected Client client(int slot) {
+        String node = wrapper.nodeOf(slot);
+        Jedis jedis = nodes.get(node);
+        if (jedis == null) {
+            jedis = wrapper.nodePool(node).getResource();
+            nodes.put(node, jedis);
+        }
+        Client client = jedis.getClient();
+        order.add(client);
+        return client;
+    }
+
+    public void sync() {
+        flush(false);
+    }
+
+    public List<Object> syncAndReturnAll() {
+        return flush(true);
+    }
+
+    protected List<Object> flush(boolean returnAll) {
+        List<Object> re = new ArrayList<Object>(order.size());
+        if (order.isEmpty())
+            return re;
+        // 先换掉order, 读取失败时也不会留下已失效的顺序
+        List<Client> tmp = order;
+        order = new ArrayList<Client>();
+        Map<Client, Integer> counts = new LinkedHashMap<Client, Integer>();
+        for (Client client : tmp) {
+            Integer count = counts.get(client);
+            counts.put(client, count == null ? 1 : count + 1);
+        }
+        Map<Client, RuntimeException> errors = new LinkedHashMap<Client, RuntimeException>();
+        Map<Client, Iterator<Object>> replies = read(counts, errors);
+        boolean moved = false;
+        for (Client client : tmp) {
+            RuntimeException e = errors.get(client);
+            // 读取失败的节点, 其命令的Response.get()抛出该异常
+            Object data = e != null ? new JedisDataException(e.getMessage(), e) : replies.get(client).next();
+            if (data instanceof JedisMovedDataException)
+                moved = true;
+            Response<?> resp = generateResponse(data);
+            if (returnAll) {
+                try {
+                    re.add(resp.get());
+                }
+                catch (JedisDataException ex) {
+                    re.add(ex);
+                }
+            }
+        }
+        if (moved)
+            wrapper.renewSlots();
+        if (!errors.isEmpty())
+            throw errors.values().iterator().next();
+        return re;
+    }
+
+    /**
+     * 各节点并行flush并读取响应, 只涉及一个节点时直接在当前线程读取. 等所有节点都读完才返回,
+     * 读取失败的连接记入broken, 异常放入errors
+     */
+    protected Map<Client, Iterator<Object>> read(Map<Client, Integer> counts, Map<Client, RuntimeException> errors) {
+        Map<Client, Iterator<Object>> replies = new HashMap<Client, Iterator<Object>>();
+        if (counts.size() == 1) {
+            Client client = counts.keySet().iterator().next();
+            try {
+                replies.put(client, client.getAll().iterator());
+            }
+            catch (RuntimeException e) {
+                errors.put(client, e);
+                broken.add(client);
+            }
+            return replies;
+        }
+        Map<Client, Future<List<Object>>> futures = new LinkedHashMap<Client, Future<List<Object>>>();
+        for (final Client client : counts.keySet()) {
+            futures.put(client, executor.submit(new Callable<List<Object>>() {
+                public List<Object> call() throws Exception {
+                    return client.getAll();
+                }
+            }));
+        }
+        boolean interrupted = false;
+        for (Entry<Client, Future<List<Object>>> en : futures.entrySet()) {
+            try {
+                replies.put(en.getKey(), en.getValue().get().iterator());
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+                errors.put(en.getKey(), Lang.wrapThrow(e));
+                broken.add(en.getKey());
+            }
+            catch (ExecutionException e) {
+                errors.put(en.getKey(), Lang.wrapThrow(e.getCause()));
+                broken.add(en.getKey());
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return replies;
+    }
+
+    public Response<String> multi() {
+        throw Lang.noImplement();
+    }
+
+    /**
+     * 归还借用的连接, 不再读取未同步的响应. 读取失败或还有未读响应的连接直接销毁, 以免下一个使用者读到错位的响应
+     */
+    public void close() {
+        try {
+            Set<Client> unread = new HashSet<Client>(order);
+            for (Entry<String, Jedis> en : nodes.entrySet()) {
+                Client client = en.getValue().getClient();
+                if (unread.contains(client) || broken.contains(client))
+                    discard(en.getKey(), en.getValue());
+                else
+                    Streams.safeClose(en.getValue());
+            }
+        }
+        finally {
+            nodes.clear();
+            order.clear();
+            broken.clear();
+            clean();
+        }
+    }
+
+    protected void discard(String node, Jedis jedis) {
+        try {
+            wrapper.nodePool(node).returnBrokenResource(jedis);
+        }
+        catch (RuntimeException e) {
+            jedis.disconnect();
+        }
+    }
+}
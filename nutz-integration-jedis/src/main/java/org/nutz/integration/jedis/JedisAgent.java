@@ -1,11 +1,21 @@
 package org.nutz.integration.jedis;
 
+import java.util.NoSuchElementException;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.nutz.integration.jedis.metrics.JedisMetrics;
+import org.nutz.integration.jedis.metrics.SimpleJedisMetrics;
 import org.nutz.ioc.Ioc;
 import org.nutz.ioc.impl.PropertiesProxy;
+import org.nutz.lang.Lang;
+import org.nutz.lang.Mirror;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
 import org.nutz.mvc.Mvcs;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.exceptions.JedisException;
 import redis.clients.util.Pool;
 
 /**
@@ -15,6 +25,8 @@ import redis.clients.util.Pool;
  */
 public class JedisAgent {
 
+    private static final Log log = Logs.get();
+
     // 通过注入得到
     protected Ioc ioc;
     // 通过注入得到
@@ -23,6 +35,14 @@ public class JedisAgent {
     protected Pool<Jedis> jedisPool;
     // 将JedisCluster封装为Jedis,就可以实现自动切换了
     protected JedisClusterWrapper jedisClusterWrapper;
+    // 统计接口, 为null时不统计. 配置redis.metrics=true时使用SimpleJedisMetrics. 集群模式下没有借出统计
+    protected JedisMetrics metrics;
+    // 自适应模式, 根据最近一段时间的并发数调整连接池的maxIdle. 集群模式下不生效
+    protected volatile boolean adaptive;
+    // 自适应模式的调整周期,单位秒
+    protected int adaptiveInterval = 10;
+    protected Thread adaptiveThread;
+    protected volatile boolean closed;
     
     public JedisAgent() {}
 
@@ -46,10 +66,131 @@ public class JedisAgent {
         if (jedisPool == null && jedisClusterWrapper == null && ioc == null && conf == null)
             ioc();//触发ioc获取
         if (!"cluster".equals(conf.get("redis.mode")))
-            return getJedisPool().getResource();
+            return borrow(getJedisPool());
         return getJedisClusterWrapper();
     }
+
+    protected Jedis borrow(Pool<Jedis> pool) {
+        if (adaptive && adaptiveThread == null && !closed)
+            startAdaptive();
+        JedisMetrics metrics = getMetrics();
+        if (metrics == null)
+            return pool.getResource();
+        long start = System.nanoTime();
+        try {
+            Jedis jedis = pool.getResource();
+            metrics.onBorrow(System.nanoTime() - start, false);
+            return jedis;
+        }
+        catch (JedisException e) {
+            metrics.onBorrow(System.nanoTime() - start, e.getCause() instanceof NoSuchElementException);
+            throw e;
+        }
+    }
+
+    public JedisMetrics getMetrics() {
+        if (metrics == null && conf != null && conf.getBoolean("redis.metrics", false)) {
+            synchronized (this) {
+                if (metrics == null)
+                    metrics = new SimpleJedisMetrics();
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 连接池当前借出的连接数, 集群模式下返回-1
+     */
+    public int getNumActive() {
+        return jedisPool == null ? -1 : jedisPool.getNumActive();
+    }
+
+    /**
+     * 连接池当前空闲的连接数, 集群模式下返回-1
+     */
+    public int getNumIdle() {
+        return jedisPool == null ? -1 : jedisPool.getNumIdle();
+    }
+
+    /**
+     * 正在等待借出连接的线程数, 集群模式下返回-1
+     */
+    public int getNumWaiters() {
+        return jedisPool == null ? -1 : jedisPool.getNumWaiters();
+    }
+
+    protected synchronized void startAdaptive() {
+        if (adaptiveThread != null || jedisPool == null || closed)
+            return;
+        final GenericObjectPool<?> pool = internalPool();
+        if (pool == null) {
+            log.warn("can't access GenericObjectPool of " + jedisPool.getClass().getName() + ", disable adaptive");
+            adaptive = false;
+            return;
+        }
+        adaptiveThread = new Thread("jedis.adaptive") {
+            public void run() {
+                int peak = 0;
+                int tick = 0;
+                while (adaptive && !closed) {
+                    Lang.quiteSleep(1000);
+                    if (closed)
+                        break;
+                    peak = Math.max(peak, jedisPool.getNumActive() + jedisPool.getNumWaiters());
+                    if (++tick < adaptiveInterval)
+                        continue;
+                    try {
+                        adjust(pool, peak);
+                    }
+                    catch (Throwable e) {
+                        log.debug("adjust maxIdle fail", e);
+                    }
+                    peak = 0;
+                    tick = 0;
+                }
+            }
+        };
+        adaptiveThread.setDaemon(true);
+        adaptiveThread.start();
+    }
+
+    /**
+     * jedis的Pool没有公开内部的GenericObjectPool, 通过反射读取internalPool字段. 其他jedis版本中字段不存在时返回null
+     */
+    protected GenericObjectPool<?> internalPool() {
+        try {
+            Object pool = Mirror.me(Pool.class).getValue(jedisPool, "internalPool");
+            if (pool instanceof GenericObjectPool)
+                return (GenericObjectPool<?>) pool;
+        }
+        catch (Throwable e) {
+            log.debug("get internalPool fail", e);
+        }
+        return null;
+    }
+
+    /**
+     * 把maxIdle调整为最近一个周期内峰值并发数的1.2倍, 介于minIdle和maxTotal之间
+     */
+    protected void adjust(GenericObjectPool<?> pool, int peak) {
+        int target = Math.max(pool.getMinIdle(), Math.min(pool.getMaxTotal(), (int) (peak * 1.2) + 1));
+        if (target != pool.getMaxIdle()) {
+            log.debugf("adjust maxIdle %d -> %d, peak=%d", pool.getMaxIdle(), target, peak);
+            pool.setMaxIdle(target);
+        }
+    }
     
+    /**
+     * 停止自适应线程, 连接池由jedisPool/jedisCluster自己的depose关闭
+     */
+    public synchronized void depose() {
+        closed = true;
+        if (adaptiveThread != null) {
+            adaptiveThread.interrupt();
+            adaptiveThread = null;
+        }
+    }
+
     public Jedis getResource() {
         return jedis();
     }
@@ -75,6 +216,18 @@ public class JedisAgent {
         this.jedisClusterWrapper = jedisClusterWrapper;
     }
     
+    public void setMetrics(JedisMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public void setAdaptiveInterval(int adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
     public void setConf(PropertiesProxy conf) {
         this.conf = conf;
     }
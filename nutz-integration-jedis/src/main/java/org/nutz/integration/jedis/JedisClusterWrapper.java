@@ -1,13 +1,22 @@
 package org.nutz.integration.jedis;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.nutz.lang.Lang;
+import org.nutz.lang.util.Callback;
 
 import redis.clients.jedis.BinaryClient.LIST_POSITION;
 import redis.clients.jedis.BinaryJedisPubSub;
@@ -26,6 +35,7 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.PipelineBlock;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.SortingParams;
@@ -33,10 +43,15 @@ import redis.clients.jedis.Transaction;
 import redis.clients.jedis.TransactionBlock;
 import redis.clients.jedis.Tuple;
 import redis.clients.jedis.ZParams;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
 import redis.clients.jedis.params.geo.GeoRadiusParam;
 import redis.clients.jedis.params.sortedset.ZAddParams;
 import redis.clients.jedis.params.sortedset.ZIncrByParams;
+import redis.clients.util.JedisClusterCRC16;
 import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 import redis.clients.util.Slowlog;
 
 /**
@@ -48,6 +63,13 @@ import redis.clients.util.Slowlog;
 public class JedisClusterWrapper extends Jedis {
 
     protected JedisCluster jedisCluster;
+
+    /**
+     * slot到节点(host:port)的映射, 首次使用pipeline时通过CLUSTER SLOTS获取
+     */
+    protected volatile String[] slots;
+
+    protected static final byte[] UNLINK_SCRIPT = SafeEncoder.encode("return redis.call('unlink', unpack(KEYS))");
     
     public JedisClusterWrapper() {}
     
@@ -63,36 +85,297 @@ public class JedisClusterWrapper extends Jedis {
         return jedisCluster;
     }
 
-    @Deprecated @Override
-    public Set<String> keys(String pattern) {
-        HashSet<String> keys = new HashSet<String>();
+    /**
+     * 重新获取slot映射
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void renewSlots() {
         for (JedisPool pool : jedisCluster.getClusterNodes().values()) {
             Jedis jedis = null;
             try {
                 jedis = pool.getResource();
-                keys.addAll(jedis.keys(pattern));
-            } finally {
+                String[] tmp = new String[JedisCluster.HASHSLOTS];
+                for (Object obj : jedis.clusterSlots()) {
+                    List<Object> range = (List<Object>) obj;
+                    List<Object> master = (List<Object>) range.get(2);
+                    String node = SafeEncoder.encode((byte[]) master.get(0)) + ":" + master.get(1);
+                    int end = ((Long) range.get(1)).intValue();
+                    for (int i = ((Long) range.get(0)).intValue(); i <= end; i++)
+                        tmp[i] = node;
+                }
+                slots = tmp;
+                return;
+            }
+            catch (JedisConnectionException e) {
+                // 换一个节点试试
+            }
+            finally {
                 if (jedis != null)
                     jedis.close();
             }
         }
+        throw new JedisClusterException("no reachable node to fetch cluster slots");
+    }
+
+    public String nodeOf(int slot) {
+        String[] tmp = slots;
+        if (tmp == null) {
+            renewSlots();
+            tmp = slots;
+        }
+        if (tmp[slot] == null)
+            throw new JedisClusterException("slot " + slot + " not covered");
+        return tmp[slot];
+    }
+
+    public JedisPool nodePool(String node) {
+        JedisPool pool = jedisCluster.getClusterNodes().get(node);
+        if (pool == null)
+            throw new JedisClusterException("no pool for node " + node);
+        return pool;
+    }
+
+    /**
+     * 基于全集群SCAN实现, 不会阻塞redis, 但结果仍需全部放在内存中. 大量key时请使用scanIterator或scan(params, callback)
+     */
+    @Deprecated @Override
+    public Set<String> keys(String pattern) {
+        HashSet<String> keys = new HashSet<String>();
+        Iterator<String> it = scanIterator(new ScanParams().match(pattern).count(1000));
+        while (it.hasNext())
+            keys.add(it.next());
         return keys;
     }
 
     @Deprecated @Override
     public Set<byte[]> keys(byte[] pattern) {
         HashSet<byte[]> keys = new HashSet<byte[]>();
-        for (JedisPool pool : jedisCluster.getClusterNodes().values()) {
-            Jedis jedis = null;
+        ScanParams params = new ScanParams().match(pattern).count(1000);
+        byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+        do {
+            ScanResult<byte[]> re = scan(cursor, params);
+            keys.addAll(re.getResult());
+            cursor = re.getCursorAsBytes();
+        } while (!ScanParams.SCAN_POINTER_START.equals(SafeEncoder.encode(cursor)));
+        return keys;
+    }
+
+    /**
+     * 集群内所有master节点, 即slot表中出现的节点
+     */
+    public List<String> masters() {
+        String[] tmp = slots;
+        if (tmp == null) {
+            renewSlots();
+            tmp = slots;
+        }
+        Set<String> nodes = new TreeSet<String>();
+        for (String node : tmp)
+            if (node != null)
+                nodes.add(node);
+        return new ArrayList<String>(nodes);
+    }
+
+    /**
+     * 逐批遍历整个集群中匹配的key, 内存中同一时间最多只有一批(master数*COUNT)
+     */
+    public void scan(ScanParams params, Callback<List<String>> callback) {
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> re = scan(cursor, params);
+            if (!re.getResult().isEmpty())
+                callback.invoke(re.getResult());
+            cursor = re.getStringCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+    }
+
+    /**
+     * 以Iterator的形式遍历整个集群中匹配的key, 按需逐批SCAN
+     */
+    public Iterator<String> scanIterator(final ScanParams params) {
+        return new Iterator<String>() {
+            String cursor;
+            Iterator<String> batch = Collections.<String> emptyList().iterator();
+
+            public boolean hasNext() {
+                while (!batch.hasNext()) {
+                    if (ScanParams.SCAN_POINTER_START.equals(cursor))
+                        return false;
+                    ScanResult<String> re = scan(cursor == null ? ScanParams.SCAN_POINTER_START : cursor, params);
+                    cursor = re.getStringCursor();
+                    batch = re.getResult().iterator();
+                }
+                return true;
+            }
+
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return batch.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 在所有未完成的master上并发执行一次SCAN. 游标由各master的游标拼接而成,
+     * 格式为 host:port=游标,host:port=游标... , "0"代表开始和结束
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> ScanResult<T> scanCluster(String cursor, final ScanParams params, final boolean binary) {
+        Map<String, Future<ScanResult<?>>> futures = new LinkedHashMap<String, Future<ScanResult<?>>>();
+        for (final Entry<String, String> en : decodeCursor(cursor).entrySet()) {
+            futures.put(en.getKey(), ClusterPipeline.executor.submit(new Callable<ScanResult<?>>() {
+                public ScanResult<?> call() throws Exception {
+                    Jedis jedis = nodePool(en.getKey()).getResource();
+                    try {
+                        if (binary)
+                            return jedis.scan(SafeEncoder.encode(en.getValue()), params);
+                        return jedis.scan(en.getValue(), params);
+                    }
+                    finally {
+                        jedis.close();
+                    }
+                }
+            }));
+        }
+        List<T> result = new ArrayList<T>();
+        Map<String, String> next = new LinkedHashMap<String, String>();
+        for (Entry<String, Future<ScanResult<?>>> en : futures.entrySet()) {
+            ScanResult<?> re;
             try {
-                jedis = pool.getResource();
-                keys.addAll(jedis.keys(pattern));
-            } finally {
-                if (jedis != null)
-                    jedis.close();
+                re = en.getValue().get();
+            }
+            catch (InterruptedException e) {
+                throw Lang.wrapThrow(e);
+            }
+            catch (ExecutionException e) {
+                throw Lang.wrapThrow(e.getCause());
             }
+            result.addAll((List<T>) re.getResult());
+            next.put(en.getKey(), re.getStringCursor());
         }
-        return keys;
+        return new ScanResult<T>(encodeCursor(next), result);
+    }
+
+    /**
+     * 非阻塞地删除一批key. 按slot分组, 每组通过lua执行一次UNLINK(同一个slot的key可以在一个脚本中访问),
+     * 各master并行执行. 遇到MOVED时刷新slot表重试一次. 服务器不支持UNLINK时抛出JedisDataException, 调用方可退回del
+     *
+     * @return 删除的key数量
+     */
+    public long unlink(String... keys) {
+        for (int i = 0;; i++) {
+            try {
+                return unlinkBySlot(keys);
+            }
+            catch (JedisMovedDataException e) {
+                if (i > 0)
+                    throw e;
+                renewSlots();
+            }
+        }
+    }
+
+    protected long unlinkBySlot(String... keys) {
+        Map<Integer, List<String>> groups = new LinkedHashMap<Integer, List<String>>();
+        for (String key : keys) {
+            int slot = JedisClusterCRC16.getSlot(key);
+            List<String> group = groups.get(slot);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(slot, group);
+            }
+            group.add(key);
+        }
+        Map<String, List<List<String>>> byNode = new LinkedHashMap<String, List<List<String>>>();
+        for (Entry<Integer, List<String>> en : groups.entrySet()) {
+            String node = nodeOf(en.getKey());
+            List<List<String>> tmp = byNode.get(node);
+            if (tmp == null) {
+                tmp = new ArrayList<List<String>>();
+                byNode.put(node, tmp);
+            }
+            tmp.add(en.getValue());
+        }
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (final Entry<String, List<List<String>>> en : byNode.entrySet()) {
+            futures.add(ClusterPipeline.executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    Jedis jedis = nodePool(en.getKey()).getResource();
+                    try {
+                        Pipeline pipe = jedis.pipelined();
+                        List<Response<Object>> resps = new ArrayList<Response<Object>>();
+                        for (List<String> group : en.getValue()) {
+                            byte[][] tmp = new byte[group.size()][];
+                            for (int i = 0; i < tmp.length; i++)
+                                tmp[i] = SafeEncoder.encode(group.get(i));
+                            resps.add(pipe.eval(UNLINK_SCRIPT, tmp.length, tmp));
+                        }
+                        pipe.sync();
+                        long count = 0;
+                        for (Response<Object> resp : resps)
+                            count += (Long) resp.get();
+                        return count;
+                    }
+                    finally {
+                        jedis.close();
+                    }
+                }
+            }));
+        }
+        long count = 0;
+        for (Future<Long> future : futures) {
+            try {
+                count += future.get();
+            }
+            catch (InterruptedException e) {
+                throw Lang.wrapThrow(e);
+            }
+            catch (ExecutionException e) {
+                throw Lang.wrapThrow(e.getCause());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 拼接各master的游标, 已结束(游标为"0")的master不再出现, 全部结束时返回"0"
+     */
+    protected String encodeCursor(Map<String, String> cursors) {
+        StringBuilder sb = new StringBuilder();
+        for (Entry<String, String> en : cursors.entrySet()) {
+            if (ScanParams.SCAN_POINTER_START.equals(en.getValue()))
+                continue;
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(en.getKey()).append('=').append(en.getValue());
+        }
+        if (sb.length() == 0)
+            sb.append(ScanParams.SCAN_POINTER_START);
+        return sb.toString();
+    }
+
+    /**
+     * encodeCursor的逆操作, "0"代表从头开始遍历所有master
+     */
+    protected Map<String, String> decodeCursor(String cursor) {
+        Map<String, String> cursors = new LinkedHashMap<String, String>();
+        if (cursor == null || cursor.isEmpty() || ScanParams.SCAN_POINTER_START.equals(cursor)) {
+            for (String node : masters())
+                cursors.put(node, ScanParams.SCAN_POINTER_START);
+            return cursors;
+        }
+        for (String item : cursor.split(",")) {
+            int index = item.lastIndexOf('=');
+            if (index < 1)
+                throw new IllegalArgumentException("bad cluster scan cursor : " + cursor);
+            cursors.put(item.substring(0, index), item.substring(index + 1));
+        }
+        return cursors;
     }
     
     public String set(String key, String value) {
@@ -109,8 +392,22 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public Long exists(String... keys) {
-        return jedisCluster.exists(keys);
+    public Long exists(final String... keys) {
+        if (keys.length < 2)
+            return jedisCluster.exists(keys);
+        return scatter(new Scatter<Long, Boolean>() {
+            void send(ClusterPipeline pipe) {
+                for (String key : keys)
+                    resps.add(pipe.exists(key));
+            }
+            Long gather() {
+                long count = 0;
+                for (Response<Boolean> resp : resps)
+                    if (resp.get())
+                        count++;
+                return count;
+            }
+        });
     }
     
     public String set(byte[] key, byte[] value) {
@@ -133,8 +430,21 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public Long del(String... keys) {
-        return jedisCluster.del(keys);
+    public Long del(final String... keys) {
+        if (keys.length < 2)
+            return jedisCluster.del(keys);
+        return scatter(new Scatter<Long, Long>() {
+            void send(ClusterPipeline pipe) {
+                for (String key : keys)
+                    resps.add(pipe.del(key));
+            }
+            Long gather() {
+                long count = 0;
+                for (Response<Long> resp : resps)
+                    count += resp.get();
+                return count;
+            }
+        });
     }
 
     
@@ -158,8 +468,22 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public Long exists(byte[]... keys) {
-        return jedisCluster.exists(keys);
+    public Long exists(final byte[]... keys) {
+        if (keys.length < 2)
+            return jedisCluster.exists(keys);
+        return scatter(new Scatter<Long, Boolean>() {
+            void send(ClusterPipeline pipe) {
+                for (byte[] key : keys)
+                    resps.add(pipe.exists(key));
+            }
+            Long gather() {
+                long count = 0;
+                for (Response<Boolean> resp : resps)
+                    if (resp.get())
+                        count++;
+                return count;
+            }
+        });
     }
 
 
@@ -169,8 +493,21 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public Long del(byte[]... keys) {
-        return jedisCluster.del(keys);
+    public Long del(final byte[]... keys) {
+        if (keys.length < 2)
+            return jedisCluster.del(keys);
+        return scatter(new Scatter<Long, Long>() {
+            void send(ClusterPipeline pipe) {
+                for (byte[] key : keys)
+                    resps.add(pipe.del(key));
+            }
+            Long gather() {
+                long count = 0;
+                for (Response<Long> resp : resps)
+                    count += resp.get();
+                return count;
+            }
+        });
     }
 
     
@@ -241,8 +578,21 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public List<String> mget(String... keys) {
-        return jedisCluster.mget(keys);
+    public List<String> mget(final String... keys) {
+        if (keys.length < 2)
+            return jedisCluster.mget(keys);
+        return scatter(new Scatter<List<String>, String>() {
+            void send(ClusterPipeline pipe) {
+                for (String key : keys)
+                    resps.add(pipe.get(key));
+            }
+            List<String> gather() {
+                List<String> re = new ArrayList<String>(resps.size());
+                for (Response<String> resp : resps)
+                    re.add(resp.get());
+                return re;
+            }
+        });
     }
 
     
@@ -261,8 +611,22 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public String mset(String... keysvalues) {
-        return jedisCluster.mset(keysvalues);
+    public String mset(final String... keysvalues) {
+        if (keysvalues.length % 2 != 0)
+            throw new IllegalArgumentException("wrong number of arguments for MSET");
+        if (keysvalues.length < 4)
+            return jedisCluster.mset(keysvalues);
+        return scatter(new Scatter<String, String>() {
+            void send(ClusterPipeline pipe) {
+                for (int i = 0; i < keysvalues.length; i += 2)
+                    resps.add(pipe.set(keysvalues[i], keysvalues[i + 1]));
+            }
+            String gather() {
+                for (Response<String> resp : resps)
+                    resp.get();
+                return "OK";
+            }
+        });
     }
 
     
@@ -296,8 +660,21 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public List<byte[]> mget(byte[]... keys) {
-        return jedisCluster.mget(keys);
+    public List<byte[]> mget(final byte[]... keys) {
+        if (keys.length < 2)
+            return jedisCluster.mget(keys);
+        return scatter(new Scatter<List<byte[]>, byte[]>() {
+            void send(ClusterPipeline pipe) {
+                for (byte[] key : keys)
+                    resps.add(pipe.get(key));
+            }
+            List<byte[]> gather() {
+                List<byte[]> re = new ArrayList<byte[]>(resps.size());
+                for (Response<byte[]> resp : resps)
+                    re.add(resp.get());
+                return re;
+            }
+        });
     }
 
     
@@ -321,8 +698,22 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     
-    public String mset(byte[]... keysvalues) {
-        return jedisCluster.mset(keysvalues);
+    public String mset(final byte[]... keysvalues) {
+        if (keysvalues.length % 2 != 0)
+            throw new IllegalArgumentException("wrong number of arguments for MSET");
+        if (keysvalues.length < 4)
+            return jedisCluster.mset(keysvalues);
+        return scatter(new Scatter<String, String>() {
+            void send(ClusterPipeline pipe) {
+                for (int i = 0; i < keysvalues.length; i += 2)
+                    resps.add(pipe.set(keysvalues[i], keysvalues[i + 1]));
+            }
+            String gather() {
+                for (Response<String> resp : resps)
+                    resp.get();
+                return "OK";
+            }
+        });
     }
 
     
@@ -1622,8 +2013,11 @@ public class JedisClusterWrapper extends Jedis {
         return jedisCluster.evalsha(sha1, keyCount, params);
     }
     
+    /**
+     * 全集群SCAN, 返回的游标是组合游标, 原样传回即可
+     */
     public ScanResult<String> scan(String cursor, ScanParams params) {
-        return jedisCluster.scan(cursor, params);
+        return scanCluster(cursor, params, false);
     }
 
     public ScanResult<Entry<String, String>> hscan(String key, String cursor) {
@@ -1697,7 +2091,8 @@ public class JedisClusterWrapper extends Jedis {
     }
 
     public ScanResult<byte[]> scan(byte[] cursor, ScanParams params) {
-        return jedisCluster.scan(cursor, params);
+        ScanResult<byte[]> re = scanCluster(SafeEncoder.encode(cursor), params, true);
+        return new ScanResult<byte[]>(re.getCursorAsBytes(), re.getResult());
     }
 
 
@@ -2093,10 +2488,11 @@ public class JedisClusterWrapper extends Jedis {
         throw Lang.noImplement();
     }
 
-    @Deprecated @Override
-    public Pipeline pipelined() {
-        //return jedisCluster.pipelined();
-        throw Lang.noImplement();
+    /**
+     * 按slot分发到各节点的pipeline, 只支持单key命令. 用完务必close, 以归还各节点的连接
+     */
+    public ClusterPipeline pipelined() {
+        return new ClusterPipeline(this);
     }
     
     @Deprecated @Override
@@ -2347,10 +2743,8 @@ public class JedisClusterWrapper extends Jedis {
     }
     
     
-    @Deprecated @Override
     public ScanResult<String> scan(String cursor) {
-        //return jedisCluster.scan(cursor);
-        throw Lang.noImplement();
+        return scan(cursor, new ScanParams());
     }
 
     @Deprecated @Override
@@ -2616,10 +3010,8 @@ public class JedisClusterWrapper extends Jedis {
         throw Lang.noImplement();
     }
 
-    @Deprecated @Override
     public ScanResult<byte[]> scan(byte[] cursor) {
-        //return jedisCluster.scan(cursor);
-        throw Lang.noImplement();
+        return scan(cursor, new ScanParams());
     }
 
     
@@ -2669,4 +3061,32 @@ public class JedisClusterWrapper extends Jedis {
         //return jedisCluster.watch(keys);
         throw Lang.noImplement();
     }
+
+    /**
+     * 多key命令拆成单key命令, 经ClusterPipeline发往各节点并行执行, 再按原顺序汇总. 遇到MOVED时刷新slot表重试一次
+     */
+    protected <T> T scatter(Scatter<T, ?> scatter) {
+        for (int i = 0;; i++) {
+            ClusterPipeline pipe = pipelined();
+            try {
+                scatter.resps.clear(); // 重试时丢弃上一次的Response
+                scatter.send(pipe);
+                pipe.sync();
+                return scatter.gather();
+            }
+            catch (JedisMovedDataException e) {
+                if (i > 0)
+                    throw e;
+            }
+            finally {
+                pipe.close();
+            }
+        }
+    }
+
+    protected static abstract class Scatter<T, R> {
+        protected List<Response<R>> resps = new ArrayList<Response<R>>();
+        abstract void send(ClusterPipeline pipe);
+        abstract T gather();
+    }
 }
@@ -0,0 +1,198 @@
+package org.nutz.integration.jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.nutz.integration.jedis.AsyncRedisService.Command;
+import org.nutz.ioc.Ioc;
+import org.nutz.lang.Streams;
+import org.nutz.mvc.Mvcs;
+import org.nutz.trans.Atom;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 批量作用域. 作用域内共用同一个Jedis连接(与RedisInterceptor共享), 通过Redis.lazy()发出的命令只写入pipeline,
+ * 返回的RedisFuture在首次get时, 或作用域结束时, 或作用域内下一次经RedisService/@Aop("redis")的同步调用前统一flush.
+ * N次往返因此变成一次.
+ *
+ * <pre>
+ * Redis.batch(new Atom() {
+ *     public void run() {
+ *         for (String id : ids)
+ *             titles.add(Redis.lazy().hget("t:" + id, "title"));
+ *     }
+ * });
+ * </pre>
+ *
+ * 注意: 只有Redis.lazy()/queue()的命令进入pipeline, 作用域内RedisService的方法仍逐条同步执行(共用同一个连接).
+ * 作用域内直接使用RedisInterceptor.jedis()前, 需先调用Redis.flush(). RedisFuture只能在本线程get
+ *
+ * @author wendal
+ *
+ */
+public class Redis {
+
+    protected static ThreadLocal<Batch> BATCH = new ThreadLocal<Batch>();
+
+    protected static final AsyncRedisService LAZY = new AsyncRedisService() {
+        public <T> RedisFuture<T> submit(Command<T> command) {
+            return queue(command);
+        }
+    };
+
+    /**
+     * 使用mvc默认Ioc中的JedisAgent, 非mvc环境请使用batch(JedisAgent, Atom)
+     */
+    public static void batch(Atom atom) {
+        batch(null, atom);
+    }
+
+    public static void batch(JedisAgent jedisAgent, Atom atom) {
+        if (inBatch()) {
+            atom.run();
+            return;
+        }
+        begin(jedisAgent);
+        try {
+            atom.run();
+            flush();
+        }
+        finally {
+            end();
+        }
+    }
+
+    public static boolean inBatch() {
+        return BATCH.get() != null;
+    }
+
+    /**
+     * 作用域内的快捷命令, 返回值在flush后可用
+     */
+    public static AsyncRedisService lazy() {
+        return LAZY;
+    }
+
+    public static <T> RedisFuture<T> queue(Command<T> command) {
+        Batch batch = BATCH.get();
+        if (batch == null)
+            throw new IllegalStateException("not in Redis.batch scope");
+        return batch.queue(command);
+    }
+
+    /**
+     * 执行已写入pipeline的命令, 不在作用域内时什么都不做
+     */
+    public static void flush() {
+        Batch batch = BATCH.get();
+        if (batch != null)
+            batch.flush();
+    }
+
+    protected static void begin(JedisAgent jedisAgent) {
+        Jedis jedis = RedisInterceptor.TL.get();
+        boolean owner = jedis == null;
+        if (owner) {
+            if (jedisAgent == null) {
+                Ioc ioc = Mvcs.ctx().getDefaultIoc();
+                if (ioc == null)
+                    throw new IllegalStateException("no default Ioc, use Redis.batch(jedisAgent, atom) instead");
+                jedisAgent = ioc.get(JedisAgent.class);
+            }
+            jedis = jedisAgent.jedis();
+            RedisInterceptor.TL.set(jedis);
+        }
+        BATCH.set(new Batch(jedis, owner));
+    }
+
+    protected static void end() {
+        Batch batch = BATCH.get();
+        BATCH.remove();
+        if (batch == null)
+            return;
+        try {
+            if (batch.pipe instanceof ClusterPipeline)
+                ((ClusterPipeline) batch.pipe).close();
+        }
+        finally {
+            if (batch.owner) {
+                Streams.safeClose(batch.jedis);
+                RedisInterceptor.TL.remove();
+            }
+        }
+    }
+
+    protected static class Batch {
+
+        protected final Jedis jedis;
+
+        protected final boolean owner;
+
+        protected Pipeline pipe;
+
+        protected List<LazyFuture<?>> pending = new ArrayList<LazyFuture<?>>();
+
+        public Batch(Jedis jedis, boolean owner) {
+            this.jedis = jedis;
+            this.owner = owner;
+        }
+
+        public <T> RedisFuture<T> queue(Command<T> command) {
+            if (pipe == null)
+                pipe = jedis.pipelined();
+            LazyFuture<T> future = new LazyFuture<T>(this, command.apply(pipe));
+            pending.add(future);
+            return future;
+        }
+
+        public void flush() {
+            if (pending.isEmpty())
+                return;
+            List<LazyFuture<?>> tmp = pending;
+            pending = new ArrayList<LazyFuture<?>>();
+            pipe.sync();
+            for (LazyFuture<?> future : tmp)
+                future.complete();
+        }
+    }
+
+    protected static class LazyFuture<T> extends RedisFuture<T> {
+
+        protected Batch batch;
+
+        protected Response<T> resp;
+
+        public LazyFuture(Batch batch, Response<T> resp) {
+            this.batch = batch;
+            this.resp = resp;
+        }
+
+        protected void complete() {
+            try {
+                done(resp.get());
+            }
+            catch (JedisDataException e) {
+                fail(e);
+            }
+        }
+
+        public T get() throws InterruptedException, ExecutionException {
+            if (!isDone())
+                batch.flush();
+            return super.get();
+        }
+
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!isDone())
+                batch.flush();
+            return super.get(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.nutz.integration.jedis;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注在@Aop("redis")的方法上, 方法执行期间开启Redis.batch作用域
+ *
+ * @author wendal
+ * @see Redis
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RedisBatch {}
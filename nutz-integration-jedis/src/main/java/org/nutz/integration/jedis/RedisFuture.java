@@ -0,0 +1,112 @@
+package org.nutz.integration.jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.nutz.lang.util.Callback2;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * AsyncRedisService返回的结果, 命令所在的批次执行完毕后可用. 不支持取消.
+ * 不想阻塞等待的话, 可通过onComplete注册回调
+ *
+ * @author wendal
+ *
+ */
+public class RedisFuture<T> implements Future<T> {
+
+    private static final Log log = Logs.get();
+
+    protected final CountDownLatch latch = new CountDownLatch(1);
+
+    protected volatile T value;
+
+    protected volatile Throwable error;
+
+    /**
+     * 完成前注册的回调, 完成后置为null
+     */
+    protected List<Callback2<T, Throwable>> callbacks = new ArrayList<Callback2<T, Throwable>>();
+
+    protected void done(T value) {
+        complete(value, null);
+    }
+
+    protected void fail(Throwable error) {
+        complete(null, error);
+    }
+
+    protected void complete(T value, Throwable error) {
+        List<Callback2<T, Throwable>> tmp;
+        synchronized (this) {
+            if (callbacks == null)
+                return; // 只认第一次完成
+            this.value = value;
+            this.error = error;
+            latch.countDown();
+            tmp = callbacks;
+            callbacks = null;
+        }
+        for (Callback2<T, Throwable> callback : tmp)
+            invoke(callback);
+    }
+
+    /**
+     * 完成(成功或失败)时回调, 参数为结果和异常, 成功时异常为null. 已完成的话立即在当前线程回调,
+     * 否则在完成命令的线程(AsyncRedisService的工作线程, 或执行flush的线程)中回调, 回调中不应有耗时操作
+     */
+    public RedisFuture<T> onComplete(Callback2<T, Throwable> callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        invoke(callback);
+        return this;
+    }
+
+    protected void invoke(Callback2<T, Throwable> callback) {
+        try {
+            callback.invoke(value, error);
+        }
+        catch (Throwable e) {
+            log.warn("RedisFuture callback fail", e);
+        }
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return report();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit))
+            throw new TimeoutException();
+        return report();
+    }
+
+    protected T report() throws ExecutionException {
+        if (error != null)
+            throw new ExecutionException(error);
+        return value;
+    }
+}
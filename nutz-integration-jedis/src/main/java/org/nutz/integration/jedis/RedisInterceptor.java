@@ -2,6 +2,7 @@ package org.nutz.integration.jedis;
 
 import org.nutz.aop.InterceptorChain;
 import org.nutz.aop.MethodInterceptor;
+import org.nutz.integration.jedis.metrics.JedisMetrics;
 import org.nutz.lang.Streams;
 
 import redis.clients.jedis.Jedis;
@@ -13,18 +14,52 @@ public class RedisInterceptor implements MethodInterceptor {
 	protected static ThreadLocal<Jedis> TL = new ThreadLocal<Jedis>();
 	
 	public void filter(InterceptorChain chain) throws Throwable {
+		if (!Redis.inBatch() && chain.getCallingMethod().isAnnotationPresent(RedisBatch.class)) {
+			Redis.begin(jedisAgent);
+			try {
+				chain.doChain();
+				Redis.flush();
+			} finally {
+				Redis.end();
+			}
+			return;
+		}
 		if (TL.get() != null) {
+			Redis.flush(); // 批量作用域内, 同步调用前先执行pipeline中的命令
 			chain.doChain();
 			return;
 		}
+		JedisMetrics metrics = jedisAgent.getMetrics();
+		if (metrics == null) {
+			Jedis jedis = null;
+			try {
+			    jedis = jedisAgent.jedis();
+				TL.set(jedis);
+				chain.doChain();
+			} finally{
+	            Streams.safeClose(jedis);
+				TL.remove();
+			}
+			return;
+		}
 		Jedis jedis = null;
+		long start = 0;
+		boolean error = true;
 		try {
 		    jedis = jedisAgent.jedis();
+		    start = System.nanoTime();
 			TL.set(jedis);
 			chain.doChain();
+			error = false;
 		} finally{
             Streams.safeClose(jedis);
 			TL.remove();
+			if (jedis != null) {
+				long cost = System.nanoTime() - start;
+				metrics.onReturn(cost);
+				if (chain.getCallingObj() instanceof RedisService)
+					metrics.onCommand(chain.getCallingMethod().getName(), cost, error);
+			}
 		}
 	}
 	
@@ -16,6 +16,7 @@ import redis.clients.jedis.params.geo.GeoRadiusParam;
 import redis.clients.jedis.params.sortedset.ZAddParams;
 import redis.clients.jedis.params.sortedset.ZIncrByParams;
 import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 import redis.clients.util.Slowlog;
 
 /**
@@ -26,6 +27,60 @@ import redis.clients.util.Slowlog;
 @SuppressWarnings("deprecation")
 public class RedisService extends Jedis {
 
+    /**
+     * get/hget的本地缓存, 为null时不启用
+     */
+    protected ClientSideCache clientCache;
+
+    /**
+     * 没有配置前缀的ClientSideCache等同于不启用, 不再保留引用, 免得每次get/set都走一遍判断
+     */
+    public void setClientCache(ClientSideCache clientCache) {
+        this.clientCache = clientCache == null || !clientCache.isEnabled() ? null : clientCache;
+    }
+
+    /**
+     * 本实例修改过的key立即从本地缓存移除, 不等keyspace通知, 保证读到自己的写入
+     */
+    protected void invalidate(String... keys) {
+        if (clientCache == null)
+            return;
+        for (String key : keys)
+            clientCache.invalidate(key);
+    }
+
+    protected void invalidate(byte[]... keys) {
+        if (clientCache == null)
+            return;
+        for (byte[] key : keys)
+            clientCache.invalidate(SafeEncoder.encode(key));
+    }
+
+    /**
+     * mset/msetnx的参数, 偶数位是key
+     */
+    protected void invalidatePairs(String... keysvalues) {
+        if (clientCache == null)
+            return;
+        for (int i = 0; i < keysvalues.length; i += 2)
+            clientCache.invalidate(keysvalues[i]);
+    }
+
+    protected void invalidatePairs(byte[]... keysvalues) {
+        if (clientCache == null)
+            return;
+        for (int i = 0; i < keysvalues.length; i += 2)
+            clientCache.invalidate(SafeEncoder.encode(keysvalues[i]));
+    }
+
+    /**
+     * flush及lua脚本, 无法确定改了哪些key, 整个本地缓存清空
+     */
+    protected void invalidateAll() {
+        if (clientCache != null)
+            clientCache.clear();
+    }
+
     /**
      * Set the string value as value of the key. The string can't be longer than 1073741824 bytes (1GB).
      * <p>
@@ -37,7 +92,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String set(String key, String value) {
-        return jedis().set(key, value);
+        try {
+            return jedis().set(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -54,7 +114,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String set(String key, String value, String nxxx, String expx, long time) {
-        return jedis().set(key, value, nxxx, expx, time);
+        try {
+            return jedis().set(key, value, nxxx, expx, time);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -68,7 +133,15 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String get(String key) {
-        return jedis().get(key);
+        if (clientCache == null || !clientCache.accept(key))
+            return jedis().get(key);
+        Object re = clientCache.get(key);
+        if (re != ClientSideCache.MISS)
+            return (String) re;
+        long gen = clientCache.generation();
+        String value = jedis().get(key);
+        clientCache.put(key, value, gen);
+        return value;
     }
 
     /**
@@ -100,7 +173,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String set(byte[] key, byte[] value) {
-        return jedis().set(key, value);
+        try {
+            return jedis().set(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -180,7 +258,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String set(byte[] key, byte[] value, byte[] nxxx, byte[] expx, long time) {
-        return jedis().set(key, value, nxxx, expx, time);
+        try {
+            return jedis().set(key, value, nxxx, expx, time);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -193,12 +276,22 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long del(String... keys) {
-        return jedis().del(keys);
+        try {
+            return jedis().del(keys);
+        }
+        finally {
+            invalidate(keys);
+        }
     }
 
     @Aop("redis")
     public Long del(String key) {
-        return jedis().del(key);
+        try {
+            return jedis().del(key);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -309,12 +402,22 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long del(byte[]... keys) {
-        return jedis().del(keys);
+        try {
+            return jedis().del(keys);
+        }
+        finally {
+            invalidate(keys);
+        }
     }
 
     @Aop("redis")
     public Long del(byte[] key) {
-        return jedis().del(key);
+        try {
+            return jedis().del(key);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -357,7 +460,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String rename(String oldkey, String newkey) {
-        return jedis().rename(oldkey, newkey);
+        try {
+            return jedis().rename(oldkey, newkey);
+        }
+        finally {
+            invalidate(oldkey, newkey);
+        }
     }
 
     /**
@@ -367,7 +475,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String flushDB() {
-        return jedis().flushDB();
+        try {
+            return jedis().flushDB();
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     /**
@@ -381,7 +494,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long renamenx(String oldkey, String newkey) {
-        return jedis().renamenx(oldkey, newkey);
+        try {
+            return jedis().renamenx(oldkey, newkey);
+        }
+        finally {
+            invalidate(oldkey, newkey);
+        }
     }
 
     /**
@@ -441,7 +559,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long expire(String key, int seconds) {
-        return jedis().expire(key, seconds);
+        try {
+            return jedis().expire(key, seconds);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -469,7 +592,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String rename(byte[] oldkey, byte[] newkey) {
-        return jedis().rename(oldkey, newkey);
+        try {
+            return jedis().rename(oldkey, newkey);
+        }
+        finally {
+            invalidate(oldkey, newkey);
+        }
     }
 
     /**
@@ -498,7 +626,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long expireAt(String key, long unixTime) {
-        return jedis().expireAt(key, unixTime);
+        try {
+            return jedis().expireAt(key, unixTime);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -512,7 +645,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long renamenx(byte[] oldkey, byte[] newkey) {
-        return jedis().renamenx(oldkey, newkey);
+        try {
+            return jedis().renamenx(oldkey, newkey);
+        }
+        finally {
+            invalidate(oldkey, newkey);
+        }
     }
 
     /**
@@ -549,7 +687,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long expire(byte[] key, int seconds) {
-        return jedis().expire(key, seconds);
+        try {
+            return jedis().expire(key, seconds);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -581,7 +724,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long move(String key, int dbIndex) {
-        return jedis().move(key, dbIndex);
+        try {
+            return jedis().move(key, dbIndex);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -596,7 +744,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String getSet(String key, String value) {
-        return jedis().getSet(key, value);
+        try {
+            return jedis().getSet(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -626,7 +779,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long setnx(String key, String value) {
-        return jedis().setnx(key, value);
+        try {
+            return jedis().setnx(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -655,7 +813,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long expireAt(byte[] key, long unixTime) {
-        return jedis().expireAt(key, unixTime);
+        try {
+            return jedis().expireAt(key, unixTime);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -672,7 +835,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String setex(String key, int seconds, String value) {
-        return jedis().setex(key, seconds, value);
+        try {
+            return jedis().setex(key, seconds, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -694,7 +862,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String mset(String... keysvalues) {
-        return jedis().mset(keysvalues);
+        try {
+            return jedis().mset(keysvalues);
+        }
+        finally {
+            invalidatePairs(keysvalues);
+        }
     }
 
     /**
@@ -732,7 +905,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long msetnx(String... keysvalues) {
-        return jedis().msetnx(keysvalues);
+        try {
+            return jedis().msetnx(keysvalues);
+        }
+        finally {
+            invalidatePairs(keysvalues);
+        }
     }
 
     /**
@@ -760,7 +938,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long move(byte[] key, int dbIndex) {
-        return jedis().move(key, dbIndex);
+        try {
+            return jedis().move(key, dbIndex);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -784,7 +967,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long decrBy(String key, long integer) {
-        return jedis().decrBy(key, integer);
+        try {
+            return jedis().decrBy(key, integer);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -795,7 +983,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String flushAll() {
-        return jedis().flushAll();
+        try {
+            return jedis().flushAll();
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     /**
@@ -833,7 +1026,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long decr(String key) {
-        return jedis().decr(key);
+        try {
+            return jedis().decr(key);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -872,7 +1070,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long incrBy(String key, long integer) {
-        return jedis().incrBy(key, integer);
+        try {
+            return jedis().incrBy(key, integer);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -887,7 +1090,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long setnx(byte[] key, byte[] value) {
-        return jedis().setnx(key, value);
+        try {
+            return jedis().setnx(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -904,7 +1112,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String setex(byte[] key, int seconds, byte[] value) {
-        return jedis().setex(key, seconds, value);
+        try {
+            return jedis().setex(key, seconds, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -925,7 +1138,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Double incrByFloat(String key, double value) {
-        return jedis().incrByFloat(key, value);
+        try {
+            return jedis().incrByFloat(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -947,7 +1165,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String mset(byte[]... keysvalues) {
-        return jedis().mset(keysvalues);
+        try {
+            return jedis().mset(keysvalues);
+        }
+        finally {
+            invalidatePairs(keysvalues);
+        }
     }
 
     /**
@@ -970,7 +1193,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long incr(String key) {
-        return jedis().incr(key);
+        try {
+            return jedis().incr(key);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -993,7 +1221,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long msetnx(byte[]... keysvalues) {
-        return jedis().msetnx(keysvalues);
+        try {
+            return jedis().msetnx(keysvalues);
+        }
+        finally {
+            invalidatePairs(keysvalues);
+        }
     }
 
     /**
@@ -1011,7 +1244,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long append(String key, String value) {
-        return jedis().append(key, value);
+        try {
+            return jedis().append(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1035,7 +1273,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long decrBy(byte[] key, long integer) {
-        return jedis().decrBy(key, integer);
+        try {
+            return jedis().decrBy(key, integer);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1080,7 +1323,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long decr(byte[] key) {
-        return jedis().decr(key);
+        try {
+            return jedis().decr(key);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1098,7 +1346,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hset(String key, String field, String value) {
-        return jedis().hset(key, field, value);
+        try {
+            return jedis().hset(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1122,7 +1375,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long incrBy(byte[] key, long integer) {
-        return jedis().incrBy(key, integer);
+        try {
+            return jedis().incrBy(key, integer);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1138,7 +1396,15 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String hget(String key, String field) {
-        return jedis().hget(key, field);
+        if (clientCache == null || !clientCache.accept(key))
+            return jedis().hget(key, field);
+        Object re = clientCache.hget(key, field);
+        if (re != ClientSideCache.MISS)
+            return (String) re;
+        long gen = clientCache.generation();
+        String value = jedis().hget(key, field);
+        clientCache.hput(key, field, value, gen);
+        return value;
     }
 
     /**
@@ -1153,7 +1419,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hsetnx(String key, String field, String value) {
-        return jedis().hsetnx(key, field, value);
+        try {
+            return jedis().hsetnx(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1178,7 +1449,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Double incrByFloat(byte[] key, double integer) {
-        return jedis().incrByFloat(key, integer);
+        try {
+            return jedis().incrByFloat(key, integer);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1194,7 +1470,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String hmset(String key, Map<String, String> hash) {
-        return jedis().hmset(key, hash);
+        try {
+            return jedis().hmset(key, hash);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1235,7 +1516,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long incr(byte[] key) {
-        return jedis().incr(key);
+        try {
+            return jedis().incr(key);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1255,7 +1541,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hincrBy(String key, String field, long value) {
-        return jedis().hincrBy(key, field, value);
+        try {
+            return jedis().hincrBy(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1273,7 +1564,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long append(byte[] key, byte[] value) {
-        return jedis().append(key, value);
+        try {
+            return jedis().append(key, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1295,7 +1591,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Double hincrByFloat(String key, String field, double value) {
-        return jedis().hincrByFloat(key, field, value);
+        try {
+            return jedis().hincrByFloat(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1345,7 +1646,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hdel(String key, String... fields) {
-        return jedis().hdel(key, fields);
+        try {
+            return jedis().hdel(key, fields);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1363,7 +1669,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hset(byte[] key, byte[] field, byte[] value) {
-        return jedis().hset(key, field, value);
+        try {
+            return jedis().hset(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1421,7 +1732,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hsetnx(byte[] key, byte[] field, byte[] value) {
-        return jedis().hsetnx(key, field, value);
+        try {
+            return jedis().hsetnx(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1450,7 +1766,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String hmset(byte[] key, Map<byte[], byte[]> hash) {
-        return jedis().hmset(key, hash);
+        try {
+            return jedis().hmset(key, hash);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1535,7 +1856,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hincrBy(byte[] key, byte[] field, long value) {
-        return jedis().hincrBy(key, field, value);
+        try {
+            return jedis().hincrBy(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1572,7 +1898,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Double hincrByFloat(byte[] key, byte[] field, double value) {
-        return jedis().hincrByFloat(key, field, value);
+        try {
+            return jedis().hincrByFloat(key, field, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1638,7 +1969,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long hdel(byte[] key, byte[]... fields) {
-        return jedis().hdel(key, fields);
+        try {
+            return jedis().hdel(key, fields);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -1973,7 +2309,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String rpoplpush(String srckey, String dstkey) {
-        return jedis().rpoplpush(srckey, dstkey);
+        try {
+            return jedis().rpoplpush(srckey, dstkey);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -2216,7 +2557,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public byte[] rpoplpush(byte[] srckey, byte[] dstkey) {
-        return jedis().rpoplpush(srckey, dstkey);
+        try {
+            return jedis().rpoplpush(srckey, dstkey);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -2270,7 +2616,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sinterstore(String dstkey, String... keys) {
-        return jedis().sinterstore(dstkey, keys);
+        try {
+            return jedis().sinterstore(dstkey, keys);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -2350,7 +2701,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sunionstore(String dstkey, String... keys) {
-        return jedis().sunionstore(dstkey, keys);
+        try {
+            return jedis().sunionstore(dstkey, keys);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -2420,7 +2776,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sdiffstore(String dstkey, String... keys) {
-        return jedis().sdiffstore(dstkey, keys);
+        try {
+            return jedis().sdiffstore(dstkey, keys);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -2538,7 +2899,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sinterstore(byte[] dstkey, byte[]... keys) {
-        return jedis().sinterstore(dstkey, keys);
+        try {
+            return jedis().sinterstore(dstkey, keys);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -2622,7 +2988,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sunionstore(byte[] dstkey, byte[]... keys) {
-        return jedis().sunionstore(dstkey, keys);
+        try {
+            return jedis().sunionstore(dstkey, keys);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -2667,7 +3038,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sdiffstore(byte[] dstkey, byte[]... keys) {
-        return jedis().sdiffstore(dstkey, keys);
+        try {
+            return jedis().sdiffstore(dstkey, keys);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -3229,7 +3605,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sort(String key, SortingParams sortingParameters, String dstkey) {
-        return jedis().sort(key, sortingParameters, dstkey);
+        try {
+            return jedis().sort(key, sortingParameters, dstkey);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -3328,7 +3709,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sort(String key, String dstkey) {
-        return jedis().sort(key, dstkey);
+        try {
+            return jedis().sort(key, dstkey);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -3544,7 +3930,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sort(byte[] key, SortingParams sortingParameters, byte[] dstkey) {
-        return jedis().sort(key, sortingParameters, dstkey);
+        try {
+            return jedis().sort(key, sortingParameters, dstkey);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -3563,7 +3954,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long sort(byte[] key, byte[] dstkey) {
-        return jedis().sort(key, dstkey);
+        try {
+            return jedis().sort(key, dstkey);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -4243,7 +4639,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zunionstore(String dstkey, String... sets) {
-        return jedis().zunionstore(dstkey, sets);
+        try {
+            return jedis().zunionstore(dstkey, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -4280,7 +4681,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zunionstore(String dstkey, ZParams params, String... sets) {
-        return jedis().zunionstore(dstkey, params, sets);
+        try {
+            return jedis().zunionstore(dstkey, params, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -4345,7 +4751,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zinterstore(String dstkey, String... sets) {
-        return jedis().zinterstore(dstkey, sets);
+        try {
+            return jedis().zinterstore(dstkey, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -4444,7 +4855,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zinterstore(String dstkey, ZParams params, String... sets) {
-        return jedis().zinterstore(dstkey, params, sets);
+        try {
+            return jedis().zinterstore(dstkey, params, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -4484,7 +4900,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zunionstore(byte[] dstkey, byte[]... sets) {
-        return jedis().zunionstore(dstkey, sets);
+        try {
+            return jedis().zunionstore(dstkey, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -4535,7 +4956,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zunionstore(byte[] dstkey, ZParams params, byte[]... sets) {
-        return jedis().zunionstore(dstkey, params, sets);
+        try {
+            return jedis().zunionstore(dstkey, params, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -4619,7 +5045,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zinterstore(byte[] dstkey, byte[]... sets) {
-        return jedis().zinterstore(dstkey, sets);
+        try {
+            return jedis().zinterstore(dstkey, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     @Aop("redis")
@@ -4637,7 +5068,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String brpoplpush(String source, String destination, int timeout) {
-        return jedis().brpoplpush(source, destination, timeout);
+        try {
+            return jedis().brpoplpush(source, destination, timeout);
+        }
+        finally {
+            invalidate(destination);
+        }
     }
 
     /**
@@ -4650,12 +5086,22 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Boolean setbit(String key, long offset, boolean value) {
-        return jedis().setbit(key, offset, value);
+        try {
+            return jedis().setbit(key, offset, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
     public Boolean setbit(String key, long offset, String value) {
-        return jedis().setbit(key, offset, value);
+        try {
+            return jedis().setbit(key, offset, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -4672,7 +5118,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long setrange(String key, long offset, String value) {
-        return jedis().setrange(key, offset, value);
+        try {
+            return jedis().setrange(key, offset, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -4723,7 +5174,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Long zinterstore(byte[] dstkey, ZParams params, byte[]... sets) {
-        return jedis().zinterstore(dstkey, params, sets);
+        try {
+            return jedis().zinterstore(dstkey, params, sets);
+        }
+        finally {
+            invalidate(dstkey);
+        }
     }
 
     /**
@@ -4818,7 +5274,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Object eval(String script, int keyCount, String... params) {
-        return jedis().eval(script, keyCount, params);
+        try {
+            return jedis().eval(script, keyCount, params);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
@@ -4872,12 +5333,22 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Object eval(String script, List<String> keys, List<String> args) {
-        return jedis().eval(script, keys, args);
+        try {
+            return jedis().eval(script, keys, args);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object eval(String script) {
-        return jedis().eval(script);
+        try {
+            return jedis().eval(script);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     /**
@@ -4896,7 +5367,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Object evalsha(String script) {
-        return jedis().evalsha(script);
+        try {
+            return jedis().evalsha(script);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     /**
@@ -4921,12 +5397,22 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Object evalsha(String sha1, List<String> keys, List<String> args) {
-        return jedis().evalsha(sha1, keys, args);
+        try {
+            return jedis().evalsha(sha1, keys, args);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object evalsha(String sha1, int keyCount, String... params) {
-        return jedis().evalsha(sha1, keyCount, params);
+        try {
+            return jedis().evalsha(sha1, keyCount, params);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
@@ -5011,7 +5497,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long bitop(BitOP op, String destKey, String... srcKeys) {
-        return jedis().bitop(op, destKey, srcKeys);
+        try {
+            return jedis().bitop(op, destKey, srcKeys);
+        }
+        finally {
+            invalidate(destKey);
+        }
     }
 
     /**
@@ -5281,7 +5772,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String restore(String key, int ttl, byte[] serializedValue) {
-        return jedis().restore(key, ttl, serializedValue);
+        try {
+            return jedis().restore(key, ttl, serializedValue);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -5296,7 +5792,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long pexpire(String key, int milliseconds) {
-        return jedis().pexpire(key, milliseconds);
+        try {
+            return jedis().pexpire(key, milliseconds);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -5336,12 +5837,22 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long pexpire(String key, long milliseconds) {
-        return jedis().pexpire(key, milliseconds);
+        try {
+            return jedis().pexpire(key, milliseconds);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
     public Long pexpireAt(String key, long millisecondsTimestamp) {
-        return jedis().pexpireAt(key, millisecondsTimestamp);
+        try {
+            return jedis().pexpireAt(key, millisecondsTimestamp);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5351,7 +5862,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String psetex(String key, int milliseconds, String value) {
-        return jedis().psetex(key, milliseconds, value);
+        try {
+            return jedis().psetex(key, milliseconds, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -5365,17 +5881,32 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String psetex(String key, long milliseconds, String value) {
-        return jedis().psetex(key, milliseconds, value);
+        try {
+            return jedis().psetex(key, milliseconds, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
     public String set(String key, String value, String nxxx) {
-        return jedis().set(key, value, nxxx);
+        try {
+            return jedis().set(key, value, nxxx);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
     public String set(String key, String value, String nxxx, String expx, int time) {
-        return jedis().set(key, value, nxxx, expx, time);
+        try {
+            return jedis().set(key, value, nxxx, expx, time);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5424,7 +5955,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String migrate(String host, int port, String key, int destinationDb, int timeout) {
-        return jedis().migrate(host, port, key, destinationDb, timeout);
+        try {
+            return jedis().migrate(host, port, key, destinationDb, timeout);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Deprecated
@@ -5484,7 +6020,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public byte[] brpoplpush(byte[] source, byte[] destination, int timeout) {
-        return jedis().brpoplpush(source, destination, timeout);
+        try {
+            return jedis().brpoplpush(source, destination, timeout);
+        }
+        finally {
+            invalidate(destination);
+        }
     }
 
     @Deprecated
@@ -5508,7 +6049,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Boolean setbit(byte[] key, long offset, boolean value) {
-        return jedis().setbit(key, offset, value);
+        try {
+            return jedis().setbit(key, offset, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Deprecated
@@ -5524,7 +6070,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Boolean setbit(byte[] key, long offset, byte[] value) {
-        return jedis().setbit(key, offset, value);
+        try {
+            return jedis().setbit(key, offset, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     /**
@@ -5551,7 +6102,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long setrange(byte[] key, long offset, byte[] value) {
-        return jedis().setrange(key, offset, value);
+        try {
+            return jedis().setrange(key, offset, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5609,7 +6165,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public Object eval(byte[] script, List<byte[]> keys, List<byte[]> args) {
-        return jedis().eval(script, keys, args);
+        try {
+            return jedis().eval(script, keys, args);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Deprecated
@@ -5636,32 +6197,62 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Object eval(byte[] script, byte[] keyCount, byte[]... params) {
-        return jedis().eval(script, keyCount, params);
+        try {
+            return jedis().eval(script, keyCount, params);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object eval(byte[] script, int keyCount, byte[]... params) {
-        return jedis().eval(script, keyCount, params);
+        try {
+            return jedis().eval(script, keyCount, params);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object eval(byte[] script) {
-        return jedis().eval(script);
+        try {
+            return jedis().eval(script);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object evalsha(byte[] sha1) {
-        return jedis().evalsha(sha1);
+        try {
+            return jedis().evalsha(sha1);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object evalsha(byte[] sha1, List<byte[]> keys, List<byte[]> args) {
-        return jedis().evalsha(sha1, keys, args);
+        try {
+            return jedis().evalsha(sha1, keys, args);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
     public Object evalsha(byte[] sha1, int keyCount, byte[]... params) {
-        return jedis().evalsha(sha1, keyCount, params);
+        try {
+            return jedis().evalsha(sha1, keyCount, params);
+        }
+        finally {
+            invalidateAll();
+        }
     }
 
     @Aop("redis")
@@ -5766,7 +6357,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long bitop(BitOP op, byte[] destKey, byte[]... srcKeys) {
-        return jedis().bitop(op, destKey, srcKeys);
+        try {
+            return jedis().bitop(op, destKey, srcKeys);
+        }
+        finally {
+            invalidate(destKey);
+        }
     }
 
     @Aop("redis")
@@ -5776,7 +6372,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String restore(byte[] key, int ttl, byte[] serializedValue) {
-        return jedis().restore(key, ttl, serializedValue);
+        try {
+            return jedis().restore(key, ttl, serializedValue);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5786,7 +6387,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long pexpire(byte[] key, int milliseconds) {
-        return jedis().pexpire(key, milliseconds);
+        try {
+            return jedis().pexpire(key, milliseconds);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5796,12 +6402,22 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long pexpire(byte[] key, long milliseconds) {
-        return jedis().pexpire(key, milliseconds);
+        try {
+            return jedis().pexpire(key, milliseconds);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
     public Long pexpireAt(byte[] key, long millisecondsTimestamp) {
-        return jedis().pexpireAt(key, millisecondsTimestamp);
+        try {
+            return jedis().pexpireAt(key, millisecondsTimestamp);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5811,7 +6427,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String psetex(byte[] key, int milliseconds, byte[] value) {
-        return jedis().psetex(key, milliseconds, value);
+        try {
+            return jedis().psetex(key, milliseconds, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5830,7 +6451,12 @@ public class RedisService extends Jedis {
      */
     @Aop("redis")
     public String psetex(byte[] key, long milliseconds, byte[] value) {
-        return jedis().psetex(key, milliseconds, value);
+        try {
+            return jedis().psetex(key, milliseconds, value);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5850,7 +6476,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String set(byte[] key, byte[] value, byte[] nxxx) {
-        return jedis().set(key, value, nxxx);
+        try {
+            return jedis().set(key, value, nxxx);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5860,7 +6491,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String set(byte[] key, byte[] value, byte[] nxxx, byte[] expx, int time) {
-        return jedis().set(key, value, nxxx, expx, time);
+        try {
+            return jedis().set(key, value, nxxx, expx, time);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5920,7 +6556,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String migrate(byte[] host, int port, byte[] key, int destinationDb, int timeout) {
-        return jedis().migrate(host, port, key, destinationDb, timeout);
+        try {
+            return jedis().migrate(host, port, key, destinationDb, timeout);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5950,7 +6591,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long pfadd(byte[] key, byte[]... elements) {
-        return jedis().pfadd(key, elements);
+        try {
+            return jedis().pfadd(key, elements);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -5975,7 +6621,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String pfmerge(byte[] destkey, byte[]... sourcekeys) {
-        return jedis().pfmerge(destkey, sourcekeys);
+        try {
+            return jedis().pfmerge(destkey, sourcekeys);
+        }
+        finally {
+            invalidate(destkey);
+        }
     }
 
     @Aop("redis")
@@ -6060,7 +6711,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public Long pfadd(String key, String... elements) {
-        return jedis().pfadd(key, elements);
+        try {
+            return jedis().pfadd(key, elements);
+        }
+        finally {
+            invalidate(key);
+        }
     }
 
     @Aop("redis")
@@ -6080,7 +6736,12 @@ public class RedisService extends Jedis {
 
     @Aop("redis")
     public String pfmerge(String destkey, String... sourcekeys) {
-        return jedis().pfmerge(destkey, sourcekeys);
+        try {
+            return jedis().pfmerge(destkey, sourcekeys);
+        }
+        finally {
+            invalidate(destkey);
+        }
     }
 
     @Aop("redis")
@@ -0,0 +1,40 @@
+package org.nutz.integration.jedis.metrics;
+
+/**
+ * JedisAgent及RedisInterceptor的统计接口, 时间单位均为纳秒. 实现类需要线程安全, 且不能阻塞
+ *
+ * @author wendal
+ *
+ */
+public interface JedisMetrics {
+
+    /**
+     * 从连接池借出连接
+     *
+     * @param wait
+     *            等待时间
+     * @param timeout
+     *            是否因连接池耗尽而超时失败
+     */
+    void onBorrow(long wait, boolean timeout);
+
+    /**
+     * 连接归还连接池
+     *
+     * @param held
+     *            持有时间
+     */
+    void onReturn(long held);
+
+    /**
+     * 执行了一个RedisService方法
+     *
+     * @param command
+     *            方法名
+     * @param cost
+     *            耗时
+     * @param error
+     *            是否抛出了异常
+     */
+    void onCommand(String command, long cost, boolean error);
+}
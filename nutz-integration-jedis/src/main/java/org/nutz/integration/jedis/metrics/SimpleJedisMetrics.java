@@ -0,0 +1,116 @@
+package org.nutz.integration.jedis.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于内存的简单实现, 借出等待时间按固定区间统计直方图, 命令按方法名统计次数/耗时/错误数.
+ * 归还只统计经RedisInterceptor借出的连接, 实时的借出/空闲数请看JedisAgent.getNumActive/getNumIdle.
+ * 通过toMap()取快照, 方便以json形式暴露出去
+ *
+ * @author wendal
+ *
+ */
+public class SimpleJedisMetrics implements JedisMetrics {
+
+    /**
+     * 等待时间直方图的区间上限, 单位毫秒, 最后一个区间是1000ms以上
+     */
+    protected static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000};
+
+    protected AtomicLongArray waits = new AtomicLongArray(BUCKETS.length + 1);
+
+    protected AtomicLong borrowed = new AtomicLong();
+
+    protected AtomicLong returned = new AtomicLong();
+
+    protected AtomicLong timeouts = new AtomicLong();
+
+    protected AtomicLong waitTotal = new AtomicLong();
+
+    protected AtomicLong heldTotal = new AtomicLong();
+
+    protected ConcurrentHashMap<String, CommandStat> commands = new ConcurrentHashMap<String, CommandStat>();
+
+    public void onBorrow(long wait, boolean timeout) {
+        if (timeout) {
+            timeouts.incrementAndGet();
+            return;
+        }
+        borrowed.incrementAndGet();
+        waitTotal.addAndGet(wait);
+        long ms = wait / 1000000;
+        int i = 0;
+        while (i < BUCKETS.length && ms >= BUCKETS[i])
+            i++;
+        waits.incrementAndGet(i);
+    }
+
+    public void onReturn(long held) {
+        returned.incrementAndGet();
+        heldTotal.addAndGet(held);
+    }
+
+    public void onCommand(String command, long cost, boolean error) {
+        CommandStat stat = commands.get(command);
+        if (stat == null) {
+            stat = new CommandStat();
+            CommandStat prev = commands.putIfAbsent(command, stat);
+            if (prev != null)
+                stat = prev;
+        }
+        stat.count.incrementAndGet();
+        stat.total.addAndGet(cost);
+        if (error)
+            stat.errors.incrementAndGet();
+        long max = stat.max.get();
+        while (cost > max && !stat.max.compareAndSet(max, cost))
+            max = stat.max.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> re = new LinkedHashMap<String, Object>();
+        long count = borrowed.get();
+        re.put("borrowed", count);
+        re.put("timeouts", timeouts.get());
+        re.put("returned", returned.get());
+        re.put("waitAvgMs", count == 0 ? 0 : waitTotal.get() / count / 1000000.0);
+        Map<String, Long> hist = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < BUCKETS.length; i++)
+            hist.put("<" + BUCKETS[i] + "ms", waits.get(i));
+        hist.put(">=" + BUCKETS[BUCKETS.length - 1] + "ms", waits.get(BUCKETS.length));
+        re.put("waitHistogram", hist);
+        long ret = returned.get();
+        re.put("heldAvgMs", ret == 0 ? 0 : heldTotal.get() / ret / 1000000.0);
+        Map<String, Object> cmds = new LinkedHashMap<String, Object>();
+        for (Entry<String, CommandStat> en : commands.entrySet())
+            cmds.put(en.getKey(), en.getValue().toMap());
+        re.put("commands", cmds);
+        return re;
+    }
+
+    protected static class CommandStat {
+        protected AtomicLong count = new AtomicLong();
+        protected AtomicLong errors = new AtomicLong();
+        protected AtomicLong total = new AtomicLong();
+        protected AtomicLong max = new AtomicLong();
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> re = new LinkedHashMap<String, Object>();
+            long c = count.get();
+            re.put("count", c);
+            re.put("errors", errors.get());
+            re.put("avgMs", c == 0 ? 0 : total.get() / c / 1000000.0);
+            re.put("maxMs", max.get() / 1000000.0);
+            return re;
+        }
+    }
+}
@@ -1,53 +1,206 @@
 package org.nutz.integration.jedis.pubsub;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.integration.jedis.JedisClusterWrapper;
+import org.nutz.lang.Lang;
 import org.nutz.lang.Streams;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 
+/**
+ * 所有pattern共用一个订阅连接和一个订阅线程. reg/unreg在已建立的订阅上动态psubscribe/punsubscribe,
+ * 消息按pattern分派到固定的分发线程, 同一pattern的消息保持顺序. 断线后按指数退避重连, 并重新订阅全部pattern.
+ * <p/>
+ * 发布可选异步模式: 消息放入有界队列, 由单个发布线程合并成pipeline批量PUBLISH
+ */
 public class PubSubService {
-    
+
     private static final Log log = Logs.get();
-    
+
     protected JedisAgent jedisAgent;
-    
-    protected List<PubSubProxy> list = new ArrayList<PubSubProxy>();
-    protected Set<String> patterns = new HashSet<String>();
-
-    public void reg(final String pattern, PubSub pb) {
-        final PubSubProxy proxy = new PubSubProxy(pattern, pb);
-        list.add(proxy);
-        Thread t = new Thread("jedis.pubsub." + pattern) {
-            public void run() {
-                while (patterns.contains(pattern)) {
-                    try {
-                        jedisAgent.jedis().psubscribe(proxy, pattern);
-                    } catch (Exception e) {
-                        if (!patterns.contains(pattern))
-                            break;
-                        log.warn("something wrong!! sleep 3s", e);
-                        try {
-                            Thread.sleep(3000);
-                        }
-                        catch (Throwable _e) {
-                            break;
-                        }
-                    }
-                }
+
+    /**
+     * 分发线程数
+     */
+    protected int dispatchThreads = 4;
+
+    /**
+     * 每个分发线程最多积压的消息数, 满了之后由订阅线程自己执行, 即反压到redis连接
+     */
+    protected int dispatchQueueSize = 10000;
+
+    /**
+     * 重连的最长等待时间,单位毫秒
+     */
+    protected int maxBackoff = 30000;
+
+    protected ConcurrentHashMap<String, List<PubSub>> handlers = new ConcurrentHashMap<String, List<PubSub>>();
+
+    /**
+     * 已在当前订阅连接上发出psubscribe的pattern
+     */
+    protected Set<String> requested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected Dispatcher dispatcher = new Dispatcher();
+
+    protected ThreadPoolExecutor[] workers;
+
+    protected Thread thread;
+
+    protected volatile boolean running = true;
+
+    /**
+     * 订阅连接是否可用. jedis 2.9的JedisPubSub.isSubscribed()在连接断开后仍为true, 所以自行维护
+     */
+    protected volatile boolean subscribed;
+
+    protected int failCount;
+
+    /**
+     * 为true时fire走异步发布, 默认false
+     */
+    protected boolean asyncFire;
+
+    /**
+     * 异步发布队列的容量
+     */
+    protected int publishQueueSize = 10000;
+
+    /**
+     * 每批最多PUBLISH的消息数
+     */
+    protected int publishBatch = 512;
+
+    /**
+     * 队列满时的处理方式: block 阻塞等待, dropOldest 丢弃最早的消息, callerRuns 调用者线程同步发布. 默认callerRuns
+     * <p/>
+     * 注意callerRuns下同步发布的消息会越过队列中尚未发出的消息, 同一channel的消息不再保证顺序
+     */
+    protected String overflow = "callerRuns";
+
+    protected ArrayBlockingQueue<Message> publishQueue;
+
+    protected volatile Thread publisher;
+
+    protected AtomicLong published = new AtomicLong();
+
+    protected AtomicLong dropped = new AtomicLong();
+
+    protected AtomicLong failed = new AtomicLong();
+
+    protected AtomicLong latencyTotal = new AtomicLong();
+
+    protected AtomicLong latencyMax = new AtomicLong();
+
+    public void reg(String pattern, PubSub pb) {
+        start();
+        synchronized (this) {
+            List<PubSub> list = handlers.get(pattern);
+            if (list == null) {
+                list = new CopyOnWriteArrayList<PubSub>();
+                handlers.put(pattern, list);
             }
-        };
-        t.start();
-        patterns.add(pattern);
+            list.add(pb);
+            if (subscribed) {
+                if (requested.add(pattern))
+                    dispatcher.psubscribe(pattern);
+            } else
+                notifyAll();
+        }
     }
-    
+
+    /**
+     * 取消订阅pattern, 该pattern下的所有PubSub均不再收到消息
+     */
+    public void unreg(String pattern) {
+        synchronized (this) {
+            if (handlers.remove(pattern) == null)
+                return;
+            if (subscribed && requested.remove(pattern))
+                dispatcher.punsubscribe(pattern);
+        }
+    }
+
+    /**
+     * 只移除pattern下的一个PubSub, 其他PubSub不受影响. pattern下没有PubSub了才取消订阅
+     */
+    public void unreg(String pattern, PubSub pb) {
+        synchronized (this) {
+            List<PubSub> list = handlers.get(pattern);
+            if (list == null || !list.remove(pb) || !list.isEmpty())
+                return;
+            handlers.remove(pattern);
+            if (subscribed && requested.remove(pattern))
+                dispatcher.punsubscribe(pattern);
+        }
+    }
+
+    /**
+     * 发布消息, asyncFire=true时等同于fireAsync, 否则等同于fireSync
+     */
     public void fire(String channel, String message) {
+        if (asyncFire)
+            fireAsync(channel, message);
+        else
+            fireSync(channel, message);
+    }
+
+    /**
+     * 放入发布队列后立即返回, 由发布线程合并成pipeline批量PUBLISH. 同一channel的消息按入队顺序发布,
+     * 以下情况例外:
+     * <ul>
+     * <li>overflow=callerRuns且队列已满时, 消息在调用者线程同步发布, 会早于队列中的消息</li>
+     * <li>overflow=dropOldest时, 队列满会丢弃最早的消息</li>
+     * <li>redis出错时整批消息丢弃, 计入failed</li>
+     * <li>depose()之后入队的消息, 若发布线程已退出则不会再发出</li>
+     * </ul>
+     */
+    public void fireAsync(String channel, String message) {
+        if (publisher == null)
+            startPublisher();
+        Message msg = new Message(channel, message);
+        if (publishQueue.offer(msg))
+            return;
+        if ("block".equals(overflow)) {
+            try {
+                publishQueue.put(msg);
+            }
+            catch (InterruptedException e) {
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+            }
+        } else if ("dropOldest".equals(overflow)) {
+            while (!publishQueue.offer(msg)) {
+                if (publishQueue.poll() != null)
+                    dropped.incrementAndGet();
+            }
+        } else {
+            fireSync(channel, message);
+        }
+    }
+
+    /**
+     * 在调用者线程同步PUBLISH
+     */
+    public void fireSync(String channel, String message) {
         log.debugf("publish channel=%s msg=%s", channel, message);
         Jedis jedis = null;
         try {
@@ -58,18 +211,289 @@ public class PubSubService {
         }
     }
 
+    protected synchronized void startPublisher() {
+        if (publisher != null)
+            return;
+        publishQueue = new ArrayBlockingQueue<Message>(publishQueueSize);
+        Thread t = new Thread("jedis.pubsub.publish") {
+            public void run() {
+                publishLoop();
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        // publishQueue赋值之后才写volatile的publisher, fireAsync无锁读到publisher时队列已可用
+        publisher = t;
+    }
+
+    protected void publishLoop() {
+        List<Message> batch = new ArrayList<Message>();
+        while (running || !publishQueue.isEmpty()) {
+            try {
+                Message first = publishQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            publishQueue.drainTo(batch, publishBatch - 1);
+            Jedis jedis = null;
+            try {
+                jedis = publishConnection();
+                Pipeline pipe = jedis.pipelined();
+                for (Message msg : batch)
+                    pipe.publish(msg.channel, msg.message);
+                pipe.sync();
+                long now = System.currentTimeMillis();
+                for (Message msg : batch) {
+                    long latency = now - msg.time;
+                    latencyTotal.addAndGet(latency);
+                    long max = latencyMax.get();
+                    while (latency > max && !latencyMax.compareAndSet(max, latency))
+                        max = latencyMax.get();
+                }
+                published.addAndGet(batch.size());
+            }
+            catch (Exception e) {
+                failed.addAndGet(batch.size());
+                log.warn("publish fail, " + batch.size() + " message lost", e);
+                Lang.quiteSleep(1000);
+            }
+            finally {
+                Streams.safeClose(jedis);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 集群模式下任意节点上的PUBLISH都会广播到全集群, 取第一个master的连接即可
+     */
+    protected Jedis publishConnection() {
+        Jedis jedis = jedisAgent.jedis();
+        if (!(jedis instanceof JedisClusterWrapper))
+            return jedis;
+        JedisClusterWrapper wrapper = (JedisClusterWrapper) jedis;
+        return wrapper.nodePool(wrapper.masters().get(0)).getResource();
+    }
+
+    /**
+     * 异步发布队列中等待的消息数
+     */
+    public int getPublishQueueDepth() {
+        return publishQueue == null ? 0 : publishQueue.size();
+    }
+
+    /**
+     * 异步发布成功的消息数
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * 因队列满被丢弃的消息数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 因redis出错未能发布的消息数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 异步发布从入队到PUBLISH完成的平均耗时,单位毫秒
+     */
+    public double getPublishLatencyAvg() {
+        long count = published.get();
+        return count == 0 ? 0 : (double) latencyTotal.get() / count;
+    }
+
+    /**
+     * 异步发布从入队到PUBLISH完成的最大耗时,单位毫秒
+     */
+    public long getPublishLatencyMax() {
+        return latencyMax.get();
+    }
+
+    protected synchronized void start() {
+        if (thread != null)
+            return;
+        workers = new ThreadPoolExecutor[Math.max(1, dispatchThreads)];
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jedis.pubsub.dispatch." + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        for (int i = 0; i < workers.length; i++)
+            workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue<Runnable>(dispatchQueueSize),
+                                                factory,
+                                                new ThreadPoolExecutor.CallerRunsPolicy());
+        thread = new Thread("jedis.pubsub") {
+            public void run() {
+                subscribeLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    protected void subscribeLoop() {
+        while (running) {
+            String[] patterns;
+            synchronized (this) {
+                if (handlers.isEmpty()) {
+                    try {
+                        wait(1000);
+                    }
+                    catch (InterruptedException e) {
+                    }
+                    continue;
+                }
+                patterns = handlers.keySet().toArray(new String[0]);
+                requested.clear();
+                requested.addAll(Arrays.asList(patterns));
+            }
+            Jedis jedis = null;
+            try {
+                jedis = jedisAgent.jedis();
+                jedis.psubscribe(dispatcher, patterns);
+            }
+            catch (Exception e) {
+                synchronized (this) {
+                    subscribed = false;
+                }
+                if (!running)
+                    break;
+                int backoff = (int) Math.min(maxBackoff, 1000L << Math.min(failCount++, 16));
+                log.warn("psubscribe fail, retry after " + backoff + "ms", e);
+                try {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException _e) {
+                    break;
+                }
+            }
+            finally {
+                synchronized (this) {
+                    subscribed = false;
+                }
+                Streams.safeClose(jedis);
+            }
+        }
+    }
+
+    /**
+     * 订阅连接是否可用
+     */
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
     public void depose() {
-        for (PubSubProxy proxy : list)
+        running = false;
+        synchronized (this) {
             try {
-                patterns.remove(proxy.pattern);
-                proxy.punsubscribe(proxy.pattern);
+                if (subscribed)
+                    dispatcher.punsubscribe();
             }
             catch (Exception e) {
-                log.debug("punsubscribe " + proxy.pattern, e);
+                log.debug("punsubscribe fail", e);
             }
+            notifyAll();
+        }
+        if (workers != null)
+            for (ThreadPoolExecutor worker : workers)
+                worker.shutdown();
+        if (publisher != null)
+            publisher.interrupt();
     }
-    
+
     public void setJedisAgent(JedisAgent jedisAgent) {
         this.jedisAgent = jedisAgent;
     }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public void setDispatchQueueSize(int dispatchQueueSize) {
+        this.dispatchQueueSize = dispatchQueueSize;
+    }
+
+    public void setMaxBackoff(int maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void setAsyncFire(boolean asyncFire) {
+        this.asyncFire = asyncFire;
+    }
+
+    public void setPublishQueueSize(int publishQueueSize) {
+        this.publishQueueSize = publishQueueSize;
+    }
+
+    public void setPublishBatch(int publishBatch) {
+        this.publishBatch = publishBatch;
+    }
+
+    public void setOverflow(String overflow) {
+        this.overflow = overflow;
+    }
+
+    protected static class Message {
+        protected final String channel;
+        protected final String message;
+        protected final long time = System.currentTimeMillis();
+
+        public Message(String channel, String message) {
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+
+    protected class Dispatcher extends JedisPubSub {
+
+        public void onPMessage(final String pattern, final String channel, final String message) {
+            if (log.isDebugEnabled())
+                log.debugf("channel=%s, message=%s", channel, message);
+            final List<PubSub> list = handlers.get(pattern);
+            if (list == null)
+                return;
+            int index = (pattern.hashCode() & Integer.MAX_VALUE) % workers.length;
+            workers[index].execute(new Runnable() {
+                public void run() {
+                    for (PubSub pb : list) {
+                        try {
+                            pb.onMessage(channel, message);
+                        }
+                        catch (Throwable e) {
+                            log.warn("onMessage fail, channel=" + channel, e);
+                        }
+                    }
+                }
+            });
+        }
+
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+            failCount = 0;
+            // 订阅建立期间新注册的pattern, 在这里补上
+            synchronized (PubSubService.this) {
+                subscribed = true;
+                for (String p : handlers.keySet())
+                    if (requested.add(p))
+                        psubscribe(p);
+            }
+        }
+    }
 }
@@ -54,12 +54,38 @@ var ioc = {
 			}
 		},
 		redisService : {
-			type : "org.nutz.integration.jedis.RedisService"
+			type : "org.nutz.integration.jedis.RedisService",
+			fields : {
+				clientCache : {refer:"clientSideCache"}
+			}
+		},
+		clientSideCache : {
+			type : "org.nutz.integration.jedis.ClientSideCache",
+			fields : {
+				jedisAgent : {refer:"jedisAgent"},
+				prefixes : {java : "$conf.get('redis.csc.prefixes', '')"},
+				maxSize : {java : "$conf.getInt('redis.csc.maxSize', 10000)"},
+				database : {java : "$conf.getInt('redis.database', 0)"}
+			},
+			events : {
+				depose : "depose"
+			}
+		},
+		asyncRedisService : {
+			type : "org.nutz.integration.jedis.AsyncRedisService",
+			fields : {
+				jedisAgent : {refer:"jedisAgent"},
+				connections : {java : "$conf.getInt('redis.async.connections', 2)"}
+			},
+			events : {
+				depose : "depose"
+			}
 		},
 		pubSubService : {
 			type : "org.nutz.integration.jedis.pubsub.PubSubService",
 			fields : {
-				jedisAgent : {refer:"jedisAgent"}
+				jedisAgent : {refer:"jedisAgent"},
+				asyncFire : {java : "$conf.getBoolean('redis.pubsub.async', false)"}
 			},
 			events : {
 				depose : "depose"
@@ -69,7 +95,11 @@ var ioc = {
 			type : "org.nutz.integration.jedis.JedisAgent",
 			fields : {
 				ioc : {refer:"$ioc"},
-				conf : {refer:"conf"}
+				conf : {refer:"conf"},
+				adaptive : {java : "$conf.getBoolean('redis.pool.adaptive', false)"}
+			},
+			events : {
+				depose : "depose"
 			}
 		},
 		jedisClusterWrapper : {
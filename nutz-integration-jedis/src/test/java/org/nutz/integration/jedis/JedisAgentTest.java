@@ -0,0 +1,82 @@
+package org.nutz.integration.jedis;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.ioc.impl.PropertiesProxy;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Pool;
+
+public class JedisAgentTest {
+
+    static LocalRedis redis;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (redis != null)
+            redis.close();
+    }
+
+    @Test
+    public void test_adaptive_depose() throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(50);
+        config.setMaxIdle(50);
+        JedisPool pool = new JedisPool(config, "127.0.0.1", redis.port());
+        JedisAgent agent = new JedisAgent(pool);
+        agent.setAdaptive(true);
+        agent.setAdaptiveInterval(1);
+        try {
+            agent.jedis().close();
+            Thread thread = agent.adaptiveThread;
+            assertNotNull(thread);
+            GenericObjectPool<?> internal = agent.internalPool();
+            assertNotNull(internal);
+            // 空闲时maxIdle降到minIdle附近
+            long deadline = System.currentTimeMillis() + 10000;
+            while (internal.getMaxIdle() == 50) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(100);
+            }
+            agent.depose();
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+            // depose之后不再启动
+            agent.jedis().close();
+            assertNull(agent.adaptiveThread);
+        }
+        finally {
+            agent.depose();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void test_adaptive_without_internal_pool() {
+        Pool<Jedis> pool = new Pool<Jedis>() {
+            public Jedis getResource() {
+                return redis.jedis();
+            }
+        };
+        JedisAgent agent = new JedisAgent(pool);
+        agent.setConf(new PropertiesProxy());
+        agent.setAdaptive(true);
+        assertNull(agent.internalPool());
+        agent.jedis().close();
+        assertNull(agent.adaptiveThread);
+        assertFalse(agent.adaptive);
+    }
+}
@@ -0,0 +1,396 @@
+package org.nutz.integration.jedis;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.lang.Lang;
+import org.nutz.lang.util.Callback;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * 两个本地redis-server组成的集群, 测试多key命令的拆分及MOVED后的重试
+ */
+public class JedisClusterWrapperTest {
+
+    static LocalRedis[] nodes;
+
+    static JedisCluster cluster;
+
+    JedisClusterWrapper wrapper;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        nodes = LocalRedis.startCluster(2);
+        cluster = new JedisCluster(new HostAndPort("127.0.0.1", nodes[0].port()));
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        if (cluster != null)
+            cluster.close();
+        if (nodes != null)
+            for (LocalRedis node : nodes)
+                node.close();
+    }
+
+    @Before
+    public void before() {
+        wrapper = new JedisClusterWrapper(cluster);
+        for (LocalRedis node : nodes) {
+            Jedis jedis = node.jedis();
+            try {
+                jedis.flushAll();
+            }
+            finally {
+                jedis.close();
+            }
+        }
+    }
+
+    @Test
+    public void test_scatter() {
+        String[] keys = keysOnBothNodes(20);
+        String[] kvs = new String[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            kvs[i * 2] = keys[i];
+            kvs[i * 2 + 1] = "v" + i;
+        }
+        assertEquals("OK", wrapper.mset(kvs));
+        for (int i = 0; i < keys.length; i++)
+            assertEquals("v" + i, cluster.get(keys[i]));
+        String[] query = Arrays.copyOf(keys, keys.length + 1);
+        query[keys.length] = "not-exists";
+        assertEquals(keys.length + 1, wrapper.mget(query).size());
+        assertNull(wrapper.mget(query).get(keys.length));
+        assertEquals("v3", wrapper.mget(query).get(3));
+        assertEquals(Long.valueOf(keys.length), wrapper.exists(query));
+        assertEquals(Long.valueOf(keys.length), wrapper.del(query));
+        assertEquals(Long.valueOf(0), wrapper.exists(query));
+    }
+
+    @Test
+    public void test_unlink() {
+        String[] keys = keysOnBothNodes(20);
+        for (String key : keys)
+            cluster.set(key, key);
+        String[] query = Arrays.copyOf(keys, keys.length + 1);
+        query[keys.length] = "not-exists";
+        assertEquals(keys.length, wrapper.unlink(query));
+        assertEquals(Long.valueOf(0), wrapper.exists(keys));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_mset_odd() {
+        wrapper.mset("a", "1", "b", "2", "c");
+    }
+
+    @Test
+    public void test_moved() {
+        String[] keys = keysOnBothNodes(6);
+        for (String key : keys)
+            cluster.set(key, key);
+        // 先加载slot表
+        assertEquals(keys[0], wrapper.mget(keys).get(0));
+
+        // 把一个空slot迁到另一个节点, wrapper中的slot表就过期了
+        String moved = "moved-" + System.nanoTime();
+        LocalRedis target = migrate(JedisClusterCRC16.getSlot(moved));
+        Jedis jedis = target.jedis();
+        try {
+            jedis.set(moved, "here");
+        }
+        finally {
+            jedis.close();
+        }
+        String[] query = Arrays.copyOf(keys, keys.length + 1);
+        query[keys.length] = moved;
+        // 第一次遇到MOVED, 刷新slot表后整体重试, 结果不能重复或错位
+        assertEquals(Arrays.asList(keys[0], keys[1], keys[2], keys[3], keys[4], keys[5], "here"), wrapper.mget(query));
+
+        // mset/del/exists同样重试
+        String moved2 = "moved2-" + System.nanoTime();
+        target = migrate(JedisClusterCRC16.getSlot(moved2));
+        assertEquals("OK", wrapper.mset(keys[0], "x", moved2, "y"));
+        jedis = target.jedis();
+        try {
+            assertEquals("y", jedis.get(moved2));
+        }
+        finally {
+            jedis.close();
+        }
+        String moved3 = "moved3-" + System.nanoTime();
+        cluster.set(moved3, "z");
+        migrateWithKey(moved3);
+        assertEquals(Long.valueOf(2), wrapper.exists(keys[0], moved3));
+        assertEquals(Long.valueOf(2), wrapper.del(keys[0], moved3));
+    }
+
+    @Test
+    public void test_pipeline_moved() {
+        wrapper.mget("a", "b"); // 加载slot表
+        String moved = "pipe-" + System.nanoTime();
+        migrate(JedisClusterCRC16.getSlot(moved));
+        ClusterPipeline pipe = wrapper.pipelined();
+        Response<String> a, m;
+        try {
+            a = pipe.set("a", "1");
+            m = pipe.set(moved, "2");
+            pipe.sync();
+        }
+        finally {
+            pipe.close();
+        }
+        assertEquals("OK", a.get());
+        // pipeline不自动重试, 但会刷新slot表
+        try {
+            m.get();
+            fail();
+        }
+        catch (JedisMovedDataException e) {}
+        pipe = wrapper.pipelined();
+        try {
+            m = pipe.set(moved, "2");
+            pipe.sync();
+        }
+        finally {
+            pipe.close();
+        }
+        assertEquals("OK", m.get());
+    }
+
+    @Test
+    public void test_pipeline_broken() throws Exception {
+        String[] keys = keysOnBothNodes(20);
+        String bad = wrapper.nodeOf(JedisClusterCRC16.getSlot(keys[0]));
+        ClusterPipeline pipe = wrapper.pipelined();
+        Response<?>[] resps = new Response<?>[keys.length];
+        try {
+            for (int i = 0; i < keys.length; i++)
+                resps[i] = pipe.set(keys[i], "v" + i);
+            // 一个节点的连接在读取前断开
+            pipe.nodes.get(bad).getClient().getSocket().close();
+            try {
+                pipe.sync();
+                fail();
+            }
+            catch (JedisConnectionException e) {}
+        }
+        finally {
+            pipe.close();
+        }
+        int ok = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (wrapper.nodeOf(JedisClusterCRC16.getSlot(keys[i])).equals(bad)) {
+                try {
+                    resps[i].get();
+                    fail();
+                }
+                catch (JedisDataException e) {}
+            } else {
+                assertEquals("OK", resps[i].get());
+                ok++;
+            }
+        }
+        assertTrue(ok > 0);
+        // 坏连接已销毁, 好连接已归还
+        for (String node : wrapper.masters())
+            assertEquals(0, wrapper.nodePool(node).getNumActive());
+        assertEquals("OK", wrapper.mset(keys[0], "x", keys[1], "y"));
+        assertEquals(Arrays.asList("x", "y"), wrapper.mget(keys[0], keys[1]));
+    }
+
+    @Test
+    public void test_pipeline_close_unread() {
+        String[] keys = keysOnBothNodes(20);
+        ClusterPipeline pipe = wrapper.pipelined();
+        for (String key : keys)
+            pipe.set(key, "v");
+        // 未sync就close, 不再读取响应, 连接不会带着未读响应回到连接池
+        pipe.close();
+        for (String node : wrapper.masters())
+            assertEquals(0, wrapper.nodePool(node).getNumActive());
+        assertEquals(Arrays.asList(null, null), wrapper.mget("not-exists-1", "not-exists-2"));
+    }
+
+    @Test
+    public void test_scan_cursor() {
+        List<String> masters = wrapper.masters();
+        assertEquals(2, masters.size());
+        Map<String, String> cursors = new LinkedHashMap<String, String>();
+        cursors.put(masters.get(0), "17");
+        cursors.put(masters.get(1), "123456");
+        String cursor = wrapper.encodeCursor(cursors);
+        assertEquals(masters.get(0) + "=17," + masters.get(1) + "=123456", cursor);
+        assertEquals(cursors, wrapper.decodeCursor(cursor));
+
+        // 已结束的master不出现在游标中
+        cursors.put(masters.get(0), "0");
+        cursor = wrapper.encodeCursor(cursors);
+        assertEquals(Collections.singletonMap(masters.get(1), "123456"), wrapper.decodeCursor(cursor));
+
+        // 全部结束为"0", "0"又代表从头遍历所有master
+        cursors.put(masters.get(1), "0");
+        assertEquals("0", wrapper.encodeCursor(cursors));
+        assertEquals(cursors, wrapper.decodeCursor("0"));
+
+        for (String bad : new String[]{"abc", "=1", masters.get(0) + "=1,x"}) {
+            try {
+                wrapper.decodeCursor(bad);
+                fail(bad);
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void test_scan_concurrent() throws Exception {
+        final int count = 3000;
+        String[] kvs = new String[count * 2];
+        for (int i = 0; i < count; i++) {
+            kvs[i * 2] = "scan:" + i;
+            kvs[i * 2 + 1] = "v";
+        }
+        wrapper.mset(kvs);
+        wrapper.set("other", "v");
+        for (LocalRedis node : nodes) {
+            Jedis jedis = node.jedis();
+            try {
+                assertTrue(jedis.dbSize() > 0);
+            }
+            finally {
+                jedis.close();
+            }
+        }
+        final ScanParams params = new ScanParams().match("scan:*").count(50);
+        // 第一批之后游标中包含两个master
+        ScanResult<String> first = wrapper.scan(ScanParams.SCAN_POINTER_START, params);
+        assertEquals(2, wrapper.decodeCursor(first.getStringCursor()).size());
+
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 8; i++) {
+                final boolean callback = i % 2 == 0;
+                futures.add(es.submit(new Callable<List<String>>() {
+                    public List<String> call() throws Exception {
+                        final List<String> keys = new ArrayList<String>();
+                        if (callback) {
+                            wrapper.scan(params, new Callback<List<String>>() {
+                                public void invoke(List<String> batch) {
+                                    keys.addAll(batch);
+                                }
+                            });
+                        } else {
+                            Iterator<String> it = wrapper.scanIterator(params);
+                            while (it.hasNext())
+                                keys.add(it.next());
+                        }
+                        return keys;
+                    }
+                }));
+            }
+            for (Future<List<String>> future : futures) {
+                List<String> keys = future.get(30, TimeUnit.SECONDS);
+                // 没有并发写入, 每个key恰好出现一次
+                assertEquals(count, keys.size());
+                assertEquals(count, new HashSet<String>(keys).size());
+                assertFalse(keys.contains("other"));
+            }
+        }
+        finally {
+            es.shutdownNow();
+        }
+    }
+
+    /**
+     * 把空的slot迁到另一个节点, 返回迁入的节点
+     */
+    protected LocalRedis migrate(int slot) {
+        LocalRedis from = owner(slot);
+        LocalRedis to = from == nodes[0] ? nodes[1] : nodes[0];
+        Jedis src = from.jedis();
+        Jedis dst = to.jedis();
+        try {
+            String toId = to.nodeId();
+            dst.clusterSetSlotImporting(slot, from.nodeId());
+            src.clusterSetSlotMigrating(slot, toId);
+            for (String key : src.clusterGetKeysInSlot(slot, 100))
+                src.migrate("127.0.0.1", to.port(), key, 0, 5000);
+            dst.clusterSetSlotNode(slot, toId);
+            src.clusterSetSlotNode(slot, toId);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!owner(slot).equals(to)) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Lang.quiteSleep(50);
+            }
+        }
+        finally {
+            src.close();
+            dst.close();
+        }
+        return to;
+    }
+
+    protected LocalRedis migrateWithKey(String key) {
+        return migrate(JedisClusterCRC16.getSlot(key));
+    }
+
+    /**
+     * 按节点自己的视角查找slot的归属
+     */
+    protected LocalRedis owner(int slot) {
+        for (LocalRedis node : nodes) {
+            Jedis jedis = node.jedis();
+            try {
+                for (Object obj : jedis.clusterSlots()) {
+                    List<?> range = (List<?>) obj;
+                    long start = (Long) range.get(0);
+                    long end = (Long) range.get(1);
+                    long port = (Long) ((List<?>) range.get(2)).get(1);
+                    if (start <= slot && slot <= end && port == node.port())
+                        return node;
+                }
+            }
+            finally {
+                jedis.close();
+            }
+        }
+        throw new IllegalStateException("slot " + slot + " not covered");
+    }
+
+    protected static String[] keysOnBothNodes(int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = "key" + i;
+        return keys;
+    }
+}
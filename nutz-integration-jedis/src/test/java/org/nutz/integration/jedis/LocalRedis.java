@@ -0,0 +1,186 @@
+package org.nutz.integration.jedis;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nutz.lang.Files;
+import org.nutz.lang.Lang;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+
+/**
+ * 测试用的本地redis-server, 每个实例使用随机端口和独立的临时目录.
+ * <p/>
+ * 默认从PATH中查找redis-server, 也可以用 -Dredis.server=/path/to/redis-server 指定. 找不到时相关测试应跳过
+ */
+public class LocalRedis implements Closeable {
+
+    public static String binary() {
+        String path = System.getProperty("redis.server");
+        if (path != null)
+            return new File(path).canExecute() ? path : null;
+        String env = System.getenv("PATH");
+        if (env == null)
+            return null;
+        for (String dir : env.split(File.pathSeparator)) {
+            File f = new File(dir, "redis-server");
+            if (f.canExecute())
+                return f.getAbsolutePath();
+        }
+        return null;
+    }
+
+    public static boolean available() {
+        return binary() != null;
+    }
+
+    public static LocalRedis start(String... args) throws IOException {
+        return new LocalRedis(args);
+    }
+
+    /**
+     * 启动一个开启了集群模式的节点, 尚未分配slot
+     */
+    public static LocalRedis cluster() throws IOException {
+        return new LocalRedis("--cluster-enabled", "yes", "--cluster-config-file", "nodes.conf", "--cluster-node-timeout", "5000");
+    }
+
+    /**
+     * 启动count个节点组成集群, 平均分配全部slot, 等到各节点都确认集群可用才返回
+     */
+    public static LocalRedis[] startCluster(int count) throws IOException {
+        LocalRedis[] nodes = new LocalRedis[count];
+        try {
+            for (int i = 0; i < count; i++)
+                nodes[i] = cluster();
+            Jedis first = nodes[0].jedis();
+            try {
+                for (int i = 1; i < count; i++)
+                    first.clusterMeet("127.0.0.1", nodes[i].port());
+            }
+            finally {
+                first.close();
+            }
+            int step = JedisCluster.HASHSLOTS / count;
+            for (int i = 0; i < count; i++) {
+                int from = i * step;
+                int to = i == count - 1 ? JedisCluster.HASHSLOTS : from + step;
+                int[] slots = new int[to - from];
+                for (int j = 0; j < slots.length; j++)
+                    slots[j] = from + j;
+                Jedis jedis = nodes[i].jedis();
+                try {
+                    jedis.clusterAddSlots(slots);
+                }
+                finally {
+                    jedis.close();
+                }
+            }
+            long deadline = System.currentTimeMillis() + 20000;
+            for (LocalRedis node : nodes) {
+                Jedis jedis = node.jedis();
+                try {
+                    while (!jedis.clusterInfo().contains("cluster_state:ok") || jedis.clusterSlots().size() != count) {
+                        if (System.currentTimeMillis() > deadline)
+                            throw new IOException("cluster not ready");
+                        Lang.quiteSleep(100);
+                    }
+                }
+                finally {
+                    jedis.close();
+                }
+            }
+            return nodes;
+        }
+        catch (IOException e) {
+            for (LocalRedis node : nodes)
+                if (node != null)
+                    node.close();
+            throw e;
+        }
+    }
+
+    protected int port;
+
+    protected File dir;
+
+    protected Process process;
+
+    protected LocalRedis(String... args) throws IOException {
+        port = freePort();
+        dir = Files.createDirIfNoExists(System.getProperty("java.io.tmpdir") + "/nutz-redis-" + port + "-" + System.nanoTime());
+        List<String> cmd = new ArrayList<String>();
+        cmd.addAll(Arrays.asList(binary(), "--port", "" + port, "--bind", "127.0.0.1", "--save", "", "--appendonly", "no", "--dir", dir.getAbsolutePath()));
+        cmd.addAll(Arrays.asList(args));
+        process = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true).redirectOutput(new File(dir, "redis.log")).start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            Jedis jedis = new Jedis("127.0.0.1", port);
+            try {
+                jedis.ping();
+                return;
+            }
+            catch (Exception e) {
+                if (System.currentTimeMillis() > deadline) {
+                    close();
+                    throw new IOException("redis-server not ready at port " + port, e);
+                }
+                Lang.quiteSleep(50);
+            }
+            finally {
+                jedis.close();
+            }
+        }
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public Jedis jedis() {
+        return new Jedis("127.0.0.1", port);
+    }
+
+    /**
+     * 本节点在集群中的id
+     */
+    public String nodeId() {
+        Jedis jedis = jedis();
+        try {
+            for (String line : jedis.clusterNodes().split("\n"))
+                if (line.contains("myself"))
+                    return line.substring(0, line.indexOf(' '));
+            throw new IllegalStateException("not a cluster node");
+        }
+        finally {
+            jedis.close();
+        }
+    }
+
+    public void close() {
+        if (process != null) {
+            process.destroy();
+            try {
+                process.waitFor();
+            }
+            catch (InterruptedException e) {}
+        }
+        Files.deleteDir(dir);
+    }
+
+    protected static int freePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        }
+        finally {
+            ss.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.nutz.integration.jedis;
+
+import static org.junit.Assert.*;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.lang.util.Callback2;
+import org.nutz.trans.Atom;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * 非mvc环境下的批量作用域
+ */
+public class RedisBatchTest {
+
+    static LocalRedis redis;
+
+    static JedisPool pool;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (pool != null)
+            pool.close();
+        if (redis != null)
+            redis.close();
+    }
+
+    @Test
+    public void test_batch_with_agent() throws Exception {
+        final RedisFuture<?>[] futures = new RedisFuture[2];
+        Redis.batch(new JedisAgent(pool), new Atom() {
+            public void run() {
+                assertTrue(Redis.inBatch());
+                futures[0] = Redis.lazy().set("batch:a", "1");
+                futures[1] = Redis.lazy().incr("batch:a");
+            }
+        });
+        assertFalse(Redis.inBatch());
+        assertEquals("OK", futures[0].get());
+        assertEquals(Long.valueOf(2), futures[1].get());
+        assertNull(RedisInterceptor.TL.get());
+    }
+
+    @Test
+    public void test_batch_on_complete() throws Exception {
+        final String[] values = new String[1];
+        Redis.batch(new JedisAgent(pool), new Atom() {
+            public void run() {
+                Redis.lazy().set("batch:b", "2");
+                Redis.lazy().get("batch:b").onComplete(new Callback2<String, Throwable>() {
+                    public void invoke(String value, Throwable error) {
+                        values[0] = value;
+                    }
+                });
+                // 尚未flush
+                assertNull(values[0]);
+            }
+        });
+        // 作用域结束时flush, 回调已执行
+        assertEquals("2", values[0]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_batch_without_ioc() {
+        Redis.batch(new Atom() {
+            public void run() {}
+        });
+    }
+}
@@ -0,0 +1,201 @@
+package org.nutz.integration.jedis.pubsub;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.integration.jedis.LocalRedis;
+import org.nutz.lang.Lang;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class PubSubServiceTest {
+
+    static LocalRedis redis;
+
+    static JedisPool pool;
+
+    PubSubService service;
+
+    BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (pool != null)
+            pool.close();
+        if (redis != null)
+            redis.close();
+    }
+
+    @Before
+    public void before() {
+        service = new PubSubService();
+        service.setJedisAgent(new JedisAgent(pool));
+        service.setMaxBackoff(1000);
+    }
+
+    @After
+    public void after() {
+        service.depose();
+    }
+
+    protected PubSub handler(final String name) {
+        return new PubSub() {
+            public void onMessage(String channel, String message) {
+                received.add(name + ":" + channel + ":" + message);
+            }
+        };
+    }
+
+    protected void waitSubscribed(boolean expect) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (service.isSubscribed() != expect) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Lang.quiteSleep(10);
+        }
+    }
+
+    /**
+     * 订阅连接被断开后, 在重连前注册的pattern不能发到旧连接上, 重连后全部恢复
+     */
+    @Test
+    public void test_reg_while_disconnected() throws Exception {
+        service.reg("a.*", handler("a"));
+        waitSubscribed(true);
+        service.fireSync("a.1", "x");
+        assertEquals("a:a.1:x", received.poll(5, TimeUnit.SECONDS));
+
+        killSubscriber();
+        waitSubscribed(false);
+        service.reg("b.*", handler("b"));
+        waitSubscribed(true);
+        // 等两个pattern都订阅上
+        long deadline = System.currentTimeMillis() + 10000;
+        while (numpat() < 2) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Lang.quiteSleep(10);
+        }
+        service.fireSync("a.2", "y");
+        service.fireSync("b.1", "z");
+        assertEquals("a:a.2:y", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("b:b.1:z", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_unreg_last() throws Exception {
+        service.reg("c.*", handler("c"));
+        waitSubscribed(true);
+        service.unreg("c.*");
+        waitSubscribed(false);
+        service.fireSync("c.1", "x");
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+        service.reg("c.*", handler("c"));
+        waitSubscribed(true);
+        service.fireSync("c.1", "y");
+        assertEquals("c:c.1:y", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_unreg_one() throws Exception {
+        PubSub e1 = handler("e1");
+        PubSub e2 = handler("e2");
+        service.reg("e.*", e1);
+        service.reg("e.*", e2);
+        waitSubscribed(true);
+        service.unreg("e.*", e1);
+        service.fireSync("e.1", "x");
+        assertEquals("e2:e.1:x", received.poll(5, TimeUnit.SECONDS));
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+        // 最后一个移除后取消订阅
+        service.unreg("e.*", e2);
+        waitSubscribed(false);
+        assertEquals(0, numpat());
+    }
+
+    /**
+     * reg与unreg(pattern)并发时, handlers与已订阅的pattern必须保持一致
+     */
+    @Test
+    public void test_reg_unreg_race() throws Exception {
+        service.reg("f.*", handler("f1"));
+        waitSubscribed(true);
+        Thread t = new Thread() {
+            public void run() {
+                service.unreg("f.*");
+            }
+        };
+        synchronized (service) {
+            // unreg阻塞在锁上时, 还不能动handlers
+            t.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (t.getState() != Thread.State.BLOCKED) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Lang.quiteSleep(1);
+            }
+            service.reg("f.*", handler("f2"));
+        }
+        t.join();
+        // unreg排在reg之后, 两者一起移除
+        assertFalse(service.handlers.containsKey("f.*"));
+        assertFalse(service.requested.contains("f.*"));
+        service.reg("f.*", handler("f3"));
+        service.fireSync("f.1", "x");
+        assertEquals("f3:f.1:x", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_fire_async_order() throws Exception {
+        service.reg("d.*", handler("d"));
+        waitSubscribed(true);
+        service.setPublishBatch(64);
+        for (int i = 0; i < 1000; i++)
+            service.fireAsync("d.1", "" + i);
+        for (int i = 0; i < 1000; i++)
+            assertEquals("d:d.1:" + i, received.poll(5, TimeUnit.SECONDS));
+        assertEquals(1000, service.getPublished());
+        assertEquals(0, service.getDropped());
+    }
+
+    protected void killSubscriber() {
+        Jedis jedis = pool.getResource();
+        try {
+            for (String line : jedis.clientList().split("\n"))
+                if (line.contains("cmd=psubscribe") || line.contains("psub=1") || line.contains("psub=2")) {
+                    for (String kv : line.split(" "))
+                        if (kv.startsWith("addr="))
+                            jedis.clientKill(kv.substring(5));
+                }
+        }
+        finally {
+            jedis.close();
+        }
+    }
+
+    protected long numpat() {
+        Jedis jedis = pool.getResource();
+        try {
+            return jedis.pubsubNumPat();
+        }
+        finally {
+            jedis.close();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.credential.CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.permission.WildcardPermissionResolver;
 import org.apache.shiro.cache.CacheManager;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
@@ -43,6 +44,32 @@ public abstract class AbstractSimpleAuthorizingRealm extends AuthorizingRealm {
         this(null, matcher);
     }
 
+    /**
+     * doGetAuthorizationInfo返回CompiledAuthorizationInfo时, 字符串权限直接在前缀树中查找,
+     * 不必逐个解析和比较WildcardPermission. 使用了自定义的PermissionResolver或RolePermissionResolver时按shiro原有逻辑检查
+     */
+    public boolean isPermitted(PrincipalCollection principals, String permission) {
+        if (!(getPermissionResolver() instanceof WildcardPermissionResolver) || getRolePermissionResolver() != null)
+            return super.isPermitted(principals, permission);
+        AuthorizationInfo info = getAuthorizationInfo(principals);
+        if (!(info instanceof CompiledAuthorizationInfo))
+            return super.isPermitted(principals, permission);
+        if (((CompiledAuthorizationInfo) info).trie().implies(permission))
+            return true;
+        if (info.getObjectPermissions() == null || info.getObjectPermissions().isEmpty())
+            return false;
+        return super.isPermitted(principals, permission);
+    }
+
+    /**
+     * 同时使该用户在各会话中缓存的权限检查结果失效, 见AuthzRequirement
+     */
+    protected void clearCachedAuthorizationInfo(PrincipalCollection principals) {
+        super.clearCachedAuthorizationInfo(principals);
+        if (principals != null && !principals.isEmpty())
+            NutShiro.bumpAuthzVersion(principals.getPrimaryPrincipal());
+    }
+
     public Dao dao() {
         if (_dao == null) {
             _dao = Mvcs.ctx().getDefaultIoc().get(Dao.class, "dao");
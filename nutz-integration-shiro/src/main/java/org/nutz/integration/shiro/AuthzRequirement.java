@@ -0,0 +1,203 @@
+package org.nutz.integration.shiro;
+
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.authz.UnauthenticatedException;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.authz.annotation.Logical;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresGuest;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.apache.shiro.authz.annotation.RequiresRoles;
+import org.apache.shiro.authz.annotation.RequiresUser;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.nutz.integration.shiro.annotation.NutzRequiresPermissions;
+
+/**
+ * 入口方法的权限要求, 在NutShiroProcessor.init时根据@RequiresRoles/@RequiresPermissions等注解生成.
+ * <p/>
+ * 检查结果按会话缓存, 修改了角色或权限表后需调用NutShiro.bumpAuthzVersion()使全部缓存失效,
+ * 只修改了某个用户时可调用NutShiro.bumpAuthzVersion(principal), 或Realm的clearCachedAuthorizationInfo.
+ * 有新的检查结果时会重新setAttribute, 以便Redis/数据库等SessionDAO持久化
+ *
+ * @author wendal<wendal1985@gmail.com>
+ *
+ */
+public class AuthzRequirement {
+
+    public static final String SESSION_KEY = AuthzRequirement.class.getName();
+
+    protected boolean authentication;
+
+    protected boolean user;
+
+    protected String[] roles;
+
+    protected Logical rolesLogical;
+
+    protected String[] permissions;
+
+    protected Logical permissionsLogical;
+
+    @SuppressWarnings("unchecked")
+    protected static final Class<? extends Annotation>[] SHIRO_ANNOTATIONS = new Class[]{RequiresRoles.class,
+                                                                                         RequiresPermissions.class,
+                                                                                         RequiresAuthentication.class,
+                                                                                         RequiresUser.class,
+                                                                                         RequiresGuest.class,
+                                                                                         NutzRequiresPermissions.class};
+
+    public static AuthzRequirement of(Method method) {
+        return of(method, method.getDeclaringClass());
+    }
+
+    /**
+     * 根据方法上的注解生成. 以下情况返回null, 由shiro的拦截器处理:
+     * <li>含有@NutzRequiresPermissions或@RequiresGuest</li>
+     * <li>模块类或方法的声明类上标注了shiro的注解, shiro会按注解类型逐个回退到类上查找, 这里不重复实现</li>
+     */
+    public static AuthzRequirement of(Method method, Class<?> moduleType) {
+        if (method.getAnnotation(RequiresGuest.class) != null || method.getAnnotation(NutzRequiresPermissions.class) != null)
+            return null;
+        if (hasShiroAnnotation(method.getDeclaringClass()) || (moduleType != null && hasShiroAnnotation(moduleType)))
+            return null;
+        AuthzRequirement re = new AuthzRequirement();
+        re.authentication = method.getAnnotation(RequiresAuthentication.class) != null;
+        re.user = method.getAnnotation(RequiresUser.class) != null;
+        RequiresRoles rr = method.getAnnotation(RequiresRoles.class);
+        if (rr != null) {
+            re.roles = rr.value();
+            re.rolesLogical = rr.logical();
+        }
+        RequiresPermissions rp = method.getAnnotation(RequiresPermissions.class);
+        if (rp != null) {
+            re.permissions = rp.value();
+            re.permissionsLogical = rp.logical();
+        }
+        return re;
+    }
+
+    protected static boolean hasShiroAnnotation(Class<?> klass) {
+        for (Class<? extends Annotation> annotation : SHIRO_ANNOTATIONS)
+            if (klass.getAnnotation(annotation) != null)
+                return true;
+        return false;
+    }
+
+    /**
+     * 检查顺序与shiro的AnnotationsAuthorizingMethodInterceptor一致: 角色, 权限, 已登录, 已识别用户
+     */
+    public void check(Subject subject) throws AuthorizationException {
+        Decisions decisions = null;
+        Session session = null;
+        if (roles != null || permissions != null) {
+            PrincipalCollection principals = subject.getPrincipals();
+            if (principals == null || principals.isEmpty())
+                throw new UnauthenticatedException("This subject is anonymous - it does not have any identifying principals and authorization operations require an identity to check against.");
+            session = subject.getSession(false);
+            if (session != null)
+                decisions = decisions(session, subject.getPrincipal());
+        }
+        try {
+            if (roles != null && !check(subject, decisions, true, roles, rolesLogical))
+                throw new UnauthorizedException("Subject does not have role " + join(roles, rolesLogical));
+            if (permissions != null && !check(subject, decisions, false, permissions, permissionsLogical))
+                throw new UnauthorizedException("Subject does not have permission " + join(permissions, permissionsLogical));
+        }
+        finally {
+            // 会话属性可能是反序列化出来的副本, 原地修改不会被SessionDAO保存, 需要写回
+            if (decisions != null && decisions.dirty) {
+                decisions.dirty = false;
+                session.setAttribute(SESSION_KEY, decisions);
+            }
+        }
+        if (authentication && !subject.isAuthenticated())
+            throw new UnauthenticatedException("The current Subject is not authenticated.  Access denied.");
+        if (user && subject.getPrincipal() == null)
+            throw new UnauthenticatedException("Attempting to perform a user-only operation.  The current Subject is not a user (they haven't been authenticated or remembered from a previous login).  Access denied.");
+    }
+
+    protected boolean check(Subject subject, Decisions decisions, boolean role, String[] values, Logical logical) {
+        for (String value : values) {
+            boolean ok = permitted(subject, decisions, role, value);
+            if (logical == Logical.OR && ok)
+                return true;
+            if (logical == Logical.AND && !ok)
+                return false;
+        }
+        return logical == Logical.AND;
+    }
+
+    protected boolean permitted(Subject subject, Decisions decisions, boolean role, String value) {
+        String key = role ? "r:" + value : "p:" + value;
+        Boolean re = decisions == null ? null : decisions.map.get(key);
+        if (re == null) {
+            re = role ? subject.hasRole(value) : subject.isPermitted(value);
+            if (decisions != null) {
+                decisions.map.put(key, re);
+                decisions.dirty = true;
+            }
+        }
+        return re;
+    }
+
+    /**
+     * 取出会话中的检查结果, 全局或该用户的版本号变化, 或用户变化时重建
+     */
+    protected Decisions decisions(Session session, Object principal) {
+        long version = NutShiro.authzVersion();
+        long principalVersion = NutShiro.authzVersion(principal);
+        Object val = session.getAttribute(SESSION_KEY);
+        if (val instanceof Decisions) {
+            Decisions decisions = (Decisions) val;
+            if (decisions.version == version && decisions.principalVersion == principalVersion && principal.equals(decisions.principal))
+                return decisions;
+        }
+        Decisions decisions = new Decisions(version, principalVersion, principal);
+        decisions.dirty = true;
+        return decisions;
+    }
+
+    protected static String join(String[] values, Logical logical) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0)
+                sb.append(logical == Logical.AND ? " and " : " or ");
+            sb.append('[').append(value).append(']');
+        }
+        return sb.toString();
+    }
+
+    public static class Decisions implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected long version;
+
+        /**
+         * 旧版本序列化的对象中为0, 与任何版本号都不相等, 会被重建
+         */
+        protected long principalVersion;
+
+        protected Object principal;
+
+        protected ConcurrentHashMap<String, Boolean> map = new ConcurrentHashMap<String, Boolean>();
+
+        /**
+         * 有未写回会话的检查结果
+         */
+        protected transient volatile boolean dirty;
+
+        public Decisions(long version, long principalVersion, Object principal) {
+            this.version = version;
+            this.principalVersion = principalVersion;
+            this.principal = principal;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.nutz.integration.shiro;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 带有PermissionTrie的AuthorizationInfo, 在AbstractSimpleAuthorizingRealm.doGetAuthorizationInfo中代替SimpleAuthorizationInfo返回,
+ * isPermitted(字符串权限)就变成一次前缀树查找.
+ * <p/>
+ * 前缀树不参与序列化, 从缓存中取出后首次检查时重建. 格式错误的权限字符串在构建时跳过并打印警告, 不会让每次检查都抛异常
+ *
+ * @author wendal<wendal1985@gmail.com>
+ *
+ */
+public class CompiledAuthorizationInfo extends SimpleAuthorizationInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledAuthorizationInfo.class);
+
+    protected transient volatile PermissionTrie trie;
+
+    public CompiledAuthorizationInfo() {}
+
+    public CompiledAuthorizationInfo(Set<String> roles) {
+        super(roles);
+    }
+
+    public PermissionTrie trie() {
+        PermissionTrie tmp = trie;
+        if (tmp == null) {
+            tmp = new PermissionTrie();
+            if (getStringPermissions() != null) {
+                for (String permission : getStringPermissions()) {
+                    try {
+                        tmp.add(permission);
+                    }
+                    catch (IllegalArgumentException e) {
+                        log.warn("skip bad permission [{}] : {}", permission, e.getMessage());
+                    }
+                }
+            }
+            trie = tmp;
+        }
+        return tmp;
+    }
+
+    public void setStringPermissions(Set<String> stringPermissions) {
+        super.setStringPermissions(stringPermissions);
+        trie = null;
+    }
+
+    public void addStringPermission(String permission) {
+        super.addStringPermission(permission);
+        trie = null;
+    }
+
+    public void addStringPermissions(Collection<String> permissions) {
+        super.addStringPermissions(permissions);
+        trie = null;
+    }
+}
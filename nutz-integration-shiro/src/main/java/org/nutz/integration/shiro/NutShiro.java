@@ -3,7 +3,9 @@ package org.nutz.integration.shiro;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -15,6 +17,9 @@ import org.apache.shiro.authz.annotation.RequiresGuest;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 import org.apache.shiro.authz.annotation.RequiresRoles;
 import org.apache.shiro.authz.annotation.RequiresUser;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.MapCache;
+import org.apache.shiro.util.SoftHashMap;
 import org.nutz.integration.shiro.annotation.NutzRequiresPermissions;
 import org.nutz.json.JsonFormat;
 import org.nutz.lang.Encoding;
@@ -36,6 +41,66 @@ public class NutShiro {
     public static String AjaxEncode = Encoding.UTF8;
     
     public static final String DEFAULT_CAPTCHA_PARAM = "captcha";
+    
+    /**
+     * 全局版本号在authzVersions中的key
+     */
+    protected static final String GLOBAL_AUTHZ_VERSION = NutShiro.class.getName() + ".authzVersion";
+    
+    /**
+     * 版本号生成器, 以启动时间为种子, 重启后不会与会话中保存的旧版本号重复
+     */
+    private static final AtomicLong authzVersionSeq = new AtomicLong(System.currentTimeMillis() * 1000 + new Random().nextInt(1000));
+    
+    private static volatile Cache<Object, Long> authzVersions = new MapCache<Object, Long>("authzVersion", new SoftHashMap<Object, Long>());
+    
+    /**
+     * 权限检查结果缓存的全局版本号, 见AuthzRequirement
+     */
+    public static long authzVersion() {
+        return authzVersion(GLOBAL_AUTHZ_VERSION);
+    }
+    
+    /**
+     * 某个用户(primary principal)的版本号. 缓存中没有时生成一个新的, 所以版本号被淘汰只会使检查结果失效, 不会让旧结果复活
+     */
+    public static long authzVersion(Object principal) {
+        Cache<Object, Long> cache = authzVersions;
+        Long version = cache.get(principal);
+        if (version == null) {
+            version = authzVersionSeq.incrementAndGet();
+            cache.put(principal, version);
+        }
+        return version;
+    }
+    
+    /**
+     * 角色或权限表有变化时调用, 使所有会话中缓存的权限检查结果失效
+     */
+    public static void bumpAuthzVersion() {
+        bumpAuthzVersion(GLOBAL_AUTHZ_VERSION);
+    }
+    
+    /**
+     * 某个用户的角色或权限有变化时调用, 只使该用户的检查结果失效. AbstractSimpleAuthorizingRealm.clearCachedAuthorizationInfo会自动调用
+     */
+    public static void bumpAuthzVersion(Object principal) {
+        Cache<Object, Long> cache = authzVersions;
+        Long current = cache.get(principal);
+        long next = authzVersionSeq.incrementAndGet();
+        // 共享缓存中可能是其他实例写入的更大的版本号, 保持单调递增
+        if (current != null && next <= current)
+            next = current + 1;
+        cache.put(principal, next);
+    }
+    
+    /**
+     * 存放版本号的缓存, 默认为本机内存. 多实例部署时必须设置为各实例共享的缓存(例如基于redis的CacheManager中的一个cache),
+     * 否则一个实例上bumpAuthzVersion, 其他实例的会话仍使用旧的检查结果. 该缓存可以淘汰, 但不能返回旧值
+     */
+    public static void setAuthzVersionCache(Cache<Object, Long> cache) {
+        authzVersions = cache;
+    }
 	
 	public static boolean isAjax(ServletRequest req) {
 	    String value = ((HttpServletRequest)req).getHeader("X-Requested-With");
@@ -4,6 +4,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.Collection;
 
+import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authz.UnauthenticatedException;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.shiro.authz.aop.AuthorizingAnnotationMethodInterceptor;
@@ -72,14 +73,31 @@ public class NutShiroProcessor extends AbstractProcessor {
 	protected boolean init;
 
 	protected Class<? extends Annotation>[] annotations;
+
+	/**
+	 * 入口方法的权限要求, 仅使用默认拦截器时才生成, 为null时交给shiro的拦截器检查
+	 */
+	protected AuthzRequirement requirement;
+
+	/**
+	 * 是否在init时预先解析权限注解, 并按会话缓存检查结果. 默认关闭, 开启前请先阅读README中"权限检查结果缓存"一节
+	 */
+	protected boolean fastPath;
+
+	/**
+	 * 使用了自定义拦截器时, 即使开启fastPath也交给拦截器检查
+	 */
+	protected boolean customInterceptors;
 	
 	public NutShiroProcessor(Collection<AuthorizingAnnotationMethodInterceptor> interceptors) {
         interceptor = new NutShiroMethodInterceptor(interceptors);
+        customInterceptors = true;
     }
 
 	public NutShiroProcessor(Collection<AuthorizingAnnotationMethodInterceptor> interceptors, Class<? extends Annotation>... annotations) {
 		interceptor = new NutShiroMethodInterceptor(interceptors);
 		this.annotations = annotations;
+		customInterceptors = true;
 	}
 
 	public NutShiroProcessor() {
@@ -96,6 +114,8 @@ public class NutShiroProcessor extends AbstractProcessor {
 		} else {
 			match = NutShiro.match(ai.getMethod()) || hasAuthAnnotion(ai.getMethod(), annotations);
 		}
+		if (match && fastPath && !customInterceptors)
+			requirement = AuthzRequirement.of(ai.getMethod(), ai.getModuleType());
 		init = true;
 	}
 
@@ -117,7 +137,10 @@ public class NutShiroProcessor extends AbstractProcessor {
 	public void process(ActionContext ac) throws Throwable {
 		if (match) {
 			try {
-				interceptor.assertAuthorized(new NutShiroInterceptor(ac));
+				if (requirement != null)
+					requirement.check(SecurityUtils.getSubject());
+				else
+					interceptor.assertAuthorized(new NutShiroInterceptor(ac));
 			} catch (Exception e) {
 				whenException(ac, e);
 				return;
@@ -173,6 +196,10 @@ public class NutShiroProcessor extends AbstractProcessor {
 		}
 	}
 
+	public void setFastPath(boolean fastPath) {
+		this.fastPath = fastPath;
+	}
+
 	protected String loginUri() {
 		if (loginUri == null)
 			return NutShiro.DefaultLoginURL;
@@ -0,0 +1,149 @@
+package org.nutz.integration.shiro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 把一个用户的全部权限字符串编译成前缀树, implies的语义与shiro的WildcardPermission(不区分大小写)一致.
+ * <p/>
+ * 每一级对应权限的一段(以:分隔). 结尾的*段会被去掉, 因为 a:* 与 a 等价; 到达标记为end的节点即表示拥有该节点下的全部权限.
+ * 多个子段(以,分隔)的段保存为集合边, 数量通常很少, 检查时逐个比较
+ *
+ * @author wendal<wendal1985@gmail.com>
+ *
+ */
+public class PermissionTrie {
+
+    protected Node root = new Node();
+
+    public PermissionTrie() {}
+
+    public PermissionTrie(Collection<String> permissions) {
+        if (permissions != null)
+            for (String permission : permissions)
+                add(permission);
+    }
+
+    public void add(String permission) {
+        List<Set<String>> parts = parse(permission);
+        int len = parts.size();
+        while (len > 0 && parts.get(len - 1).contains("*"))
+            len--;
+        Node node = root;
+        for (int i = 0; i < len; i++) {
+            if (node.end)
+                return;
+            node = node.child(parts.get(i));
+        }
+        node.end = true;
+    }
+
+    /**
+     * 是否拥有指定的权限
+     */
+    public boolean implies(String permission) {
+        return implies(root, parse(permission), 0);
+    }
+
+    protected boolean implies(Node node, List<Set<String>> parts, int index) {
+        if (node.end)
+            return true;
+        // 被检查的权限更短, 剩余的段必须都是*, 而*段已在add时去掉, 所以只能是不存在
+        if (index == parts.size())
+            return false;
+        Set<String> part = parts.get(index);
+        if (node.wildcard != null && implies(node.wildcard, parts, index + 1))
+            return true;
+        if (part.size() == 1 && node.children != null) {
+            Node child = node.children.get(part.iterator().next());
+            if (child != null && implies(child, parts, index + 1))
+                return true;
+        }
+        if (node.sets != null) {
+            for (int i = 0; i < node.sets.size(); i++) {
+                if (node.sets.get(i).containsAll(part) && implies(node.setNodes.get(i), parts, index + 1))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 与WildcardPermission.setParts(大小写不敏感)完全一致: 只去掉整个字符串首尾的空白, 子段不trim也不丢弃,
+     * 所以 "a, b" 中的第二个子段是 " b", "a::b" 的中间段是空字符串
+     */
+    protected static List<Set<String>> parse(String permission) {
+        String tmp = permission == null ? null : permission.trim();
+        if (tmp == null || tmp.isEmpty())
+            throw new IllegalArgumentException("Wildcard string cannot be null or empty. Make sure permission strings are properly formatted.");
+        String[] tmps = tmp.toLowerCase().split(":");
+        List<Set<String>> parts = new ArrayList<Set<String>>(tmps.length);
+        for (String part : tmps) {
+            Set<String> subparts = new LinkedHashSet<String>(Arrays.asList(part.split(",")));
+            if (subparts.isEmpty())
+                throw new IllegalArgumentException("Wildcard string cannot contain parts with only dividers. Make sure permission strings are properly formatted.");
+            parts.add(subparts);
+        }
+        if (parts.isEmpty())
+            throw new IllegalArgumentException("Wildcard string cannot contain only dividers. Make sure permission strings are properly formatted.");
+        return parts;
+    }
+
+    protected static class Node {
+
+        protected boolean end;
+
+        /**
+         * 单个子段的边
+         */
+        protected Map<String, Node> children;
+
+        /**
+         * 包含*的段
+         */
+        protected Node wildcard;
+
+        /**
+         * 多个子段的边
+         */
+        protected List<Set<String>> sets;
+
+        protected List<Node> setNodes;
+
+        protected Node child(Set<String> part) {
+            if (part.contains("*")) {
+                if (wildcard == null)
+                    wildcard = new Node();
+                return wildcard;
+            }
+            if (part.size() == 1) {
+                if (children == null)
+                    children = new HashMap<String, Node>();
+                String key = part.iterator().next();
+                Node node = children.get(key);
+                if (node == null) {
+                    node = new Node();
+                    children.put(key, node);
+                }
+                return node;
+            }
+            if (sets == null) {
+                sets = new ArrayList<Set<String>>();
+                setNodes = new ArrayList<Node>();
+            }
+            for (int i = 0; i < sets.size(); i++)
+                if (sets.get(i).equals(part))
+                    return setNodes.get(i);
+            sets.add(part);
+            Node node = new Node();
+            setNodes.add(node);
+            return node;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.nutz.integration.shiro;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.apache.shiro.authz.annotation.RequiresRoles;
+import org.apache.shiro.cache.MapCache;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.SoftHashMap;
+import org.junit.Test;
+
+public class AuthzRequirementTest {
+
+    public static class PlainModule {
+        @RequiresPermissions("user:view")
+        public void view() {}
+
+        @RequiresRoles("admin")
+        @RequiresPermissions("user:edit")
+        public void edit() {}
+    }
+
+    @RequiresRoles("admin")
+    public static class AdminModule {
+        @RequiresPermissions("user:view")
+        public void view() {}
+    }
+
+    public static class SubModule extends PlainModule {}
+
+    @Test
+    public void test_of() throws Exception {
+        Method view = PlainModule.class.getMethod("view");
+        AuthzRequirement re = AuthzRequirement.of(view);
+        assertNotNull(re);
+        assertArrayEquals(new String[]{"user:view"}, re.permissions);
+        assertNull(re.roles);
+        // 类上有shiro注解, shiro会回退到类上查找@RequiresRoles, 交给拦截器
+        assertNull(AuthzRequirement.of(AdminModule.class.getMethod("view")));
+        // 模块类与方法的声明类不同
+        assertNotNull(AuthzRequirement.of(view, SubModule.class));
+        assertNull(AuthzRequirement.of(view, AnnotatedSubModule.class));
+    }
+
+    @RequiresAuthentication
+    public static class AnnotatedSubModule extends PlainModule {}
+
+    @Test
+    public void test_decisions_written_back() throws Exception {
+        MockSubject mock = new MockSubject();
+        mock.roles.add("admin");
+        mock.permissions.add("user:edit");
+        AuthzRequirement re = AuthzRequirement.of(PlainModule.class.getMethod("edit"));
+        re.check(mock.subject);
+        assertEquals(2, mock.checks);
+        assertEquals(1, mock.writes);
+        // 会话属性每次读出的都是副本, 缓存仍然生效
+        re.check(mock.subject);
+        assertEquals(2, mock.checks);
+        assertEquals(1, mock.writes);
+
+        AuthzRequirement view = AuthzRequirement.of(PlainModule.class.getMethod("view"));
+        try {
+            view.check(mock.subject);
+            fail();
+        }
+        catch (UnauthorizedException e) {}
+        // 失败的结果也缓存并写回
+        assertEquals(3, mock.checks);
+        assertEquals(2, mock.writes);
+        try {
+            view.check(mock.subject);
+            fail();
+        }
+        catch (UnauthorizedException e) {}
+        assertEquals(3, mock.checks);
+
+        // 版本变化后重新检查
+        NutShiro.bumpAuthzVersion();
+        re.check(mock.subject);
+        assertEquals(5, mock.checks);
+    }
+
+    @Test
+    public void test_principal_version() throws Exception {
+        MockSubject mock = new MockSubject();
+        mock.permissions.add("user:view");
+        AuthzRequirement view = AuthzRequirement.of(PlainModule.class.getMethod("view"));
+        view.check(mock.subject);
+        view.check(mock.subject);
+        assertEquals(1, mock.checks);
+        // 其他用户的变化不影响
+        NutShiro.bumpAuthzVersion("zozoh");
+        view.check(mock.subject);
+        assertEquals(1, mock.checks);
+        // Realm清除该用户的AuthorizationInfo缓存时, 检查结果一并失效
+        AbstractSimpleAuthorizingRealm realm = new AbstractSimpleAuthorizingRealm() {
+            protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+                return null;
+            }
+
+            protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) {
+                return null;
+            }
+        };
+        realm.clearCachedAuthorizationInfo(new SimplePrincipalCollection("wendal", "test"));
+        mock.permissions.clear();
+        try {
+            view.check(mock.subject);
+            fail();
+        }
+        catch (UnauthorizedException e) {}
+        assertEquals(2, mock.checks);
+    }
+
+    /**
+     * 多实例共享版本号缓存, 版本号被淘汰或由其他实例修改
+     */
+    @Test
+    public void test_shared_version() throws Exception {
+        MapCache<Object, Long> shared = new MapCache<Object, Long>("authzVersion", new HashMap<Object, Long>());
+        NutShiro.setAuthzVersionCache(shared);
+        try {
+            MockSubject mock = new MockSubject();
+            mock.permissions.add("user:view");
+            AuthzRequirement view = AuthzRequirement.of(PlainModule.class.getMethod("view"));
+            view.check(mock.subject);
+            view.check(mock.subject);
+            assertEquals(1, mock.checks);
+
+            // 其他实例bump, 本实例的计数器比它小, 版本号仍然递增
+            long global = NutShiro.authzVersion();
+            shared.put(NutShiro.GLOBAL_AUTHZ_VERSION, global + 1000000000L);
+            view.check(mock.subject);
+            assertEquals(2, mock.checks);
+            NutShiro.bumpAuthzVersion();
+            assertEquals(global + 1000000001L, NutShiro.authzVersion());
+            view.check(mock.subject);
+            assertEquals(3, mock.checks);
+
+            // 淘汰后生成新的版本号, 旧的检查结果不会复活
+            shared.remove("wendal");
+            view.check(mock.subject);
+            assertEquals(4, mock.checks);
+            shared.clear();
+            view.check(mock.subject);
+            assertEquals(5, mock.checks);
+            view.check(mock.subject);
+            assertEquals(5, mock.checks);
+        }
+        finally {
+            NutShiro.setAuthzVersionCache(new MapCache<Object, Long>("authzVersion", new SoftHashMap<Object, Long>()));
+        }
+    }
+
+    @Test
+    public void test_fast_path_opt_in() {
+        assertFalse(new NutShiroProcessor().fastPath);
+    }
+
+    /**
+     * 模拟Redis之类的SessionDAO: 属性保存时序列化, 读取时反序列化
+     */
+    public static class MockSubject implements InvocationHandler {
+
+        Set<String> roles = new HashSet<String>();
+
+        Set<String> permissions = new HashSet<String>();
+
+        Map<Object, byte[]> attributes = new HashMap<Object, byte[]>();
+
+        int checks;
+
+        int writes;
+
+        Subject subject = (Subject) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Subject.class}, this);
+
+        Session session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                           new Class<?>[]{Session.class},
+                                                           new InvocationHandler() {
+                                                               public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                                                   if ("getAttribute".equals(method.getName())) {
+                                                                       byte[] data = attributes.get(args[0]);
+                                                                       return data == null ? null : new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+                                                                   }
+                                                                   if ("setAttribute".equals(method.getName())) {
+                                                                       ByteArrayOutputStream out = new ByteArrayOutputStream();
+                                                                       ObjectOutputStream oos = new ObjectOutputStream(out);
+                                                                       oos.writeObject(args[1]);
+                                                                       oos.close();
+                                                                       attributes.put(args[0], out.toByteArray());
+                                                                       writes++;
+                                                                   }
+                                                                   return null;
+                                                               }
+                                                           });
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("getPrincipals".equals(name))
+                return new SimplePrincipalCollection("wendal", "test");
+            if ("getPrincipal".equals(name))
+                return "wendal";
+            if ("getSession".equals(name))
+                return session;
+            if ("isAuthenticated".equals(name))
+                return true;
+            if ("hasRole".equals(name)) {
+                checks++;
+                return roles.contains(args[0]);
+            }
+            if ("isPermitted".equals(name) && args[0] instanceof String) {
+                checks++;
+                return permissions.contains(args[0]);
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+}
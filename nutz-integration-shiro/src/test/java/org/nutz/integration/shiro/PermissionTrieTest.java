@@ -0,0 +1,122 @@
+package org.nutz.integration.shiro;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.Test;
+
+public class PermissionTrieTest {
+
+    /**
+     * 生成权限字符串用的子段, 包括大小写, 空白, 空字符串和*
+     */
+    static final String[] TOKENS = {"a", "b", "c", "A", "*", "", " b", "b ", "view"};
+
+    @Test
+    public void test_parse() {
+        PermissionTrie trie = new PermissionTrie(Arrays.asList("a, b:view"));
+        assertTrue(trie.implies("a:view"));
+        // 子段不trim, " b" 不等于 "b"
+        assertFalse(trie.implies("b:view"));
+        assertTrue(trie.implies("a, b:view"));
+
+        trie = new PermissionTrie(Arrays.asList("a::b"));
+        assertTrue(trie.implies("a::b"));
+        assertFalse(trie.implies("a:x:b"));
+
+        trie = new PermissionTrie(Arrays.asList(" User:*:Edit "));
+        assertTrue(trie.implies("user:1:edit"));
+        assertTrue(trie.implies("USER:2:EDIT:x"));
+        assertFalse(trie.implies("user:1"));
+
+        for (String bad : new String[]{"", "  ", ":", "a:,", ",:a"}) {
+            try {
+                PermissionTrie.parse(bad);
+                fail(bad);
+            }
+            catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void test_bad_row() {
+        CompiledAuthorizationInfo info = new CompiledAuthorizationInfo();
+        info.addStringPermission("a:,");
+        info.addStringPermission("user:view");
+        assertTrue(info.trie().implies("user:view"));
+        assertFalse(info.trie().implies("a:b"));
+    }
+
+    /**
+     * 随机生成的权限集合, 结果必须与逐个调用WildcardPermission.implies完全一致, 包括抛异常的情况
+     */
+    @Test
+    public void test_same_as_shiro() {
+        Random r = new Random(25);
+        for (int round = 0; round < 2000; round++) {
+            Set<String> granted = new LinkedHashSet<String>();
+            int count = 1 + r.nextInt(8);
+            for (int i = 0; i < count; i++)
+                granted.add(random(r));
+            List<WildcardPermission> wps = new ArrayList<WildcardPermission>();
+            for (String permission : granted) {
+                try {
+                    wps.add(new WildcardPermission(permission));
+                }
+                catch (IllegalArgumentException e) {}
+            }
+            CompiledAuthorizationInfo info = new CompiledAuthorizationInfo();
+            info.setStringPermissions(granted);
+            PermissionTrie trie = info.trie();
+            for (int i = 0; i < 50; i++) {
+                String query = random(r);
+                Boolean expect;
+                try {
+                    WildcardPermission q = new WildcardPermission(query);
+                    expect = false;
+                    for (WildcardPermission wp : wps)
+                        if (wp.implies(q))
+                            expect = true;
+                }
+                catch (IllegalArgumentException e) {
+                    expect = null;
+                }
+                Boolean actual;
+                try {
+                    actual = trie.implies(query);
+                }
+                catch (IllegalArgumentException e) {
+                    actual = null;
+                }
+                assertEquals(granted + " -> [" + query + "]", expect, actual);
+            }
+        }
+    }
+
+    static String random(Random r) {
+        StringBuilder sb = new StringBuilder();
+        if (r.nextInt(10) == 0)
+            sb.append(' ');
+        int parts = 1 + r.nextInt(4);
+        for (int i = 0; i < parts; i++) {
+            if (i > 0)
+                sb.append(':');
+            int subparts = r.nextInt(5) == 0 ? 2 + r.nextInt(2) : 1;
+            for (int j = 0; j < subparts; j++) {
+                if (j > 0)
+                    sb.append(',');
+                sb.append(TOKENS[r.nextInt(TOKENS.length)]);
+            }
+        }
+        if (r.nextInt(10) == 0)
+            sb.append(r.nextBoolean() ? ":" : " ");
+        return sb.toString();
+    }
+}
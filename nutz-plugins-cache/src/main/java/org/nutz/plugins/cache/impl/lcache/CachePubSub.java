@@ -1,6 +1,9 @@
 package org.nutz.plugins.cache.impl.lcache;
 
-import org.apache.shiro.cache.Cache;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 
@@ -10,14 +13,29 @@ public class CachePubSub extends JedisPubSub {
 
     private static final Log log = Logs.get();
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void onPSubscribe(String pattern, int subscribedChannels) {
+        LCacheManager.me.onSubscribed();
+    }
+
+    @SuppressWarnings("rawtypes")
     public void onPMessage(String pattern, String channel, String message) {
         log.debugf("channel=%s, msg=%s", channel, message);
         if (message.startsWith(LCacheManager.me.id))
             return;
         String cacheName = channel.substring(LCacheManager.PREFIX.length());
         LCache cache = LCacheManager.me.caches.get(cacheName);
-        if (cache != null && cache.list.size() > 1)
-            ((Cache) cache.list.get(0)).remove(message.substring(LCacheManager.me.id.length() + 1));
+        if (cache == null || cache.list.size() < 2)
+            return;
+        String payload = message.substring(message.indexOf(':') + 1);
+        if (InvalidationBus.CLEAR_MARK.equals(payload)) {
+            cache.clearLevel1();
+        } else if (payload.startsWith(InvalidationBus.BATCH_MARK)) {
+            // 批量消息, 去重后再逐个移除
+            Set<String> keys = new LinkedHashSet<String>(Arrays.asList(payload.substring(1).split(InvalidationBus.BATCH_MARK)));
+            for (String key : keys)
+                cache.removeLevel1(key);
+        } else {
+            cache.removeLevel1(payload);
+        }
     }
 }
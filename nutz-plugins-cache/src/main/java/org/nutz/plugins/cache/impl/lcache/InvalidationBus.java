@@ -0,0 +1,198 @@
+package org.nutz.plugins.cache.impl.lcache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nutz.lang.Lang;
+import org.nutz.lang.Streams;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * 批量发送失效通知. LCache的写操作只把key放入队列, 由后台线程每隔window毫秒按cache合并去重,
+ * 每个cache每个时间窗口只PUBLISH一条消息, 写操作永远不会因redis而阻塞.
+ * <p/>
+ * 消息格式: 单个key时与旧版相同, 即 "id:key"; 多个key时为 "id:\nkey1\nkey2..."; 需要整体清除时为 "id:\r".
+ * 队列积压超过maxPending时不再记录具体的key, 改为通知整体清除
+ *
+ * @author wendal
+ *
+ */
+public class InvalidationBus implements Runnable {
+
+    private static final Log log = Logs.get();
+
+    public static final String BATCH_MARK = "\n";
+
+    public static final String CLEAR_MARK = "\r";
+
+    protected LCacheManager manager;
+
+    protected int window;
+
+    protected int maxPending;
+
+    protected ConcurrentLinkedQueue<String[]> queue = new ConcurrentLinkedQueue<String[]>();
+
+    protected AtomicInteger pending = new AtomicInteger();
+
+    protected Set<String> overflowed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected volatile boolean running = true;
+
+    protected Thread thread;
+
+    protected AtomicLong fired = new AtomicLong();
+
+    protected AtomicLong published = new AtomicLong();
+
+    public InvalidationBus(LCacheManager manager, int window, int maxPending) {
+        this.manager = manager;
+        this.window = window;
+        this.maxPending = maxPending;
+    }
+
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(this, "lcache.fire");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 放入队列后立即返回
+     */
+    public void fire(String cacheName, String key) {
+        fired.incrementAndGet();
+        if (overflowed.contains(cacheName))
+            return;
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            overflowed.add(cacheName);
+            return;
+        }
+        queue.offer(new String[]{cacheName, key});
+    }
+
+    /**
+     * 通知其他节点整体清除
+     */
+    public void fireClear(String cacheName) {
+        fired.incrementAndGet();
+        overflowed.add(cacheName);
+    }
+
+    public void run() {
+        while (running) {
+            Lang.quiteSleep(window);
+            try {
+                flush();
+            }
+            catch (Throwable e) {
+                log.debug("flush fail, retry at next window", e);
+            }
+        }
+        try {
+            flush();
+        }
+        catch (Throwable e) {
+            log.debug("last flush fail", e);
+        }
+    }
+
+    protected void flush() {
+        Map<String, Set<String>> batch = new LinkedHashMap<String, Set<String>>();
+        String[] item;
+        while ((item = queue.poll()) != null) {
+            pending.decrementAndGet();
+            Set<String> keys = batch.get(item[0]);
+            if (keys == null) {
+                keys = new LinkedHashSet<String>();
+                batch.put(item[0], keys);
+            }
+            keys.add(item[1]);
+        }
+        Set<String> clears = new LinkedHashSet<String>();
+        for (String cacheName : overflowed.toArray(new String[0])) {
+            overflowed.remove(cacheName);
+            clears.add(cacheName);
+        }
+        if (batch.isEmpty() && clears.isEmpty())
+            return;
+        Jedis jedis = null;
+        try {
+            jedis = manager.jedis();
+            String prefix = manager.id + ":";
+            for (String cacheName : clears) {
+                batch.remove(cacheName);
+                publish(jedis, cacheName, prefix + CLEAR_MARK);
+            }
+            for (Entry<String, Set<String>> en : batch.entrySet()) {
+                Set<String> keys = en.getValue();
+                StringBuilder sb = new StringBuilder(prefix);
+                if (keys.size() == 1) {
+                    sb.append(keys.iterator().next());
+                } else {
+                    for (String key : keys)
+                        sb.append(BATCH_MARK).append(key);
+                }
+                publish(jedis, en.getKey(), sb.toString());
+            }
+        }
+        catch (RuntimeException e) {
+            // redis不可用, 这些cache只能整体清除了
+            overflowed.addAll(batch.keySet());
+            overflowed.addAll(clears);
+            throw e;
+        }
+        finally {
+            Streams.safeClose(jedis);
+        }
+    }
+
+    protected void publish(Jedis jedis, String cacheName, String msg) {
+        String channel = LCacheManager.PREFIX + cacheName;
+        if (log.isDebugEnabled())
+            log.debugf("fire channel=%s msg=%s", channel, msg);
+        jedis.publish(channel, msg);
+        published.incrementAndGet();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * 调用fire的次数
+     */
+    public long getFired() {
+        return fired.get();
+    }
+
+    /**
+     * 实际PUBLISH的消息数
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * 队列中尚未发送的key数量
+     */
+    public int getPending() {
+        return pending.get();
+    }
+}
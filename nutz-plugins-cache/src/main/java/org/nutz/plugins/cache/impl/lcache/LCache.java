@@ -13,6 +13,7 @@ import org.nutz.log.Logs;
 
 import redis.clients.jedis.Jedis;
 
+@SuppressWarnings({"unchecked", "rawtypes"})
 public class LCache<K, V> implements Cache<K, V> {
     
     private static final Log log = Logs.get();
@@ -21,6 +22,11 @@ public class LCache<K, V> implements Cache<K, V> {
 
     protected String name;
 
+    /**
+     * L1被修改(收到失效通知或本地写入)时加一, 与之并发的L1回填会被丢弃. 由this保护
+     */
+    protected volatile long generation;
+
     public LCache(String name) {
         this.name = name;
     }
@@ -30,6 +36,8 @@ public class LCache<K, V> implements Cache<K, V> {
     }
 
     public V get(K key) {
+        if (LCacheManager.me().coherence && list.size() > 1)
+            return coherentGet(key);
         for (Cache<K, V> cache : list) {
             V v = cache.get(key);
             if (v != null)
@@ -40,15 +48,29 @@ public class LCache<K, V> implements Cache<K, V> {
 
     @Override
     public V put(K key, V value) {
-        for (Cache<K, V> cache : list)
-            cache.put(key, value);
+        if (LCacheManager.me().coherence && list.size() > 1) {
+            LCacheEntry en = new LCacheEntry(LCacheManager.me().nextVersion(), value);
+            en.touch(LCacheManager.me().epoch());
+            // 先写L2再写L1, 并发读取中从L2读到旧值的回填因此会被丢弃
+            for (int i = 1; i < list.size(); i++)
+                ((Cache) list.get(i)).put(key, en);
+            synchronized (this) {
+                generation++;
+                ((Cache) list.get(0)).put(key, en);
+            }
+        } else {
+            for (Cache<K, V> cache : list)
+                cache.put(key, value);
+        }
         fire(genKey(key));
         return null;
     }
 
     public V remove(K key) {
-        for (Cache<K, V> cache : list)
-            cache.remove(key);
+        for (int i = 1; i < list.size(); i++)
+            list.get(i).remove(key);
+        if (list.size() > 0)
+            removeLevel1(key);
         fire(genKey(key));
         return null;
     }
@@ -58,6 +80,8 @@ public class LCache<K, V> implements Cache<K, V> {
         for (Cache<K, V> cache : list) {
             cache.clear();
         }
+        if (LCacheManager.me().fireWindow > 0)
+            LCacheManager.me().bus().fireClear(name);
     }
 
     @Override
@@ -78,16 +102,82 @@ public class LCache<K, V> implements Cache<K, V> {
     public Collection<V> values() {
         Set<V> values = new HashSet<V>();
         for (Cache<K, V> cache : list) {
-            values.addAll(cache.values());
+            for (Object v : cache.values())
+                values.add((V) unwrap(v));
         }
         return values;
     }
 
+    /**
+     * 一致性模式下的读取. L1的数据不新鲜时按版本号与L2对账, 版本一致则继续使用L1的数据
+     * <p/>
+     * 读L2之前记下generation和epoch, 读取期间L1被失效过的话就不回填, 以免把旧值写回L1
+     */
+    protected V coherentGet(K key) {
+        LCacheManager manager = LCacheManager.me();
+        Cache level1 = list.get(0);
+        long gen = generation;
+        long epoch = manager.epoch();
+        Object obj = level1.get(key);
+        LCacheEntry local = obj instanceof LCacheEntry ? (LCacheEntry) obj : null;
+        if (local != null && manager.isFresh(local))
+            return (V) local.value;
+        for (int i = 1; i < list.size(); i++) {
+            Object re = list.get(i).get(key);
+            if (re == null)
+                continue;
+            if (!(re instanceof LCacheEntry)) // 开启一致性模式之前写入的数据
+                return (V) re;
+            LCacheEntry remote = (LCacheEntry) re;
+            if (local != null && local.version == remote.version) {
+                synchronized (this) {
+                    if (generation == gen)
+                        local.touch(epoch);
+                }
+                return (V) local.value;
+            }
+            synchronized (this) {
+                if (generation == gen)
+                    level1.put(key, remote.touch(epoch));
+            }
+            return (V) remote.value;
+        }
+        if (obj != null)
+            removeLevel1(key);
+        return null;
+    }
+
+    /**
+     * 只移除L1中的数据, 收到其他节点的失效通知时使用
+     */
+    public synchronized void removeLevel1(Object key) {
+        generation++;
+        ((Cache) list.get(0)).remove(key);
+    }
+
+    /**
+     * 只清除L1
+     */
+    public synchronized void clearLevel1() {
+        generation++;
+        ((Cache) list.get(0)).clear();
+    }
+
+    protected Object unwrap(Object obj) {
+        if (obj instanceof LCacheEntry)
+            return ((LCacheEntry) obj).value;
+        return obj;
+    }
+
     public String genKey(K k) {
         return k.toString();
     }
 
     public void fire(String key) {
+        if (LCacheManager.me().fireWindow > 0) {
+            LCacheManager.me().bus().fire(name, key);
+            return;
+        }
         Jedis jedis = null;
         try {
             jedis = LCacheManager.me.jedis();
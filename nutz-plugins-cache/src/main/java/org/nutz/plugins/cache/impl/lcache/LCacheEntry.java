@@ -0,0 +1,46 @@
+package org.nutz.plugins.cache.impl.lcache;
+
+import java.io.Serializable;
+
+/**
+ * 一致性模式下, L1和L2中存放的都是这个对象.
+ * <p/>
+ * version在写入时生成, 随对象一起存入L2; epoch和cachedAt只对L1有意义, 不参与序列化
+ *
+ * @author wendal
+ *
+ */
+public class LCacheEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected long version;
+
+    protected Object value;
+
+    protected transient long epoch;
+
+    protected transient long cachedAt;
+
+    public LCacheEntry(long version, Object value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    /**
+     * 标记为在当前epoch下已确认有效
+     */
+    public LCacheEntry touch(long epoch) {
+        this.epoch = epoch;
+        this.cachedAt = System.currentTimeMillis();
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+}
@@ -1,7 +1,9 @@
 package org.nutz.plugins.cache.impl.lcache;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheManager;
@@ -33,10 +35,44 @@ public class LCacheManager implements CacheManager, Runnable, Destroyable, Initi
 
     protected JedisAgent jedisAgent;
     protected CachePubSub pubSub = new CachePubSub();
-    protected Map<String, LCache> caches = new HashMap<String, LCache>();
+    protected Map<String, LCache> caches = new ConcurrentHashMap<String, LCache>();
     protected boolean running = true;
     protected Thread t;
 
+    /**
+     * 失效通知的合并窗口,单位毫秒. 大于0时put/remove不再同步PUBLISH, 而是由后台线程按窗口批量发送. 默认0
+     */
+    protected int fireWindow;
+
+    /**
+     * 批量模式下最多积压的key数量, 超出后改为通知整体清除
+     */
+    protected int maxPendingFire = 100000;
+
+    protected volatile InvalidationBus bus;
+
+    /**
+     * 一致性模式. 开启后L1/L2中存放带版本号的LCacheEntry, 订阅断开期间L1的数据都要回L2校验,
+     * 重新订阅成功后epoch加一, 之前的L1数据在下次读取时按版本号与L2对账
+     */
+    protected boolean coherence;
+
+    /**
+     * 一致性模式下, L1数据最长信任多久(毫秒), 超过就回L2校验. 0代表只依赖失效通知
+     */
+    protected long maxStaleness;
+
+    /**
+     * 重新订阅成功后直接清空所有L1, 不需要开启一致性模式
+     */
+    protected boolean flushOnReconnect;
+
+    protected volatile boolean subscribed;
+
+    protected AtomicLong epoch = new AtomicLong();
+
+    protected AtomicLong version = new AtomicLong(((long) id.hashCode()) << 32);
+
     protected static LCacheManager me;
 
     public static LCacheManager me() {
@@ -75,8 +111,10 @@ public class LCacheManager implements CacheManager, Runnable, Destroyable, Initi
             try {
                 log.debug("psubscribe " + PREFIX + "*");
                 jedis().psubscribe(pubSub, PREFIX + "*");
+                subscribed = false;
             }
             catch (Exception e) {
+                subscribed = false;
                 if (!running)
                     break;
                 log.debug("psubscribe fail, retry after 3 seconds", e);
@@ -85,8 +123,54 @@ public class LCacheManager implements CacheManager, Runnable, Destroyable, Initi
         }
     }
 
+    /**
+     * 订阅成功(包括断线重连)时由CachePubSub回调
+     */
+    public void onSubscribed() {
+        long e = epoch.incrementAndGet();
+        subscribed = true;
+        log.debugf("psubscribe ok, epoch=%d", e);
+        if (flushOnReconnect) {
+            for (LCache cache : new ArrayList<LCache>(caches.values()))
+                if (cache.list.size() > 1)
+                    cache.clearLevel1();
+        }
+    }
+
+    /**
+     * L1中的数据能否直接使用
+     */
+    public boolean isFresh(LCacheEntry en) {
+        if (!subscribed || en.epoch != epoch.get())
+            return false;
+        return maxStaleness <= 0 || System.currentTimeMillis() - en.cachedAt < maxStaleness;
+    }
+
+    public long nextVersion() {
+        return version.incrementAndGet();
+    }
+
+    public long epoch() {
+        return epoch.get();
+    }
+
+    public InvalidationBus bus() {
+        if (bus == null) {
+            synchronized (this) {
+                if (bus == null) {
+                    InvalidationBus b = new InvalidationBus(this, fireWindow, maxPendingFire);
+                    b.start();
+                    bus = b;
+                }
+            }
+        }
+        return bus;
+    }
+
     public void destroy() throws Exception {
         running = false;
+        if (bus != null)
+            bus.stop();
         if (pubSub != null)
             pubSub.unsubscribe();
         try {
@@ -122,6 +206,26 @@ public class LCacheManager implements CacheManager, Runnable, Destroyable, Initi
         return combo;
     }
 
+    public void setFireWindow(int fireWindow) {
+        this.fireWindow = fireWindow;
+    }
+
+    public void setMaxPendingFire(int maxPendingFire) {
+        this.maxPendingFire = maxPendingFire;
+    }
+
+    public void setCoherence(boolean coherence) {
+        this.coherence = coherence;
+    }
+
+    public void setMaxStaleness(long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    public void setFlushOnReconnect(boolean flushOnReconnect) {
+        this.flushOnReconnect = flushOnReconnect;
+    }
+
     public void setLevel1(CacheManager level1) {
         this.level1 = level1;
     }
@@ -2,22 +2,56 @@ package org.nutz.plugins.cache.impl.redis;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.nutz.integration.jedis.JedisClusterWrapper;
 import org.nutz.lang.Streams;
+import org.nutz.lang.util.Callback;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 import org.nutz.plugins.cache.impl.lcache.LCacheManager;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
 
+/**
+ * 基于kv的缓存实现. keys/size/clear均使用SCAN遍历, 不会因KEYS命令阻塞redis;
+ * clear按批删除, redis 4.0以上使用UNLINK. 集群模式下在所有master节点上并发遍历, 并按slot分组UNLINK
+ */
 @SuppressWarnings("unchecked")
 public class RedisCache2<K, V> extends RedisCache<K, V> {
 
     private static final Log log = Logs.get();
 
+    protected static final String UNLINK_SCRIPT = "return redis.call('unlink', unpack(KEYS))";
+
     private String name;
 
+    /**
+     * SCAN每次的COUNT, 同时也是每批删除的key数量. 因UNLINK经lua执行, 不宜超过5000
+     */
+    protected int scanBatch = 1000;
+
+    /**
+     * 是否使用UNLINK, 服务器不支持时自动退回DEL
+     */
+    protected boolean unlink = true;
+
+    public RedisCache2<K, V> setScanBatch(int scanBatch) {
+        this.scanBatch = scanBatch;
+        return this;
+    }
+
+    public RedisCache2<K, V> setUnlink(boolean unlink) {
+        this.unlink = unlink;
+        return this;
+    }
+
     public RedisCache2<K, V> setName(String name) {
         this.name = name;
         return this;
@@ -71,27 +105,35 @@ public class RedisCache2<K, V> extends RedisCache<K, V> {
     public void clear() {
         if (debug)
             log.debugf("CLR name=%s", name);
-        for (K key : keys()) {
-            remove(key);
-        }
+        scan(new KeyVisitor() {
+            public void visit(Jedis jedis, boolean cluster, List<String> keys) {
+                delete(jedis, cluster, keys);
+            }
+        });
     }
 
     public int size() {
         if (debug)
             log.debugf("SIZ name=%s", name);
-        return keys().size();
+        final int[] size = new int[1];
+        scan(new KeyVisitor() {
+            public void visit(Jedis jedis, boolean cluster, List<String> keys) {
+                size[0] += keys.size();
+            }
+        });
+        return size[0];
     }
 
     public Set<K> keys() {
         if (debug)
             log.debugf("KEYS name=%s", name);
-        Jedis jedis = null;
-        try {
-            jedis = LCacheManager.me().jedis();
-            return (Set<K>) jedis.keys(name + ":*");
-        } finally {
-            Streams.safeClose(jedis);
-        }
+        final Set<String> keys = new HashSet<String>();
+        scan(new KeyVisitor() {
+            public void visit(Jedis jedis, boolean cluster, List<String> batch) {
+                keys.addAll(batch);
+            }
+        });
+        return (Set<K>) keys;
     }
 
     public Collection<V> values() {
@@ -104,4 +146,59 @@ public class RedisCache2<K, V> extends RedisCache<K, V> {
         return (name + ":" + key).getBytes();
     }
 
+    /**
+     * 遍历本缓存的所有key, 每批回调一次. 集群模式下由JedisClusterWrapper在所有master上并发SCAN
+     */
+    protected void scan(final KeyVisitor visitor) {
+        ScanParams params = new ScanParams().match(name + ":*").count(scanBatch);
+        Jedis jedis = null;
+        try {
+            jedis = LCacheManager.me().jedis();
+            if (jedis instanceof JedisClusterWrapper) {
+                final Jedis wrapper = jedis;
+                ((JedisClusterWrapper) jedis).scan(params, new Callback<List<String>>() {
+                    public void invoke(List<String> keys) {
+                        visitor.visit(wrapper, true, keys);
+                    }
+                });
+                return;
+            }
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> re = jedis.scan(cursor, params);
+                if (!re.getResult().isEmpty())
+                    visitor.visit(jedis, false, re.getResult());
+                cursor = re.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        } finally {
+            Streams.safeClose(jedis);
+        }
+    }
+
+    /**
+     * 单机模式一批key一条命令; 集群模式下由JedisClusterWrapper按slot分组, 每组一条UNLINK, 各master并行
+     */
+    protected void delete(Jedis jedis, boolean cluster, List<String> keys) {
+        if (unlink) {
+            try {
+                if (cluster)
+                    ((JedisClusterWrapper) jedis).unlink(keys.toArray(new String[keys.size()]));
+                else
+                    jedis.eval(UNLINK_SCRIPT, keys, Collections.<String> emptyList());
+                return;
+            }
+            catch (JedisDataException e) {
+                if (e instanceof JedisRedirectionException)
+                    throw e;
+                log.debug("UNLINK not supported, fallback to DEL", e);
+                unlink = false;
+            }
+        }
+        jedis.del(keys.toArray(new String[keys.size()]));
+    }
+
+    protected interface KeyVisitor {
+        void visit(Jedis jedis, boolean cluster, List<String> keys);
+    }
+
 }
@@ -18,16 +18,35 @@ public class RedisCacheManager implements CacheManager {
     
     protected CacheSerializer serializer = new DefaultJdkSerializer();
 
+    /**
+     * kv模式下SCAN的批大小
+     */
+    protected int scanBatch = 1000;
+
+    /**
+     * kv模式下clear是否使用UNLINK
+     */
+    protected boolean unlink = true;
+
     public <K, V> Cache<K, V> getCache(String name) {
         if (mode == null || !mode.equals("kv"))
             return (Cache<K, V>) new RedisCache<K, V>().setName(name).setDebug(debug).setSerializer(serializer);
-        return (Cache<K, V>) new RedisCache2<K, V>().setName(name).setDebug(debug).setSerializer(serializer);
+        RedisCache2<K, V> cache = new RedisCache2<K, V>().setName(name).setScanBatch(scanBatch).setUnlink(unlink);
+        return (Cache<K, V>) cache.setDebug(debug).setSerializer(serializer);
     }
     
     public void setMode(String mode) {
         this.mode = mode;
     }
 
+    public void setScanBatch(int scanBatch) {
+        this.scanBatch = scanBatch;
+    }
+
+    public void setUnlink(boolean unlink) {
+        this.unlink = unlink;
+    }
+
     public void init() {}
 
     public void depose() {}
@@ -0,0 +1,540 @@
+package org.nutz.plugins.cache.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nutz.lang.Lang;
+import org.nutz.lang.Mirror;
+
+/**
+ * 紧凑的二进制编码, 按字段逐个写出POJO, 不使用jdk序列化.
+ * <p/>
+ * 同一个byte[]内, 类名及字段名只写一次, 后续的同类对象只写引用编号, 所以对查询结果(List&lt;Pojo&gt;)特别有效.
+ * 字段按名字匹配, 类增删字段后旧数据依然可以读取. 无法按字段编码的对象(没有无参构造方法等)退回jdk序列化.
+ * <p/>
+ * 本类是线程安全的
+ *
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class NutBinaryCodec {
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected static final int MAX_DEPTH = 64;
+
+    protected static final byte MAGIC = (byte) 0xB7;
+
+    protected static final byte T_NULL = 0;
+    protected static final byte T_TRUE = 1;
+    protected static final byte T_FALSE = 2;
+    protected static final byte T_INT = 3;
+    protected static final byte T_LONG = 4;
+    protected static final byte T_DOUBLE = 5;
+    protected static final byte T_FLOAT = 6;
+    protected static final byte T_SHORT = 7;
+    protected static final byte T_BYTE = 8;
+    protected static final byte T_CHAR = 9;
+    protected static final byte T_STRING = 10;
+    protected static final byte T_BYTES = 11;
+    protected static final byte T_BIG_DECIMAL = 12;
+    protected static final byte T_BIG_INTEGER = 13;
+    protected static final byte T_DATE = 14;
+    protected static final byte T_TIMESTAMP = 15;
+    protected static final byte T_SQL_DATE = 16;
+    protected static final byte T_SQL_TIME = 17;
+    protected static final byte T_ENUM = 18;
+    protected static final byte T_LIST = 19;
+    protected static final byte T_SET = 20;
+    protected static final byte T_MAP = 21;
+    protected static final byte T_ARRAY = 22;
+    protected static final byte T_POJO = 23;
+    protected static final byte T_JAVA = 24;
+
+    protected static final ConcurrentHashMap<Class<?>, ClassMeta> metas = new ConcurrentHashMap<Class<?>, ClassMeta>();
+
+    /**
+     * 对象转byte[], 无法编码时抛出异常
+     */
+    public byte[] encode(Object obj) throws Exception {
+        Output out = new Output();
+        out.write(MAGIC);
+        try {
+            writeValue(out, obj, 0);
+        }
+        catch (TooDeepException e) {
+            // 多半是循环引用, 整个对象交给jdk序列化
+            out = new Output();
+            out.write(MAGIC);
+            writeJava(out, obj);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * byte[]转对象
+     */
+    public Object decode(byte[] data) throws Exception {
+        Input in = new Input(data);
+        if (in.read() != MAGIC)
+            throw new IllegalArgumentException("not a NutBinaryCodec stream");
+        return readValue(in);
+    }
+
+    // ------------------------------------------------------------------
+    // 写
+
+    protected void writeValue(Output out, Object obj, int depth) throws Exception {
+        if (depth > MAX_DEPTH)
+            throw new TooDeepException();
+        if (obj == null) {
+            out.write(T_NULL);
+            return;
+        }
+        Class<?> klass = obj.getClass();
+        if (klass == String.class) {
+            out.write(T_STRING);
+            out.writeString((String) obj);
+        } else if (klass == Integer.class) {
+            out.write(T_INT);
+            out.writeVarLong(zigzag((Integer) obj));
+        } else if (klass == Long.class) {
+            out.write(T_LONG);
+            out.writeVarLong(zigzag((Long) obj));
+        } else if (klass == Boolean.class) {
+            out.write(((Boolean) obj) ? T_TRUE : T_FALSE);
+        } else if (klass == Double.class) {
+            out.write(T_DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) obj));
+        } else if (klass == Float.class) {
+            out.write(T_FLOAT);
+            out.writeInt(Float.floatToIntBits((Float) obj));
+        } else if (klass == Short.class) {
+            out.write(T_SHORT);
+            out.writeVarLong(zigzag((Short) obj));
+        } else if (klass == Byte.class) {
+            out.write(T_BYTE);
+            out.write((Byte) obj);
+        } else if (klass == Character.class) {
+            out.write(T_CHAR);
+            out.writeVarLong((Character) obj);
+        } else if (klass == byte[].class) {
+            byte[] bytes = (byte[]) obj;
+            out.write(T_BYTES);
+            out.writeVarLong(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (klass == BigDecimal.class) {
+            out.write(T_BIG_DECIMAL);
+            out.writeString(obj.toString());
+        } else if (klass == BigInteger.class) {
+            byte[] bytes = ((BigInteger) obj).toByteArray();
+            out.write(T_BIG_INTEGER);
+            out.writeVarLong(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (klass == Date.class) {
+            out.write(T_DATE);
+            out.writeVarLong(zigzag(((Date) obj).getTime()));
+        } else if (klass == java.sql.Timestamp.class) {
+            java.sql.Timestamp ts = (java.sql.Timestamp) obj;
+            out.write(T_TIMESTAMP);
+            out.writeVarLong(zigzag(ts.getTime()));
+            out.writeVarLong(ts.getNanos());
+        } else if (klass == java.sql.Date.class) {
+            out.write(T_SQL_DATE);
+            out.writeVarLong(zigzag(((Date) obj).getTime()));
+        } else if (klass == java.sql.Time.class) {
+            out.write(T_SQL_TIME);
+            out.writeVarLong(zigzag(((Date) obj).getTime()));
+        } else if (obj instanceof Enum) {
+            out.write(T_ENUM);
+            writeClass(out, ((Enum<?>) obj).getDeclaringClass());
+            out.writeString(((Enum<?>) obj).name());
+        } else if (obj instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) obj;
+            out.write(T_MAP);
+            writeClass(out, containerClass(klass, LinkedHashMap.class));
+            out.writeVarLong(map.size());
+            for (Entry<?, ?> en : map.entrySet()) {
+                writeValue(out, en.getKey(), depth + 1);
+                writeValue(out, en.getValue(), depth + 1);
+            }
+        } else if (obj instanceof Collection) {
+            Collection<?> coll = (Collection<?>) obj;
+            boolean isSet = obj instanceof Set;
+            out.write(isSet ? T_SET : T_LIST);
+            writeClass(out, containerClass(klass, isSet ? LinkedHashSet.class : ArrayList.class));
+            out.writeVarLong(coll.size());
+            for (Object ele : coll)
+                writeValue(out, ele, depth + 1);
+        } else if (klass.isArray() && !klass.getComponentType().isPrimitive()) {
+            int len = Array.getLength(obj);
+            out.write(T_ARRAY);
+            writeClass(out, klass.getComponentType());
+            out.writeVarLong(len);
+            for (int i = 0; i < len; i++)
+                writeValue(out, Array.get(obj, i), depth + 1);
+        } else {
+            ClassMeta meta = meta(klass);
+            if (meta.constructor == null) {
+                writeJava(out, obj);
+                return;
+            }
+            out.write(T_POJO);
+            writeClass(out, klass);
+            for (Field field : meta.fields)
+                writeValue(out, field.get(obj), depth + 1);
+        }
+    }
+
+    protected void writeJava(Output out, Object obj) throws Exception {
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bao);
+        oos.writeUnshared(obj);
+        oos.close();
+        byte[] bytes = bao.toByteArray();
+        out.write(T_JAVA);
+        out.writeVarLong(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 第一次出现的类写出 编号0+类名(+字段名), 之后只写编号
+     */
+    protected void writeClass(Output out, Class<?> klass) {
+        Integer index = out.classes.get(klass);
+        if (index != null) {
+            out.writeVarLong(index);
+            return;
+        }
+        out.classes.put(klass, out.classes.size() + 1);
+        out.writeVarLong(0);
+        out.writeString(klass.getName());
+        ClassMeta meta = meta(klass);
+        if (meta.constructor != null && !meta.container) {
+            out.writeVarLong(meta.fields.length);
+            for (Field field : meta.fields)
+                out.writeString(field.getName());
+        }
+    }
+
+    /**
+     * 没有无参构造方法的集合(例如Arrays.asList的返回值)还原为常规实现
+     */
+    protected Class<?> containerClass(Class<?> klass, Class<?> dft) {
+        ClassMeta meta = meta(klass);
+        return meta.constructor == null ? dft : klass;
+    }
+
+    // ------------------------------------------------------------------
+    // 读
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected Object readValue(Input in) throws Exception {
+        byte tag = in.read();
+        switch (tag) {
+        case T_NULL:
+            return null;
+        case T_TRUE:
+            return Boolean.TRUE;
+        case T_FALSE:
+            return Boolean.FALSE;
+        case T_INT:
+            return (int) unzigzag(in.readVarLong());
+        case T_LONG:
+            return unzigzag(in.readVarLong());
+        case T_DOUBLE:
+            return Double.longBitsToDouble(in.readLong());
+        case T_FLOAT:
+            return Float.intBitsToFloat(in.readInt());
+        case T_SHORT:
+            return (short) unzigzag(in.readVarLong());
+        case T_BYTE:
+            return in.read();
+        case T_CHAR:
+            return (char) in.readVarLong();
+        case T_STRING:
+            return in.readString();
+        case T_BYTES:
+            return in.readBytes((int) in.readVarLong());
+        case T_BIG_DECIMAL:
+            return new BigDecimal(in.readString());
+        case T_BIG_INTEGER:
+            return new BigInteger(in.readBytes((int) in.readVarLong()));
+        case T_DATE:
+            return new Date(unzigzag(in.readVarLong()));
+        case T_TIMESTAMP: {
+            java.sql.Timestamp ts = new java.sql.Timestamp(unzigzag(in.readVarLong()));
+            ts.setNanos((int) in.readVarLong());
+            return ts;
+        }
+        case T_SQL_DATE:
+            return new java.sql.Date(unzigzag(in.readVarLong()));
+        case T_SQL_TIME:
+            return new java.sql.Time(unzigzag(in.readVarLong()));
+        case T_ENUM: {
+            Class klass = readClass(in).klass;
+            return Enum.valueOf(klass, in.readString());
+        }
+        case T_MAP: {
+            ClassMeta meta = readClass(in).meta;
+            int size = (int) in.readVarLong();
+            Map map = (Map) meta.born();
+            for (int i = 0; i < size; i++) {
+                Object key = readValue(in);
+                map.put(key, readValue(in));
+            }
+            return map;
+        }
+        case T_LIST:
+        case T_SET: {
+            ClassMeta meta = readClass(in).meta;
+            int size = (int) in.readVarLong();
+            Collection coll = (Collection) meta.born();
+            for (int i = 0; i < size; i++)
+                coll.add(readValue(in));
+            return coll;
+        }
+        case T_ARRAY: {
+            Class<?> klass = readClass(in).klass;
+            int len = (int) in.readVarLong();
+            Object arr = Array.newInstance(klass, len);
+            for (int i = 0; i < len; i++)
+                Array.set(arr, i, readValue(in));
+            return arr;
+        }
+        case T_POJO: {
+            ClassRef ref = readClass(in);
+            Object obj = ref.meta.born();
+            for (Field field : ref.fields) {
+                Object value = readValue(in);
+                if (field != null)
+                    field.set(obj, value);
+            }
+            return obj;
+        }
+        case T_JAVA: {
+            byte[] bytes = in.readBytes((int) in.readVarLong());
+            ObjectInputStream ins = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            Object tmp = ins.readUnshared();
+            ins.close();
+            return tmp;
+        }
+        default:
+            throw new IllegalArgumentException("bad tag=" + tag);
+        }
+    }
+
+    protected ClassRef readClass(Input in) throws Exception {
+        int index = (int) in.readVarLong();
+        if (index > 0)
+            return in.classes.get(index - 1);
+        Class<?> klass = Lang.loadClass(in.readString());
+        ClassRef ref = new ClassRef();
+        ref.klass = klass;
+        ref.meta = meta(klass);
+        if (ref.meta.constructor != null && !ref.meta.container) {
+            int count = (int) in.readVarLong();
+            ref.fields = new Field[count];
+            for (int i = 0; i < count; i++)
+                ref.fields[i] = ref.meta.field(in.readString()); // 本地已删除的字段为null,读出来丢弃
+        }
+        in.classes.add(ref);
+        return ref;
+    }
+
+    // ------------------------------------------------------------------
+    // 工具
+
+    protected static ClassMeta meta(Class<?> klass) {
+        ClassMeta meta = metas.get(klass);
+        if (meta == null) {
+            meta = new ClassMeta(klass);
+            ClassMeta prev = metas.putIfAbsent(klass, meta);
+            if (prev != null)
+                meta = prev;
+        }
+        return meta;
+    }
+
+    protected static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    protected static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * 类的字段信息, 取Mirror能看到的全部字段, 排除static及transient字段
+     */
+    protected static class ClassMeta {
+
+        protected Constructor<?> constructor;
+
+        protected Field[] fields;
+
+        protected Map<String, Field> fieldMap = new HashMap<String, Field>();
+
+        protected boolean container;
+
+        public ClassMeta(Class<?> klass) {
+            container = Map.class.isAssignableFrom(klass)
+                        || Collection.class.isAssignableFrom(klass);
+            // jdk自带的类除了集合以外都不按字段处理
+            boolean jdk = klass.getName().startsWith("java.") || klass.getName().startsWith("javax.");
+            try {
+                if (!Modifier.isAbstract(klass.getModifiers())
+                    && !klass.isInterface()
+                    && (container || !jdk)) {
+                    constructor = klass.getDeclaredConstructor();
+                    constructor.setAccessible(true);
+                }
+            }
+            catch (Exception e) {
+                constructor = null;
+            }
+            List<Field> list = new ArrayList<Field>();
+            if (constructor != null && !container && !klass.isArray()) {
+                for (Field field : Mirror.me(klass).getFields()) {
+                    int mod = field.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isTransient(mod))
+                        continue;
+                    field.setAccessible(true);
+                    list.add(field);
+                    fieldMap.put(field.getName(), field);
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+        }
+
+        public Object born() throws Exception {
+            return constructor.newInstance();
+        }
+
+        public Field field(String name) {
+            return fieldMap.get(name);
+        }
+    }
+
+    protected static class ClassRef {
+        protected Class<?> klass;
+        protected ClassMeta meta;
+        protected Field[] fields;
+    }
+
+    @SuppressWarnings("serial")
+    protected static class TooDeepException extends RuntimeException {}
+
+    protected static class Output extends ByteArrayOutputStream {
+
+        protected Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+        public Output() {
+            super(256);
+        }
+
+        public void write(byte b) {
+            super.write(b);
+        }
+
+        public void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                super.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            super.write((int) v);
+        }
+
+        public void writeInt(int v) {
+            super.write(v >>> 24);
+            super.write(v >>> 16);
+            super.write(v >>> 8);
+            super.write(v);
+        }
+
+        public void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        public void writeString(String str) {
+            byte[] bytes = str.getBytes(UTF8);
+            writeVarLong(bytes.length);
+            super.write(bytes, 0, bytes.length);
+        }
+    }
+
+    protected static class Input {
+
+        protected byte[] buf;
+
+        protected int pos;
+
+        protected List<ClassRef> classes = new ArrayList<ClassRef>();
+
+        public Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        public byte read() {
+            return buf[pos++];
+        }
+
+        public long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+                shift += 7;
+            }
+        }
+
+        public int readInt() {
+            return ((buf[pos++] & 0xFF) << 24)
+                   | ((buf[pos++] & 0xFF) << 16)
+                   | ((buf[pos++] & 0xFF) << 8)
+                   | (buf[pos++] & 0xFF);
+        }
+
+        public long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        public byte[] readBytes(int len) {
+            byte[] bytes = new byte[len];
+            System.arraycopy(buf, pos, bytes, 0, len);
+            pos += len;
+            return bytes;
+        }
+
+        public String readString() {
+            int len = (int) readVarLong();
+            String str = new String(buf, pos, len, UTF8);
+            pos += len;
+            return str;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.nutz.plugins.cache.serializer;
+
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+import org.nutz.plugins.cache.CacheSerializer;
+
+/**
+ * 基于NutBinaryCodec的序列化器, 比DefaultJdkSerializer更快,结果更小
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class NutBinarySerializer implements CacheSerializer {
+
+    private static final Log log = Logs.get();
+
+    protected NutBinaryCodec codec = new NutBinaryCodec();
+
+    public Object fromObject(Object obj) {
+        try {
+            return codec.encode(obj);
+        }
+        catch (Exception e) {
+            log.info("Object to bytes fail", e);
+            return null;
+        }
+    }
+
+    public Object toObject(Object obj) {
+        if (obj == null)
+            return null;
+        try {
+            return codec.decode((byte[]) obj);
+        }
+        catch (Exception e) {
+            log.info("bytes to Object fail", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.nutz.plugins.cache.impl.lcache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.MemoryConstrainedCacheManager;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * 失效通知的合并去重, 用记录PUBLISH的假Jedis代替redis
+ */
+public class InvalidationBusTest {
+
+    List<String[]> published = new ArrayList<String[]>();
+
+    boolean broken;
+
+    LCacheManager manager = new LCacheManager() {
+        public Jedis jedis() {
+            return new Jedis() {
+                public Long publish(String channel, String message) {
+                    if (broken)
+                        throw new JedisConnectionException("broken");
+                    published.add(new String[]{channel, message});
+                    return 1L;
+                }
+            };
+        }
+    };
+
+    @Test
+    public void test_coalesce() {
+        InvalidationBus bus = new InvalidationBus(manager, 50, 1000);
+        for (int i = 0; i < 100; i++) {
+            bus.fire("user", "1");
+            bus.fire("user", "2");
+            bus.fire("role", "admin");
+        }
+        assertEquals(300, bus.getPending());
+        bus.flush();
+        // 每个cache每个窗口只有一条消息, key去重
+        assertEquals(2, published.size());
+        assertEquals(LCacheManager.PREFIX + "user", published.get(0)[0]);
+        assertEquals(manager.id + ":\n1\n2", published.get(0)[1]);
+        assertEquals(LCacheManager.PREFIX + "role", published.get(1)[0]);
+        assertEquals(manager.id + ":admin", published.get(1)[1]);
+        assertEquals(300, bus.getFired());
+        assertEquals(2, bus.getPublished());
+        assertEquals(0, bus.getPending());
+
+        // 空窗口不发送
+        bus.flush();
+        assertEquals(2, published.size());
+    }
+
+    @Test
+    public void test_overflow() {
+        InvalidationBus bus = new InvalidationBus(manager, 50, 3);
+        for (int i = 0; i < 5; i++)
+            bus.fire("user", "" + i);
+        bus.fire("role", "admin");
+        bus.flush();
+        // user积压超限, 整体清除; role在超限后放入, 也只能整体清除
+        assertEquals(2, published.size());
+        assertEquals(manager.id + ":" + InvalidationBus.CLEAR_MARK, published.get(0)[1]);
+        assertEquals(manager.id + ":" + InvalidationBus.CLEAR_MARK, published.get(1)[1]);
+        assertEquals(0, bus.getPending());
+    }
+
+    @Test
+    public void test_fire_clear() {
+        InvalidationBus bus = new InvalidationBus(manager, 50, 1000);
+        bus.fire("user", "1");
+        bus.fireClear("user");
+        bus.fire("user", "2");
+        bus.flush();
+        assertEquals(1, published.size());
+        assertEquals(manager.id + ":" + InvalidationBus.CLEAR_MARK, published.get(0)[1]);
+    }
+
+    @Test
+    public void test_redis_down() {
+        InvalidationBus bus = new InvalidationBus(manager, 50, 1000);
+        bus.fire("user", "1");
+        broken = true;
+        try {
+            bus.flush();
+            fail();
+        }
+        catch (JedisConnectionException e) {}
+        broken = false;
+        // 发送失败的key已经丢失, 下个窗口改为整体清除
+        bus.flush();
+        assertEquals(1, published.size());
+        assertEquals(manager.id + ":" + InvalidationBus.CLEAR_MARK, published.get(0)[1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_receive() {
+        InvalidationBus bus = new InvalidationBus(manager, 50, 1000);
+        bus.fire("user", "1");
+        bus.fire("user", "2");
+        bus.fire("user", "1");
+        bus.flush();
+
+        // 另一个节点收到消息, 从L1中移除
+        LCacheManager other = new LCacheManager();
+        other.setLevel1(new MemoryConstrainedCacheManager());
+        other.setLevel2(new MemoryConstrainedCacheManager());
+        other.getCache("user");
+        Cache<String, String> level1 = (Cache<String, String>) other.caches.get("user").list.get(0);
+        level1.put("1", "a");
+        level1.put("2", "b");
+        level1.put("3", "c");
+        String[] msg = published.get(0);
+        other.pubSub.onPMessage(LCacheManager.PREFIX + "*", msg[0], msg[1]);
+        assertNull(level1.get("1"));
+        assertNull(level1.get("2"));
+        assertEquals("c", level1.get("3"));
+
+        // 自己发出的消息忽略
+        level1.put("1", "a");
+        other.pubSub.onPMessage(LCacheManager.PREFIX + "*", msg[0], other.id + ":1");
+        assertEquals("a", level1.get("1"));
+    }
+}
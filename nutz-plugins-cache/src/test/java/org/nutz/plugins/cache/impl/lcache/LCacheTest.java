@@ -0,0 +1,136 @@
+package org.nutz.plugins.cache.impl.lcache;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+import org.apache.shiro.cache.CacheManager;
+import org.apache.shiro.cache.MapCache;
+import org.apache.shiro.cache.MemoryConstrainedCacheManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * 一致性模式下L1回填与失效通知的竞争
+ */
+public class LCacheTest {
+
+    LCacheManager manager;
+
+    /**
+     * 读L2时执行, 模拟与读取并发的操作
+     */
+    Runnable onLevel2Get;
+
+    @SuppressWarnings("rawtypes")
+    @Before
+    public void before() {
+        manager = new LCacheManager() {
+            public Jedis jedis() {
+                return new Jedis() {
+                    public Long publish(String channel, String message) {
+                        return 1L;
+                    }
+                };
+            }
+        };
+        manager.setCoherence(true);
+        manager.setLevel1(new MemoryConstrainedCacheManager());
+        manager.setLevel2(new CacheManager() {
+            HashMap<String, Cache> caches = new HashMap<String, Cache>();
+            @SuppressWarnings("unchecked")
+            public synchronized <K, V> Cache<K, V> getCache(String name) throws CacheException {
+                Cache cache = caches.get(name);
+                if (cache == null) {
+                    cache = new MapCache<K, V>(name, new HashMap<K, V>()) {
+                        public V get(K key) throws CacheException {
+                            V v = super.get(key);
+                            Runnable r = onLevel2Get;
+                            if (r != null) {
+                                onLevel2Get = null;
+                                r.run();
+                            }
+                            return v;
+                        }
+                    };
+                    caches.put(name, cache);
+                }
+                return cache;
+            }
+        });
+        manager.onSubscribed();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_fill_and_reconcile() {
+        LCache<String, String> cache = (LCache<String, String>) manager.<String, String> getCache("user");
+        Cache<String, Object> level1 = (Cache<String, Object>) (Cache<?, ?>) cache.list.get(0);
+        Cache<String, Object> level2 = (Cache<String, Object>) (Cache<?, ?>) cache.list.get(1);
+        cache.put("1", "wendal");
+        assertEquals("wendal", cache.get("1"));
+
+        // 只在L2中, 读取后回填L1
+        level1.remove("1");
+        assertEquals("wendal", cache.get("1"));
+        assertNotNull(level1.get("1"));
+
+        // 重新订阅后, L1与L2对账, 版本不同则使用L2的数据
+        LCacheEntry en = new LCacheEntry(manager.nextVersion(), "zozoh");
+        level2.put("1", en);
+        assertEquals("wendal", cache.get("1"));
+        manager.onSubscribed();
+        assertEquals("zozoh", cache.get("1"));
+        assertSame(en, level1.get("1"));
+
+        // L2中已经没有了, L1也要移除
+        level2.remove("1");
+        manager.onSubscribed();
+        assertNull(cache.get("1"));
+        assertNull(level1.get("1"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_invalidation_during_fill() {
+        final LCache<String, String> cache = (LCache<String, String>) manager.<String, String> getCache("user");
+        Cache<String, Object> level1 = (Cache<String, Object>) (Cache<?, ?>) cache.list.get(0);
+        final Cache<String, Object> level2 = (Cache<String, Object>) (Cache<?, ?>) cache.list.get(1);
+        level2.put("1", new LCacheEntry(manager.nextVersion(), "old"));
+
+        // 读到旧值之后, 回填L1之前, 其他节点写入了新值并发出失效通知
+        onLevel2Get = new Runnable() {
+            public void run() {
+                level2.put("1", new LCacheEntry(manager.nextVersion(), "new"));
+                manager.pubSub.onPMessage(LCacheManager.PREFIX + "*", LCacheManager.PREFIX + "user", "other:1");
+            }
+        };
+        assertEquals("old", cache.get("1"));
+        // 旧值不能留在L1中
+        assertNull(level1.get("1"));
+        assertEquals("new", cache.get("1"));
+        assertEquals("new", ((LCacheEntry) level1.get("1")).getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_local_put_during_fill() {
+        final LCache<String, String> cache = (LCache<String, String>) manager.<String, String> getCache("user");
+        Cache<String, Object> level1 = (Cache<String, Object>) (Cache<?, ?>) cache.list.get(0);
+        Cache<String, Object> level2 = (Cache<String, Object>) (Cache<?, ?>) cache.list.get(1);
+        level2.put("1", new LCacheEntry(manager.nextVersion(), "old"));
+
+        onLevel2Get = new Runnable() {
+            public void run() {
+                cache.put("1", "new");
+            }
+        };
+        assertEquals("old", cache.get("1"));
+        assertEquals("new", ((LCacheEntry) level1.get("1")).getValue());
+        assertEquals("new", cache.get("1"));
+    }
+}
@@ -0,0 +1,127 @@
+package org.nutz.plugins.cache.impl.redis;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.integration.jedis.JedisClusterWrapper;
+import org.nutz.integration.jedis.LocalRedis;
+import org.nutz.plugins.cache.impl.lcache.LCacheManager;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * 基于SCAN的keys/size/clear, 单机与两节点集群各跑一遍. 需要PATH中有redis-server, 否则跳过
+ */
+public class RedisCache2Test {
+
+    static LocalRedis redis;
+
+    static JedisPool pool;
+
+    static LocalRedis[] nodes;
+
+    static JedisCluster cluster;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+        nodes = LocalRedis.startCluster(2);
+        cluster = new JedisCluster(new HostAndPort("127.0.0.1", nodes[0].port()));
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        if (pool != null)
+            pool.close();
+        if (redis != null)
+            redis.close();
+        if (cluster != null)
+            cluster.close();
+        if (nodes != null)
+            for (LocalRedis node : nodes)
+                node.close();
+    }
+
+    boolean clusterMode;
+
+    @Before
+    public void before() {
+        // 不调用setJedisAgent, 以免启动订阅线程
+        new LCacheManager() {
+            public Jedis jedis() {
+                return clusterMode ? new JedisClusterWrapper(cluster) : pool.getResource();
+            }
+        };
+    }
+
+    @After
+    public void after() {
+        for (boolean mode : new boolean[]{false, true}) {
+            clusterMode = mode;
+            cache("c1").clear();
+            cache("c2").clear();
+        }
+    }
+
+    @Test
+    public void test_standalone() {
+        check();
+    }
+
+    @Test
+    public void test_cluster() {
+        clusterMode = true;
+        check();
+    }
+
+    @Test
+    public void test_cluster_del() {
+        clusterMode = true;
+        RedisCache2<String, String> c1 = cache("c1").setUnlink(false);
+        for (int i = 0; i < 500; i++)
+            c1.put("k" + i, "v" + i);
+        c1.clear();
+        assertEquals(0, c1.size());
+    }
+
+    protected void check() {
+        RedisCache2<String, String> c1 = cache("c1");
+        RedisCache2<String, String> c2 = cache("c2");
+        for (int i = 0; i < 2500; i++)
+            c1.put("k" + i, "v" + i);
+        c2.put("k0", "other");
+        assertEquals("v7", c1.get("k7"));
+        // scanBatch比key数量小得多, 需要多次SCAN
+        assertEquals(2500, c1.size());
+        Set<String> keys = c1.keys();
+        assertEquals(2500, keys.size());
+        assertTrue(keys.contains("c1:k0"));
+        assertTrue(keys.contains("c1:k2499"));
+        assertFalse(keys.contains("c2:k0"));
+
+        c1.clear();
+        // 没有退回DEL
+        assertTrue(c1.unlink);
+        assertEquals(0, c1.size());
+        assertNull(c1.get("k7"));
+        assertEquals("other", c2.get("k0"));
+        assertEquals(1, c2.size());
+    }
+
+    protected RedisCache2<String, String> cache(String name) {
+        return new RedisCache2<String, String>().setName(name).setScanBatch(100);
+    }
+}
@@ -22,6 +22,7 @@ import org.nutz.lang.Lang;
 import org.nutz.lang.LoopException;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
+import org.nutz.plugins.cache.dao.CacheScope;
 
 /**
  * 向前兼容1.b.52及之前版本的NutDao使用daocache
@@ -56,6 +57,17 @@ public class NutDaoExt extends NutDao {
     public <T> T fetchLinks(final T obj, final String regex, final Condition cnd) {
         if (null == obj)
             return null;
+        CacheScope.begin(); // 同一批关联查询共用缓存连接
+        try {
+            _fetchLinks(obj, regex, cnd);
+        }
+        finally {
+            CacheScope.end();
+        }
+        return obj;
+    }
+
+    protected void _fetchLinks(final Object obj, final String regex, final Condition cnd) {
         Lang.each(obj, false, new Each<Object>() {
             public void invoke(int index, Object ele, int length)
                     throws ExitLoop, ContinueLoop, LoopException {
@@ -68,7 +80,6 @@ public class NutDaoExt extends NutDao {
                 opt.exec();
             }
         });
-        return obj;
     }
     
     
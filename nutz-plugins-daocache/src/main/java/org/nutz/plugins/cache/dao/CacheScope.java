@@ -0,0 +1,78 @@
+package org.nutz.plugins.cache.dao;
+
+import java.io.Closeable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.nutz.lang.Streams;
+
+/**
+ * 线程内的缓存作用域. 作用域内, 缓存提供者可以把借来的连接等资源绑定到当前线程重复使用,
+ * 最外层作用域结束时统一关闭. 例如NutDaoExt.fetchLinks会产生大量缓存查询, 它们可共用一个redis连接
+ * 
+ * <pre>
+ * CacheScope.begin();
+ * try {
+ *     ...
+ * } finally {
+ *     CacheScope.end();
+ * }
+ * </pre>
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class CacheScope {
+
+    protected static ThreadLocal<CacheScope> TL = new ThreadLocal<CacheScope>();
+
+    protected int depth;
+
+    protected Map<Object, Closeable> resources = new IdentityHashMap<Object, Closeable>();
+
+    public static void begin() {
+        CacheScope scope = TL.get();
+        if (scope == null) {
+            scope = new CacheScope();
+            TL.set(scope);
+        }
+        scope.depth++;
+    }
+
+    public static void end() {
+        CacheScope scope = TL.get();
+        if (scope == null)
+            return;
+        if (--scope.depth > 0)
+            return;
+        TL.remove();
+        for (Closeable res : scope.resources.values())
+            Streams.safeClose(res);
+    }
+
+    /**
+     * 当前线程是否在作用域内
+     */
+    public static boolean isActive() {
+        return TL.get() != null;
+    }
+
+    /**
+     * 获取owner绑定的资源, 不在作用域内或尚未绑定时返回null
+     */
+    public static Closeable get(Object owner) {
+        CacheScope scope = TL.get();
+        return scope == null ? null : scope.resources.get(owner);
+    }
+
+    /**
+     * 为owner绑定一个资源, 最外层作用域结束时关闭. 不在作用域内时返回false
+     */
+    public static boolean bind(Object owner, Closeable res) {
+        CacheScope scope = TL.get();
+        if (scope == null)
+            return false;
+        scope.resources.put(owner, res);
+        return true;
+    }
+}
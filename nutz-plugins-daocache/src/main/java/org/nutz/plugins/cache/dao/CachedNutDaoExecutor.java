@@ -1,30 +1,62 @@
 package org.nutz.plugins.cache.dao;
 
+import java.lang.reflect.Array;
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.nutz.dao.DB;
 import org.nutz.dao.DaoException;
 import org.nutz.dao.DatabaseMeta;
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.MappingField;
 import org.nutz.dao.impl.sql.run.NutDaoExecutor;
 import org.nutz.dao.pager.Pager;
 import org.nutz.dao.sql.DaoStatement;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
+import org.nutz.plugins.cache.dao.api.CacheKeyStrategy;
+import org.nutz.plugins.cache.dao.api.CacheSerializer;
 import org.nutz.plugins.cache.dao.api.DaoCacheProvider;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
 import org.nutz.plugins.cache.dao.impl.adapter.XDb2SqlAdapter2;
 import org.nutz.plugins.cache.dao.impl.adapter.XMySqlSqlAdapter;
 import org.nutz.plugins.cache.dao.impl.adapter.XOracleSqlAdapter;
 import org.nutz.plugins.cache.dao.impl.adapter.XPgSqlAdapter;
 import org.nutz.plugins.cache.dao.impl.adapter.XSqlServerSqlAdapter;
+import org.nutz.plugins.cache.dao.impl.convert.JavaCacheSerializer;
+import org.nutz.plugins.cache.dao.impl.provider.AbstractDaoCacheProvider;
 import org.nutz.trans.Trans;
 
+import com.alibaba.druid.sql.ast.SQLExpr;
 import com.alibaba.druid.sql.ast.SQLStatement;
+import com.alibaba.druid.sql.ast.expr.SQLBinaryOpExpr;
+import com.alibaba.druid.sql.ast.expr.SQLBinaryOperator;
+import com.alibaba.druid.sql.ast.expr.SQLCharExpr;
+import com.alibaba.druid.sql.ast.expr.SQLIdentifierExpr;
+import com.alibaba.druid.sql.ast.expr.SQLIntegerExpr;
+import com.alibaba.druid.sql.ast.expr.SQLPropertyExpr;
+import com.alibaba.druid.sql.ast.expr.SQLVariantRefExpr;
+import com.alibaba.druid.sql.ast.statement.SQLDeleteStatement;
+import com.alibaba.druid.sql.ast.statement.SQLInsertStatement;
+import com.alibaba.druid.sql.ast.statement.SQLSelectQuery;
+import com.alibaba.druid.sql.ast.statement.SQLSelectQueryBlock;
 import com.alibaba.druid.sql.ast.statement.SQLSelectStatement;
+import com.alibaba.druid.sql.ast.statement.SQLUpdateStatement;
 import com.alibaba.druid.sql.dialect.db2.parser.DB2StatementParser;
+import com.alibaba.druid.sql.dialect.mysql.ast.statement.MySqlInsertStatement;
 import com.alibaba.druid.sql.dialect.mysql.parser.MySqlStatementParser;
 import com.alibaba.druid.sql.dialect.oracle.parser.OracleStatementParser;
 import com.alibaba.druid.sql.dialect.postgresql.parser.PGSQLStatementParser;
@@ -89,6 +121,40 @@ public class CachedNutDaoExecutor extends NutDaoExecutor {
      */
     protected DB db = DB.MYSQL;
 
+    /**
+     * 行级失效模式, 默认关闭. 开启后, 按@Id/@Name/@PK等值查询单行的结果单独缓存,
+     * 对该表的写操作如果能从where条件中得出主键, 只清除对应行的缓存及该表的其他查询缓存
+     */
+    protected boolean rowLevelInvalidation;
+
+    /**
+     * 合并并发的缓存未命中, 同一个缓存key同时只有一个线程查询数据库, 其他线程等待并直接使用它的结果(或异常). 默认关闭
+     */
+    protected boolean singleFlight;
+
+    /**
+     * 等待其他线程查询的最长时间,单位毫秒,超时后自行查询数据库. 默认3000
+     */
+    protected long singleFlightTimeout = 3000;
+
+    protected ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    protected AtomicLong singleFlightCoalesced = new AtomicLong();
+
+    protected AtomicLong singleFlightTimeouts = new AtomicLong();
+
+    protected static final CacheSerializer JAVA_SERIALIZER = new JavaCacheSerializer();
+
+    /**
+     * 缓存key的生成策略, 默认为null, 即使用可读的 hash:pagerNum:pagerSize:sql:param1:param2:....
+     */
+    protected CacheKeyStrategy keyStrategy;
+
+    /**
+     * sql解析结果的缓存, 默认缓存2048条sql, 设置为0则每次都重新解析
+     */
+    protected SqlShapeCache sqlShapeCache = new SqlShapeCache(2048);
+
     private static final Log log = Logs.get();
 
     public void exec(Connection conn, DaoStatement st) {
@@ -101,6 +167,433 @@ public class CachedNutDaoExecutor extends NutDaoExecutor {
             _exec(conn, st);
             return;
         }
+        SqlShape shape = getSqlShape(prepSql);
+        if (!shape.isCacheable()) {
+            _exec(conn, st);
+            return;
+        }
+        List<String> tableNames = shape.getTableNames();
+        if (DEBUG)
+            log.debug("sql = " + prepSql + ", tables = " + tableNames);
+        if (shape.isSelect()) {
+            // 如果是select且不是batch(参数表只有一行,那么可能是缓存哦)
+            Object[][] params = st.getParamMatrix();
+            if (Trans.isTransactionNone() || enableWhenTrans) {
+                if (tableNames.size() == 1
+                    && isCache4Table(tableNames.get(0))
+                    && params.length <= 1) {
+                    String tableName = tableNames.get(0);
+                    String key = genKey(st, shape, prepSql, params);
+                    if (DEBUG)
+                        log.debugf("KEY=%s SQL=%s", key, prepSql);
+                    if (rowLevelInvalidation) {
+                        String rowKey = genRowKey(st, shape, tableName, params.length == 0 ? null : params[0]);
+                        if (rowKey != null) {
+                            execRowCached(conn, st, tableName, rowKey, key);
+                            return;
+                        }
+                    }
+                    String cacheName = genCacheName(tableName);
+                    if (applyCached(st, key, getCacheProvider().get(cacheName, key)))
+                        return;
+                    if (DEBUG)
+                        log.debug("cache miss = " + prepSql);
+                    Flight flight = null;
+                    if (singleFlight) {
+                        flight = takeOff(cacheName + ":" + key);
+                        if (flight != null && !flight.isPilot()) {
+                            if (applyFlight(st, flight))
+                                return;
+                            flight = null;
+                        }
+                        if (flight == null
+                            && applyCached(st, key, getCacheProvider().get(cacheName, key)))
+                            return;
+                    }
+                    try {
+                        _exec(conn, st);
+                        Object result = st.getContext().getResult();
+                        if (flight != null)
+                            flight.complete(result);
+                        if (result != null || cache4Null)
+                            getCacheProvider().put(cacheName, key, result);
+                    }
+                    catch (RuntimeException e) {
+                        if (flight != null)
+                            flight.error = e;
+                        throw e;
+                    }
+                    finally {
+                        land(flight);
+                    }
+                    return;
+                } else {
+                    if (DEBUG)
+                        log.debug("not good for cache >> " + prepSql);
+                }
+            }
+            _exec(conn, st); // Select的表可别清除了
+            return;
+        }
+        Object mark = st.getContext().attr(cacheClearMark);
+        if (mark != null && (Boolean) mark) {
+            _exec(conn, st);
+            return;
+        }
+        try {
+            _exec(conn, st);
+        }
+        finally {
+            try {
+                for (String tableName : tableNames) {
+                    if (DEBUG)
+                        log.debug("Clear Cache=" + tableName);
+                    getCacheProvider().clear(genCacheName(tableName));
+                }
+                if (rowLevelInvalidation)
+                    clearRowCache(st, shape);
+            }
+            catch (Throwable e) {
+                log.warn("clear cache fail: " + tableNames, e);
+            }
+        }
+    }
+
+    /**
+     * 按主键缓存的单行查询. 同一行的不同查询共用一个缓存项, 写操作时按主键清除
+     */
+    @SuppressWarnings("unchecked")
+    protected void execRowCached(Connection conn,
+                                 DaoStatement st,
+                                 String tableName,
+                                 String rowKey,
+                                 String key) {
+        String cacheName = genRowCacheName(tableName);
+        Object cached = getCacheProvider().get(cacheName, rowKey);
+        if (applyRowCached(st, key, cached))
+            return;
+        if (DEBUG)
+            log.debugf("row cache miss table=%s row=%s", tableName, rowKey);
+        Flight flight = null;
+        if (singleFlight) {
+            flight = takeOff(cacheName + ":" + rowKey + ":" + key);
+            if (flight != null && !flight.isPilot()) {
+                if (applyFlight(st, flight))
+                    return;
+                flight = null;
+            }
+            if (flight == null) {
+                cached = getCacheProvider().get(cacheName, rowKey);
+                if (applyRowCached(st, key, cached))
+                    return;
+            }
+        }
+        try {
+            _exec(conn, st);
+            Object result = st.getContext().getResult();
+            if (flight != null)
+                flight.complete(result);
+            // 空结果不缓存, 这样insert就无需清除行缓存了
+            if (isEmptyResult(result))
+                return;
+            Map<String, Object> tmp = cached instanceof Map ? new HashMap<String, Object>((Map<String, Object>) cached)
+                                                            : new HashMap<String, Object>();
+            tmp.put(key, result);
+            getCacheProvider().put(cacheName, rowKey, tmp);
+        }
+        catch (RuntimeException e) {
+            if (flight != null)
+                flight.error = e;
+            throw e;
+        }
+        finally {
+            land(flight);
+        }
+    }
+
+    protected boolean applyRowCached(DaoStatement st, String key, Object cached) {
+        if (!(cached instanceof Map))
+            return false;
+        Object cachedValue = ((Map<?, ?>) cached).get(key);
+        if (cachedValue == null)
+            return false;
+        if (DEBUG)
+            log.debug("row cache found key=" + key);
+        st.getContext().setResult(cachedValue);
+        return true;
+    }
+
+    /**
+     * 命中缓存时设置结果并返回true
+     */
+    protected boolean applyCached(DaoStatement st, String key, Object cachedValue) {
+        if (cachedValue == null || CacheResult.NOT_FOUNT.equals(cachedValue))
+            return false;
+        if (CacheResult.NULL.equals(cachedValue))
+            cachedValue = null;
+        if (DEBUG)
+            log.debug("cache found key=" + key);
+        st.getContext().setResult(cachedValue);
+        return true;
+    }
+
+    /**
+     * 同一个缓存key只允许一个线程查询数据库. 返回的Flight是当前线程创建的(isPilot), 代表由当前线程负责查询, 完成后必须调用land;
+     * 否则是等到的其他线程的Flight, 应通过applyFlight使用它的结果. 返回null代表等待超时或对方已降落, 调用方应重新查一次缓存,
+     * 仍然没有的话自行查询
+     */
+    protected Flight takeOff(String flightKey) {
+        Flight flight = new Flight(flightKey);
+        Flight prev = flights.putIfAbsent(flightKey, flight);
+        if (prev == null)
+            return flight;
+        if (!prev.board())
+            return null;
+        try {
+            if (prev.latch.await(singleFlightTimeout, TimeUnit.MILLISECONDS))
+                return prev;
+            singleFlightTimeouts.incrementAndGet();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * 使用其他线程的查询结果. 结果经过序列化再还原, 每个线程拿到的都是独立的副本, 与命中缓存时一样;
+     * 对方查询出错时抛出同一个异常. 结果无法序列化时返回false
+     */
+    protected boolean applyFlight(DaoStatement st, Flight flight) {
+        if (flight.data != null) {
+            Object cachedValue = flightSerializer().back(flight.data);
+            if (cachedValue == null)
+                return false;
+            if (CacheResult.NULL.equals(cachedValue))
+                cachedValue = null;
+            singleFlightCoalesced.incrementAndGet();
+            st.getContext().setResult(cachedValue);
+            return true;
+        }
+        if (flight.error != null && !flight.completed) {
+            singleFlightCoalesced.incrementAndGet();
+            throw flight.error;
+        }
+        return false;
+    }
+
+    protected void land(Flight flight) {
+        if (flight == null)
+            return;
+        flights.remove(flight.key, flight);
+        flight.land(flightSerializer());
+    }
+
+    protected CacheSerializer flightSerializer() {
+        DaoCacheProvider provider = getCacheProvider();
+        if (provider instanceof AbstractDaoCacheProvider && ((AbstractDaoCacheProvider) provider).getSerializer() != null)
+            return ((AbstractDaoCacheProvider) provider).getSerializer();
+        return JAVA_SERIALIZER;
+    }
+
+    protected static class Flight {
+        protected final String key;
+        protected final Thread pilot = Thread.currentThread();
+        protected final CountDownLatch latch = new CountDownLatch(1);
+        /**
+         * 以下三项只由pilot线程写入, land之后才被读取
+         */
+        protected Object result;
+        protected boolean completed;
+        protected RuntimeException error;
+        /**
+         * 序列化后的结果, 没有人等待时不序列化
+         */
+        protected volatile Object data;
+        protected int passengers;
+        protected boolean landed;
+
+        public Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 数据库查询已完成, 之后写缓存出错也不影响等待者使用结果
+         */
+        public void complete(Object result) {
+            this.result = result;
+            this.completed = true;
+        }
+
+        public boolean isPilot() {
+            return pilot == Thread.currentThread();
+        }
+
+        /**
+         * 登记等待者, 已经降落则返回false
+         */
+        public synchronized boolean board() {
+            if (landed)
+                return false;
+            passengers++;
+            return true;
+        }
+
+        public void land(CacheSerializer serializer) {
+            synchronized (this) {
+                landed = true;
+                if (passengers > 0 && completed) {
+                    try {
+                        data = serializer.from(result);
+                    }
+                    catch (RuntimeException e) {
+                        log.debug("result not serializable, passengers will query by themselves", e);
+                    }
+                }
+            }
+            latch.countDown();
+        }
+    }
+
+    /**
+     * 写操作后清除行缓存, 能从where条件中得到主键的话只清除对应的行
+     */
+    protected void clearRowCache(DaoStatement st, SqlShape shape) {
+        // 新插入的行不可能命中已有的行缓存(空结果不会被缓存)
+        if (shape.isInsert())
+            return;
+        List<String> tableNames = shape.getTableNames();
+        Set<String> rowKeys = null;
+        // 不支持移除单项的缓存提供者, 只能清除整个行缓存
+        if (tableNames.size() == 1 && getCacheProvider() instanceof RowCacheProvider) {
+            rowKeys = new LinkedHashSet<String>();
+            Object[][] params = st.getParamMatrix();
+            if (params == null || params.length == 0)
+                params = new Object[][]{null};
+            for (Object[] paramRow : params) {
+                String rowKey = genRowKey(st, shape, tableNames.get(0), paramRow);
+                if (rowKey == null) {
+                    rowKeys = null;
+                    break;
+                }
+                rowKeys.add(rowKey);
+            }
+        }
+        for (String tableName : tableNames) {
+            String cacheName = genRowCacheName(tableName);
+            if (rowKeys == null) {
+                if (DEBUG)
+                    log.debug("Clear Row Cache=" + tableName);
+                getCacheProvider().clear(cacheName);
+            } else {
+                for (String rowKey : rowKeys) {
+                    if (DEBUG)
+                        log.debugf("Remove Row Cache=%s row=%s", tableName, rowKey);
+                    ((RowCacheProvider) getCacheProvider()).remove(cacheName, rowKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * 根据where条件中的 "主键=值" 生成行缓存的key, 无法确定唯一一行时返回null
+     * <p/>
+     * 主键优先取@Id, 其次@Name, 最后是@PK. 查询带分页时也返回null
+     */
+    protected String genRowKey(DaoStatement st, SqlShape shape, String tableName, Object[] paramRow) {
+        List<SqlShape.Equality> eqs = shape.getEqualities();
+        if (eqs == null || eqs.isEmpty())
+            return null;
+        if (shape.isSelect() && st.getContext().getPager() != null)
+            return null;
+        List<String> columns = rowKeyColumns(st.getEntity(), tableName);
+        if (columns == null || columns.isEmpty())
+            return null;
+        String[] values = new String[columns.size()];
+        for (SqlShape.Equality eq : eqs) {
+            int index = indexOfIgnoreCase(columns, eq.getColumn());
+            if (index < 0)
+                continue;
+            Object value = eq.value(paramRow);
+            if (value == null)
+                return null;
+            String str = String.valueOf(value);
+            if (values[index] != null && !values[index].equals(str))
+                return null; // where id=1 and id=2 这种就别缓存了
+            values[index] = str;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (value == null)
+                return null;
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 表的主键列, 实体与sql操作的表不一致时返回null
+     */
+    protected List<String> rowKeyColumns(Entity<?> en, String tableName) {
+        if (en == null || en.getTableName() == null)
+            return null;
+        if (!unquote(en.getTableName()).equalsIgnoreCase(unquote(tableName)))
+            return null;
+        if (en.getIdField() != null)
+            return Arrays.asList(en.getIdField().getColumnName());
+        if (en.getNameField() != null)
+            return Arrays.asList(en.getNameField().getColumnName());
+        List<MappingField> pks = en.getCompositePKFields();
+        if (pks == null || pks.isEmpty())
+            return null;
+        List<String> columns = new ArrayList<String>(pks.size());
+        for (MappingField pk : pks)
+            columns.add(pk.getColumnName());
+        return columns;
+    }
+
+    /**
+     * 是否为空结果, 包括null,空集合,空数组及数值0
+     */
+    protected boolean isEmptyResult(Object obj) {
+        if (obj == null)
+            return true;
+        if (obj instanceof Collection)
+            return ((Collection<?>) obj).isEmpty();
+        if (obj.getClass().isArray())
+            return Array.getLength(obj) == 0;
+        if (obj instanceof Number)
+            return ((Number) obj).doubleValue() == 0;
+        return false;
+    }
+
+    /**
+     * 生成行缓存的Cache名, 默认是 表缓存名 + ":row"
+     */
+    protected String genRowCacheName(String tableName) {
+        return genCacheName(tableName) + ":row";
+    }
+
+    /**
+     * 获取sql的解析结果, 优先从sqlShapeCache中取
+     */
+    protected SqlShape getSqlShape(String prepSql) {
+        SqlShapeCache shapeCache = sqlShapeCache;
+        SqlShape shape = shapeCache == null ? null : shapeCache.get(db, prepSql);
+        if (shape == null) {
+            shape = parseSqlShape(prepSql);
+            if (shapeCache != null)
+                shapeCache.put(db, prepSql, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * 使用Druid解析sql, 得到语句类型及将会操作的表
+     */
+    protected SqlShape parseSqlShape(String prepSql) {
         SQLStatementParser parser = sqlParser(prepSql);
         List<SQLStatement> statementList = null;
         try {
@@ -108,19 +601,16 @@ public class CachedNutDaoExecutor extends NutDaoExecutor {
         }
         catch (Exception e) {
             log.debug("Exception when parser SQL sql, skip cache detect!! SQL=" + prepSql);
-            _exec(conn, st);
-            return;
+            return SqlShape.uncacheable();
         }
         if (statementList.size() != 1) {
             log.warn("more than one sql in one DaoStatement!! skip cache detect!! SQL=" + prepSql);
-            _exec(conn, st);
-            return;
+            return SqlShape.uncacheable();
         }
         SQLStatement sqlStatement = statementList.get(0);
         if (sqlStatement == null) {
             log.warn("can't parse SQL !! skip cache detect!! SQL=" + prepSql);
-            _exec(conn, st);
-            return;
+            return SqlShape.uncacheable();
         }
         // 检查需要执行的sql
         XSqlAdapter adapter;
@@ -142,64 +632,110 @@ public class CachedNutDaoExecutor extends NutDaoExecutor {
             break;
         }
         sqlStatement.accept(adapter); // 得到将会操作的表
-        List<String> tableNames = adapter.getTableNames();
-        if (DEBUG)
-            log.debug("sql = " + prepSql + ", tables = " + tableNames);
-        if (sqlStatement instanceof SQLSelectStatement) {
-            // 如果是select且不是batch(参数表只有一行,那么可能是缓存哦)
-            Object[][] params = st.getParamMatrix();
-            if (Trans.isTransactionNone() || enableWhenTrans) {
-                if (tableNames.size() == 1
-                    && isCache4Table(tableNames.get(0))
-                    && params.length <= 1) {
-                    String tableName = tableNames.get(0);
-                    String key = genKey(st, prepSql, params);
-                    if (DEBUG)
-                        log.debugf("KEY=%s SQL=%s", key, prepSql);
-                    Object cachedValue = getCacheProvider().get(genCacheName(tableName), key);
-                    if (cachedValue != null && !(CacheResult.NOT_FOUNT.equals(cachedValue))) {
-                        if (CacheResult.NULL.equals(cachedValue))
-                            cachedValue = null;
-                        if (DEBUG)
-                            log.debug("cache found key=" + key);
-                        st.getContext().setResult(cachedValue);
-                    } else {
-                        if (DEBUG)
-                            log.debug("cache miss = " + prepSql);
-                        _exec(conn, st);
-                        cachedValue = st.getContext().getResult();
-                        if (cachedValue != null || cache4Null)
-                            getCacheProvider().put(genCacheName(tableName), key, cachedValue);
-                    }
-                    return;
-                } else {
-                    if (DEBUG)
-                        log.debug("not good for cache >> " + prepSql);
-                }
-            }
-            tableNames.clear(); // Select的表可别清除了
-        } else {
-            Object mark = st.getContext().attr(cacheClearMark);
-            if (mark != null && (Boolean) mark)
-                tableNames.clear();
+        return new SqlShape(prepSql,
+                            sqlStatement instanceof SQLSelectStatement,
+                            isPlainInsert(sqlStatement),
+                            new ArrayList<String>(adapter.getTableNames()),
+                            true,
+                            whereEqualities(sqlStatement, adapter.getVariants()));
+    }
+
+    protected boolean isPlainInsert(SQLStatement stmt) {
+        if (!(stmt instanceof SQLInsertStatement))
+            return false;
+        if (stmt instanceof MySqlInsertStatement) {
+            List<SQLExpr> dku = ((MySqlInsertStatement) stmt).getDuplicateKeyUpdate();
+            return dku == null || dku.isEmpty();
         }
-        try {
-            _exec(conn, st);
+        return true;
+    }
+
+    /**
+     * 取出where中以AND连接的 "列=值" 条件, 没有where或不是简单查询时返回null
+     */
+    protected List<SqlShape.Equality> whereEqualities(SQLStatement stmt,
+                                                      List<SQLVariantRefExpr> variants) {
+        SQLExpr where = null;
+        if (stmt instanceof SQLSelectStatement) {
+            SQLSelectQuery query = ((SQLSelectStatement) stmt).getSelect().getQuery();
+            if (query instanceof SQLSelectQueryBlock
+                && ((SQLSelectQueryBlock) query).getGroupBy() == null)
+                where = ((SQLSelectQueryBlock) query).getWhere();
+        } else if (stmt instanceof SQLUpdateStatement) {
+            where = ((SQLUpdateStatement) stmt).getWhere();
+        } else if (stmt instanceof SQLDeleteStatement) {
+            where = ((SQLDeleteStatement) stmt).getWhere();
         }
-        finally {
-            try {
-                if (!tableNames.isEmpty()) {
-                    for (String tableName : tableNames) {
-                        if (DEBUG)
-                            log.debug("Clear Cache=" + tableName);
-                        getCacheProvider().clear(genCacheName(tableName));
-                    }
+        if (where == null)
+            return null;
+        List<SqlShape.Equality> eqs = new ArrayList<SqlShape.Equality>();
+        collectEqualities(where, variants, eqs);
+        return eqs;
+    }
+
+    /**
+     * AND的每个分支都只会缩小范围, 所以只需要沿着AND往下找等值条件, OR下面的条件一律忽略
+     */
+    protected void collectEqualities(SQLExpr expr,
+                                     List<SQLVariantRefExpr> variants,
+                                     List<SqlShape.Equality> eqs) {
+        if (!(expr instanceof SQLBinaryOpExpr))
+            return;
+        SQLBinaryOpExpr op = (SQLBinaryOpExpr) expr;
+        if (op.getOperator() == SQLBinaryOperator.BooleanAnd) {
+            collectEqualities(op.getLeft(), variants, eqs);
+            collectEqualities(op.getRight(), variants, eqs);
+            return;
+        }
+        if (op.getOperator() != SQLBinaryOperator.Equality)
+            return;
+        String column = null;
+        if (op.getLeft() instanceof SQLIdentifierExpr)
+            column = ((SQLIdentifierExpr) op.getLeft()).getName();
+        else if (op.getLeft() instanceof SQLPropertyExpr)
+            column = ((SQLPropertyExpr) op.getLeft()).getName();
+        if (column == null)
+            return;
+        column = unquote(column);
+        SQLExpr right = op.getRight();
+        if (right instanceof SQLVariantRefExpr) {
+            for (int i = 0; i < variants.size(); i++) {
+                if (variants.get(i) == right) {
+                    eqs.add(new SqlShape.Equality(column, i, null));
+                    break;
                 }
             }
-            catch (Throwable e) {
-                log.warn("clear cache fail: " + tableNames, e);
-            }
+        } else if (right instanceof SQLIntegerExpr) {
+            eqs.add(new SqlShape.Equality(column, -1, ((SQLIntegerExpr) right).getNumber()));
+        } else if (right instanceof SQLCharExpr) {
+            eqs.add(new SqlShape.Equality(column, -1, ((SQLCharExpr) right).getText()));
+        }
+    }
+
+    protected static String unquote(String name) {
+        if (name.length() > 1) {
+            char c = name.charAt(0);
+            if (c == '`' || c == '"' || c == '[')
+                return name.substring(1, name.length() - 1);
         }
+        return name;
+    }
+
+    protected static int indexOfIgnoreCase(List<String> list, String str) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).equalsIgnoreCase(str))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 若配置了keyStrategy则由它生成缓存key, 否则使用genKey(st, prepareSql, params)
+     */
+    protected String genKey(DaoStatement st, SqlShape shape, String prepareSql, Object[][] params) {
+        if (keyStrategy != null)
+            return keyStrategy.genKey(st, shape, params);
+        return genKey(st, prepareSql, params);
     }
 
     /**
@@ -313,6 +849,65 @@ public class CachedNutDaoExecutor extends NutDaoExecutor {
         this.db = meta.getType();
     }
     
+    public void setRowLevelInvalidation(boolean rowLevelInvalidation) {
+        this.rowLevelInvalidation = rowLevelInvalidation;
+    }
+
+    public void setKeyStrategy(CacheKeyStrategy keyStrategy) {
+        this.keyStrategy = keyStrategy;
+    }
+
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    public void setSingleFlightTimeout(long singleFlightTimeout) {
+        this.singleFlightTimeout = singleFlightTimeout;
+    }
+
+    /**
+     * 直接使用了其他线程的查询结果(或异常), 从而免于查询数据库的次数
+     */
+    public long getSingleFlightCoalesced() {
+        return singleFlightCoalesced.get();
+    }
+
+    /**
+     * 等待其他线程查询超时的次数
+     */
+    public long getSingleFlightTimeouts() {
+        return singleFlightTimeouts.get();
+    }
+
+    /**
+     * 当前正在查询数据库的缓存key数量
+     */
+    public int getSingleFlightInflight() {
+        return flights.size();
+    }
+
+    public void setSqlShapeCacheSize(int size) {
+        this.sqlShapeCache = size > 0 ? new SqlShapeCache(size) : null;
+    }
+
+    public SqlShapeCache getSqlShapeCache() {
+        return sqlShapeCache;
+    }
+
+    /**
+     * sql解析结果缓存的命中次数
+     */
+    public long getSqlShapeHits() {
+        return sqlShapeCache == null ? 0 : sqlShapeCache.getHitCount();
+    }
+
+    /**
+     * sql解析结果缓存的未命中次数
+     */
+    public long getSqlShapeMisses() {
+        return sqlShapeCache == null ? 0 : sqlShapeCache.getMissCount();
+    }
+
     protected void _exec(Connection conn, DaoStatement st) {
         super.exec(conn, st);
     }
@@ -0,0 +1,124 @@
+package org.nutz.plugins.cache.dao;
+
+/**
+ * 增量计算的128位哈希, 算法参考MurmurHash3_x64_128, 每次输入一个long, 不产生中间对象.
+ * <p/>
+ * 仅用于生成缓存key, 不适用于安全场景. 非线程安全
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class Hash128 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    protected long h1;
+    protected long h2;
+    protected long length;
+
+    public Hash128 update(long k) {
+        long k1 = k * C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        long k2 = (k ^ length) * C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+        length++;
+        return this;
+    }
+
+    /**
+     * 每4个char拼成一个long输入, 并带上长度, 避免"ab"+"c"与"a"+"bc"相同
+     */
+    public Hash128 update(CharSequence cs) {
+        int len = cs.length();
+        update(len);
+        int i = 0;
+        for (; i + 4 <= len; i += 4) {
+            update(((long) cs.charAt(i) << 48)
+                   | ((long) cs.charAt(i + 1) << 32)
+                   | ((long) cs.charAt(i + 2) << 16)
+                   | cs.charAt(i + 3));
+        }
+        long tail = 0;
+        for (; i < len; i++)
+            tail = (tail << 16) | cs.charAt(i);
+        return update(tail);
+    }
+
+    public Hash128 update(byte[] bytes) {
+        update(bytes.length);
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            long k = 0;
+            for (int j = 0; j < 8; j++)
+                k = (k << 8) | (bytes[i + j] & 0xFF);
+            update(k);
+        }
+        long tail = 0;
+        for (; i < bytes.length; i++)
+            tail = (tail << 8) | (bytes[i] & 0xFF);
+        return update(tail);
+    }
+
+    public long h1() {
+        long a = h1 ^ length;
+        long b = h2 ^ length;
+        a += b;
+        b += a;
+        a = fmix64(a);
+        b = fmix64(b);
+        a += b;
+        return a;
+    }
+
+    public long h2() {
+        long a = h1 ^ length;
+        long b = h2 ^ length;
+        a += b;
+        b += a;
+        a = fmix64(a);
+        b = fmix64(b);
+        a += b;
+        b += a;
+        return b;
+    }
+
+    /**
+     * 32位十六进制字符串
+     */
+    public String toHex() {
+        char[] buf = new char[32];
+        write(buf, 0, h1());
+        write(buf, 16, h2());
+        return new String(buf);
+    }
+
+    private static void write(char[] buf, int offset, long v) {
+        for (int i = 15; i >= 0; i--) {
+            buf[offset + i] = HEX[(int) (v & 0xF)];
+            v >>>= 4;
+        }
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
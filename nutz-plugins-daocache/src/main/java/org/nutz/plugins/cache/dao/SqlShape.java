@@ -0,0 +1,179 @@
+package org.nutz.plugins.cache.dao;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一条预编译sql的解析结果, 解析一次后可重复使用, 实例不可变
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class SqlShape {
+
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    /**
+     * 无法解析或包含多条语句的sql, 均不参与缓存
+     */
+    public static SqlShape uncacheable() {
+        return new SqlShape(false, Collections.<String> emptyList(), false);
+    }
+
+    protected final long id;
+
+    protected final boolean select;
+
+    protected final List<String> tableNames;
+
+    protected final boolean cacheable;
+
+    protected final boolean insert;
+
+    protected final List<Equality> equalities;
+
+    protected final String sql;
+
+    protected volatile long[] digest;
+
+    public SqlShape(boolean select, List<String> tableNames, boolean cacheable) {
+        this(null, select, false, tableNames, cacheable, null);
+    }
+
+    public SqlShape(String sql,
+                    boolean select,
+                    boolean insert,
+                    List<String> tableNames,
+                    boolean cacheable,
+                    List<Equality> equalities) {
+        this.id = SEQ.incrementAndGet();
+        this.sql = sql;
+        this.select = select;
+        this.insert = insert;
+        this.tableNames = Collections.unmodifiableList(tableNames);
+        this.cacheable = cacheable;
+        this.equalities = equalities == null ? null : Collections.unmodifiableList(equalities);
+    }
+
+    /**
+     * 预编译sql, 可能为null
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * sql的128位摘要, 与id不同, 在不同进程中也是一致的, 可作为sql的稳定标识
+     */
+    public long[] getDigest() {
+        long[] d = digest;
+        if (d == null && sql != null) {
+            Hash128 hash = new Hash128();
+            hash.update(sql);
+            d = new long[]{hash.h1(), hash.h2()};
+            digest = d;
+        }
+        return d;
+    }
+
+    /**
+     * 进程内唯一的编号
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 是否为select语句, 否则是写操作
+     */
+    public boolean isSelect() {
+        return select;
+    }
+
+    /**
+     * 将会操作的表, 只读
+     */
+    public List<String> getTableNames() {
+        return tableNames;
+    }
+
+    /**
+     * 是否成功解析为单条语句
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * 是否为普通的insert语句(不含 on duplicate key update 之类的写法)
+     */
+    public boolean isInsert() {
+        return insert;
+    }
+
+    /**
+     * where条件中以AND连接的 "列=值" 条件, OR之下的条件一律忽略(例如 where id=? or name=? 得到空列表).
+     * 不是select/update/delete, 没有where, 或是带group by的查询时返回null
+     */
+    public List<Equality> getEqualities() {
+        return equalities;
+    }
+
+    public String toString() {
+        return String.format("SqlShape(id=%s, select=%s, tables=%s, cacheable=%s, eqs=%s)",
+                             id,
+                             select,
+                             tableNames,
+                             cacheable,
+                             equalities);
+    }
+
+    /**
+     * where条件中的一个 "列=值", 值为占位符时记录其参数下标, 否则记录字面值
+     */
+    public static class Equality {
+
+        protected final String column;
+
+        protected final int paramIndex;
+
+        protected final Object literal;
+
+        public Equality(String column, int paramIndex, Object literal) {
+            this.column = column;
+            this.paramIndex = paramIndex;
+            this.literal = literal;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * 占位符的下标, 字面值时为-1
+         */
+        public int getParamIndex() {
+            return paramIndex;
+        }
+
+        public Object getLiteral() {
+            return literal;
+        }
+
+        /**
+         * 从参数行中取出实际的值, 参数不足时返回null
+         */
+        public Object value(Object[] paramRow) {
+            if (paramIndex < 0)
+                return literal;
+            if (paramRow == null || paramRow.length <= paramIndex)
+                return null;
+            return paramRow[paramIndex];
+        }
+
+        public String toString() {
+            return column + "=" + (paramIndex < 0 ? literal : "?" + paramIndex);
+        }
+    }
+}
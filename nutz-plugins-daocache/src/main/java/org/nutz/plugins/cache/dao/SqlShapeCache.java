@@ -0,0 +1,118 @@
+package org.nutz.plugins.cache.dao;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nutz.dao.DB;
+
+/**
+ * 以 预编译sql+数据库类型 为key的SqlShape缓存, 重复的sql无需再经过Druid解析
+ * <p/>
+ * 容量满时随机淘汰约1/8的条目, 避免拼接sql(例如in语句)撑爆内存
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class SqlShapeCache {
+
+    protected ConcurrentHashMap<Key, SqlShape> shapes = new ConcurrentHashMap<Key, SqlShape>();
+
+    /**
+     * 最多缓存的sql数量
+     */
+    protected int maxSize;
+
+    protected AtomicLong hits = new AtomicLong();
+
+    protected AtomicLong misses = new AtomicLong();
+
+    public SqlShapeCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 没有找到就返回null
+     */
+    public SqlShape get(DB db, String sql) {
+        SqlShape shape = shapes.get(new Key(db, sql));
+        if (shape == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return shape;
+    }
+
+    public void put(DB db, String sql, SqlShape shape) {
+        if (maxSize <= 0)
+            return;
+        if (shapes.size() >= maxSize)
+            evict();
+        shapes.put(new Key(db, sql), shape);
+    }
+
+    /**
+     * 遍历一次, 每个条目以 剩余待淘汰数/剩余条目数 的概率淘汰, 恰好随机淘汰count个
+     */
+    protected void evict() {
+        int count = Math.max(1, maxSize / 8);
+        int remaining = shapes.size();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Iterator<Key> it = shapes.keySet().iterator();
+        while (count > 0 && remaining > 0 && it.hasNext()) {
+            it.next();
+            if (random.nextInt(remaining--) < count) {
+                it.remove();
+                count--;
+            }
+        }
+    }
+
+    public void clear() {
+        shapes.clear();
+    }
+
+    public int size() {
+        return shapes.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    protected static final class Key {
+
+        protected final DB db;
+        protected final String sql;
+        protected final int hash;
+
+        public Key(DB db, String sql) {
+            this.db = db;
+            this.sql = sql;
+            this.hash = 31 * db.hashCode() + sql.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return db == other.db && sql.equals(other.sql);
+        }
+    }
+}
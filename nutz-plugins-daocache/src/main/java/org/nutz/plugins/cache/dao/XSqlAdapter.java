@@ -2,9 +2,15 @@ package org.nutz.plugins.cache.dao;
 
 import java.util.List;
 
+import com.alibaba.druid.sql.ast.expr.SQLVariantRefExpr;
 import com.alibaba.druid.sql.visitor.SQLASTVisitor;
 
 public interface XSqlAdapter extends SQLASTVisitor {
 
     List<String> getTableNames();
+
+    /**
+     * 按出现顺序排列的占位符, 其下标即参数的下标
+     */
+    List<SQLVariantRefExpr> getVariants();
 }
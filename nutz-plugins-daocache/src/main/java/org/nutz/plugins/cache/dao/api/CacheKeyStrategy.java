@@ -0,0 +1,20 @@
+package org.nutz.plugins.cache.dao.api;
+
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.plugins.cache.dao.SqlShape;
+
+/**
+ * 缓存key的生成策略, 实现类必须是线程安全的
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public interface CacheKeyStrategy {
+
+    /**
+     * 同一个表内唯一, 且在不同进程中保持一致(共享缓存时)
+     * @param st 当前语句, 可从中取得分页信息
+     * @param shape 已解析的sql
+     * @param params 参数表, 最多一行
+     */
+    String genKey(DaoStatement st, SqlShape shape, Object[][] params);
+}
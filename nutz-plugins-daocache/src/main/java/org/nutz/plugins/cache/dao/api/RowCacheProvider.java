@@ -0,0 +1,17 @@
+package org.nutz.plugins.cache.dao.api;
+
+/**
+ * 支持移除单个缓存项的缓存提供者, 行级失效模式下使用.
+ * <p/>
+ * 没有实现本接口的DaoCacheProvider, 行级失效时退化为清除整个行缓存
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public interface RowCacheProvider extends DaoCacheProvider {
+
+    /**
+     * 移除单个缓存项
+     */
+    void remove(String cacheName, String key);
+}
@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.nutz.plugins.cache.dao.XSqlAdapter;
 
+import com.alibaba.druid.sql.ast.expr.SQLVariantRefExpr;
 import com.alibaba.druid.sql.ast.statement.SQLExprTableSource;
 import com.alibaba.druid.sql.dialect.mysql.visitor.MySqlASTVisitorAdapter;
 
@@ -17,12 +18,23 @@ public class XMySqlSqlAdapter extends MySqlASTVisitorAdapter implements XSqlAdap
 
     protected List<String> tableNames = new ArrayList<String>();
 
+    protected List<SQLVariantRefExpr> variants = new ArrayList<SQLVariantRefExpr>();
+
     public boolean visit(SQLExprTableSource x) {
     	tableNames.add(x.toString());
         return super.visit(x);
     }
 
+    public boolean visit(SQLVariantRefExpr x) {
+        variants.add(x);
+        return super.visit(x);
+    }
+
     public List<String> getTableNames() {
         return tableNames;
     }
+
+    public List<SQLVariantRefExpr> getVariants() {
+        return variants;
+    }
 }
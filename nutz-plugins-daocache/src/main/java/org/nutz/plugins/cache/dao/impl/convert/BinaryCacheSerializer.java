@@ -0,0 +1,42 @@
+package org.nutz.plugins.cache.dao.impl.convert;
+
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+import org.nutz.plugins.cache.dao.CacheResult;
+import org.nutz.plugins.cache.serializer.NutBinaryCodec;
+
+/**
+ * 按字段逐个写出POJO的紧凑二进制序列化, 比JavaCacheSerializer更快,结果更小. 需要nutz-plugins-cache
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class BinaryCacheSerializer extends AbstractCacheSerializer {
+
+    private static final Log log = Logs.get();
+
+    protected NutBinaryCodec codec = new NutBinaryCodec();
+
+    public Object from(Object obj) {
+        if (obj == null)
+            return NULL_OBJ;
+        try {
+            return codec.encode(obj);
+        } catch (Exception e) {
+            log.info("Object to bytes fail", e);
+            return null;
+        }
+    }
+
+    public Object back(Object obj) {
+        if (obj == null)
+            return null;
+        if (isNULL_OBJ(obj))
+            return CacheResult.NULL;
+        try {
+            return codec.decode((byte[])obj);
+        } catch (Exception e) {
+            log.info("bytes to Object fail", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.nutz.plugins.cache.dao.impl.key;
+
+import java.util.Date;
+
+import org.nutz.dao.pager.Pager;
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.plugins.cache.dao.Hash128;
+import org.nutz.plugins.cache.dao.SqlShape;
+import org.nutz.plugins.cache.dao.api.CacheKeyStrategy;
+
+/**
+ * 把sql摘要,分页信息及带类型的参数值哈希成128位, 输出32个字符的key.
+ * <p/>
+ * sql的摘要随SqlShape缓存, 只计算一次; 常见类型的参数直接参与哈希, 不会生成中间字符串
+ * 
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class DigestCacheKeyStrategy implements CacheKeyStrategy {
+
+    public String genKey(DaoStatement st, SqlShape shape, Object[][] params) {
+        Hash128 hash = new Hash128();
+        long[] digest = shape.getDigest();
+        hash.update(digest[0]).update(digest[1]);
+        Pager pager = st.getContext().getPager();
+        if (pager != null)
+            hash.update(1).update(pager.getPageNumber()).update(pager.getPageSize());
+        else
+            hash.update(0);
+        if (params != null && params.length > 0) {
+            Object[] row = params[0];
+            hash.update(row.length);
+            for (Object param : row)
+                update(hash, param);
+        } else {
+            hash.update(-1);
+        }
+        return hash.toHex();
+    }
+
+    /**
+     * 先写类型标记再写值, 这样1(int)与"1"不会得到相同的key
+     */
+    protected void update(Hash128 hash, Object param) {
+        if (param == null) {
+            hash.update(0);
+        } else if (param instanceof Integer
+                   || param instanceof Long
+                   || param instanceof Short
+                   || param instanceof Byte) {
+            hash.update(1).update(((Number) param).longValue());
+        } else if (param instanceof CharSequence) {
+            hash.update(2).update((CharSequence) param);
+        } else if (param instanceof Double || param instanceof Float) {
+            hash.update(3).update(Double.doubleToLongBits(((Number) param).doubleValue()));
+        } else if (param instanceof Boolean) {
+            hash.update(4).update(((Boolean) param) ? 1 : 0);
+        } else if (param instanceof Date) {
+            hash.update(5).update(((Date) param).getTime());
+            if (param instanceof java.sql.Timestamp)
+                hash.update(((java.sql.Timestamp) param).getNanos());
+        } else if (param instanceof Enum) {
+            hash.update(6).update(((Enum<?>) param).name());
+        } else if (param instanceof Character) {
+            hash.update(7).update((Character) param);
+        } else if (param instanceof byte[]) {
+            hash.update(8).update((byte[]) param);
+        } else {
+            hash.update(9).update(String.valueOf(param));
+        }
+    }
+}
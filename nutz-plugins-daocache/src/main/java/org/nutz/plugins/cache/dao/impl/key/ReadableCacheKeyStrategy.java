@@ -0,0 +1,35 @@
+package org.nutz.plugins.cache.dao.impl.key;
+
+import org.nutz.dao.pager.Pager;
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.plugins.cache.dao.SqlShape;
+import org.nutz.plugins.cache.dao.api.CacheKeyStrategy;
+
+/**
+ * 可读的缓存key, 格式为 hash:pagerNum:pagerSize:sql:param1:param2:.... 方便debug, 但较长
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class ReadableCacheKeyStrategy implements CacheKeyStrategy {
+
+    public String genKey(DaoStatement st, SqlShape shape, Object[][] params) {
+        String prepareSql = shape.getSql();
+        StringBuilder sb = new StringBuilder();
+        long hash = prepareSql.hashCode();
+        Pager pager = st.getContext().getPager();
+        if (pager != null) {
+            sb.append(pager.getPageNumber()).append(':').append(pager.getPageSize()).append(':');
+        } else {
+            sb.append("_:_:");
+        }
+        sb.append(prepareSql);
+        if (params != null && params.length > 0 && params[0].length > 0) {
+            for (Object param : params[0]) {
+                String v = String.valueOf(param);
+                sb.append(":").append(v);
+                hash += v.hashCode();
+            }
+        }
+        return hash + ":" + sb.toString();
+    }
+}
@@ -0,0 +1,336 @@
+package org.nutz.plugins.cache.dao.impl.provider;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+import org.nutz.plugins.cache.dao.CacheResult;
+import org.nutz.plugins.cache.dao.CachedNutDaoExecutor;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
+
+/**
+ * 基于内存的缓存实现, 与MemoryDaoCacheProvider相比:
+ * <ul>
+ * <li>所有表共用一个分段LRU, 每段独立加锁, 高并发下不会互相阻塞</li>
+ * <li>按序列化后的字节数估算内存占用, 总量不超过maxBytes, 同时限制总条目数maxEntries</li>
+ * <li>可按表设置过期时间(秒)</li>
+ * <li>clear只是递增表的版本号, O(1)完成, 旧数据由LRU逐步淘汰</li>
+ * </ul>
+ *
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class ConcurrentMemoryDaoCacheProvider extends AbstractDaoCacheProvider implements RowCacheProvider {
+
+    private static final Log log = Logs.get();
+
+    /**
+     * 分段数,必须是2的幂,默认16
+     */
+    protected int segmentCount = 16;
+
+    /**
+     * 所有表加起来最多占用的字节数,默认64mb
+     */
+    protected long maxBytes = 64 * 1024 * 1024;
+
+    /**
+     * 所有表加起来最多缓存的对象数,默认10w
+     */
+    protected int maxEntries = 100000;
+
+    /**
+     * 默认过期时间,单位秒,0代表不过期
+     */
+    protected int defaultTtl;
+
+    /**
+     * 按表设置的过期时间,单位秒,key是cacheName
+     */
+    protected Map<String, Integer> ttls = new HashMap<String, Integer>();
+
+    protected ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+
+    protected Segment[] segments;
+
+    protected AtomicLong usedBytes = new AtomicLong();
+
+    public void init() throws Throwable {
+        super.init();
+        int count = 1;
+        while (count < segmentCount)
+            count <<= 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(Math.max(1, maxBytes / count), Math.max(1, maxEntries / count));
+    }
+
+    public Object get(String cacheName, String key) {
+        Table table = tables.get(cacheName);
+        if (table == null)
+            return CacheResult.NOT_FOUNT;
+        Key k = new Key(table, key);
+        Entry en = segmentFor(k).get(k);
+        if (en == null)
+            return CacheResult.NOT_FOUNT;
+        return getSerializer().back(en.data);
+    }
+
+    public boolean put(String cacheName, String key, Object obj) {
+        Object data = getSerializer().from(obj);
+        if (data == null) {
+            if (CachedNutDaoExecutor.DEBUG)
+                log.debug("Serializer.from >> NULL");
+            return false;
+        }
+        if (CachedNutDaoExecutor.DEBUG)
+            log.debugf("CacheName=%s, KEY=%s", cacheName, key);
+        Table table = table(cacheName);
+        Key k = new Key(table, key);
+        long expireAt = table.ttl > 0 ? System.currentTimeMillis() + table.ttl * 1000L : 0;
+        int weight = weigh(key, data);
+        segmentFor(k).put(k, new Entry(data, table.generation.get(), expireAt, weight));
+        return true;
+    }
+
+    public void remove(String cacheName, String key) {
+        Table table = tables.get(cacheName);
+        if (table == null)
+            return;
+        Key k = new Key(table, key);
+        segmentFor(k).remove(k);
+    }
+
+    public void clear(String cacheName) {
+        Table table = tables.get(cacheName);
+        if (table != null)
+            table.generation.incrementAndGet();
+    }
+
+    public void depose() throws Throwable {
+        if (segments != null)
+            for (Segment seg : segments)
+                seg.clear();
+        tables.clear();
+    }
+
+    /**
+     * 当前估算的内存占用
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment seg : segments)
+            size += seg.size();
+        return size;
+    }
+
+    protected Table table(String cacheName) {
+        Table table = tables.get(cacheName);
+        if (table == null) {
+            Integer ttl = ttls.get(cacheName);
+            table = new Table(ttl == null ? defaultTtl : ttl);
+            Table prev = tables.putIfAbsent(cacheName, table);
+            if (prev != null)
+                table = prev;
+        }
+        return table;
+    }
+
+    protected Segment segmentFor(Key key) {
+        int h = key.hash;
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * 估算一个缓存项占用的字节数
+     */
+    protected int weigh(String key, Object data) {
+        int size = 96 + key.length() * 2;
+        if (data instanceof byte[])
+            size += ((byte[]) data).length;
+        else
+            size += 256;
+        return size;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setDefaultTtl(int defaultTtl) {
+        this.defaultTtl = defaultTtl;
+    }
+
+    public void setTtls(Map<String, Integer> ttls) {
+        this.ttls = ttls;
+    }
+
+    protected static class Table {
+        protected final int ttl;
+        protected final AtomicLong generation = new AtomicLong();
+
+        public Table(int ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    protected static class Key {
+        protected final Table table;
+        protected final String key;
+        protected final int hash;
+
+        public Key(Table table, String key) {
+            this.table = table;
+            this.key = key;
+            this.hash = 31 * System.identityHashCode(table) + key.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return table == other.table && key.equals(other.key);
+        }
+    }
+
+    protected static class Entry {
+        protected final Object data;
+        protected final long generation;
+        protected final long expireAt;
+        protected final int weight;
+
+        public Entry(Object data, long generation, long expireAt, int weight) {
+            this.data = data;
+            this.generation = generation;
+            this.expireAt = expireAt;
+            this.weight = weight;
+        }
+
+        public boolean isStale(Table table) {
+            return generation != table.generation.get()
+                   || (expireAt > 0 && expireAt < System.currentTimeMillis());
+        }
+    }
+
+    protected class Segment {
+
+        protected final ReentrantLock lock = new ReentrantLock();
+
+        protected final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+
+        protected final long maxBytes;
+
+        protected final int maxEntries;
+
+        protected long bytes;
+
+        public Segment(long maxBytes, int maxEntries) {
+            this.maxBytes = maxBytes;
+            this.maxEntries = maxEntries;
+        }
+
+        public Entry get(Key key) {
+            lock.lock();
+            try {
+                Entry en = map.get(key);
+                if (en == null)
+                    return null;
+                if (en.isStale(key.table)) {
+                    map.remove(key);
+                    release(en);
+                    return null;
+                }
+                return en;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public void put(Key key, Entry en) {
+            lock.lock();
+            try {
+                Entry prev = map.put(key, en);
+                if (prev != null)
+                    release(prev);
+                bytes += en.weight;
+                usedBytes.addAndGet(en.weight);
+                Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+                while ((bytes > maxBytes || map.size() > maxEntries) && it.hasNext()) {
+                    Map.Entry<Key, Entry> eldest = it.next();
+                    if (eldest.getValue() == en)
+                        break; // 单个对象就超过了限额,那也至少留着它
+                    it.remove();
+                    release(eldest.getValue());
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public void remove(Key key) {
+            lock.lock();
+            try {
+                Entry en = map.remove(key);
+                if (en != null)
+                    release(en);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public void clear() {
+            lock.lock();
+            try {
+                map.clear();
+                usedBytes.addAndGet(-bytes);
+                bytes = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public int size() {
+            lock.lock();
+            try {
+                return map.size();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        protected void release(Entry en) {
+            bytes -= en.weight;
+            usedBytes.addAndGet(-en.weight);
+        }
+    }
+}
@@ -3,13 +3,14 @@ package org.nutz.plugins.cache.dao.impl.provider;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
 import org.nutz.plugins.cache.dao.api.DaoCacheProvider;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
 
 /**
  * 无任何缓存操作的实现,但会打印各种log, 供debug用的实现
  * @author wendal(wendal1985@gmail.com)
  *
  */
-public class DaoCacheProviderWrapper implements DaoCacheProvider {
+public class DaoCacheProviderWrapper implements RowCacheProvider {
 	
 	private static final Log log = Logs.get();
 	
@@ -45,6 +46,14 @@ public class DaoCacheProviderWrapper implements DaoCacheProvider {
 		return false;
 	}
 
+	public void remove(String cacheName, String key) {
+		log.debugf("cacheName=%s key=%s", cacheName, key);
+		if (proxy instanceof RowCacheProvider)
+		    ((RowCacheProvider) proxy).remove(cacheName, key);
+		else if (proxy != null)
+		    proxy.clear(cacheName);
+	}
+
 	public void clear(String cacheName) {
 		log.debugf("cacheName=%s", cacheName);
 		if (proxy != null)
@@ -1,6 +1,7 @@
 package org.nutz.plugins.cache.dao.impl.provider;
 
 import org.nutz.plugins.cache.dao.CacheResult;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -11,7 +12,7 @@ import net.sf.ehcache.Element;
  * @author wendal(wendal1985@gmail.com)
  *
  */
-public class EhcacheDaoCacheProvider extends AbstractDaoCacheProvider {
+public class EhcacheDaoCacheProvider extends AbstractDaoCacheProvider implements RowCacheProvider {
     
     private byte[] lock = new byte[0];
     
@@ -30,6 +31,12 @@ public class EhcacheDaoCacheProvider extends AbstractDaoCacheProvider {
         return true;
     }
 
+    public void remove(String cacheName, String key) {
+        Cache cache = getCache(cacheName, false);
+        if (cache != null)
+            cache.remove(key);
+    }
+
     public void clear(String cacheName) {
         Cache cache = getCache(cacheName, false);
         if (cache != null)
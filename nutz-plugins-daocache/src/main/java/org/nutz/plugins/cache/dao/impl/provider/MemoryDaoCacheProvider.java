@@ -6,6 +6,7 @@ import org.nutz.log.Log;
 import org.nutz.log.Logs;
 import org.nutz.plugins.cache.dao.CacheResult;
 import org.nutz.plugins.cache.dao.CachedNutDaoExecutor;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
 import org.nutz.repo.cache.simple.LRUCache;
 
 /**
@@ -14,7 +15,7 @@ import org.nutz.repo.cache.simple.LRUCache;
  * @author wendal(wendal1985@gmail.com)
  *
  */
-public class MemoryDaoCacheProvider extends AbstractDaoCacheProvider {
+public class MemoryDaoCacheProvider extends AbstractDaoCacheProvider implements RowCacheProvider {
 
     private static final Log log = Logs.get();
 
@@ -28,7 +29,10 @@ public class MemoryDaoCacheProvider extends AbstractDaoCacheProvider {
     public Object get(String cacheName, String key) {
         LRUCache<String, Object> cache = _getCache(cacheName, false);
         if (cache != null) {
-            return getSerializer().back(cache.get(key));
+            Object data = cache.get(key);
+            if (data == null)
+                return CacheResult.NOT_FOUNT;
+            return getSerializer().back(data);
         }
         return CacheResult.NOT_FOUNT;
     }
@@ -46,6 +50,12 @@ public class MemoryDaoCacheProvider extends AbstractDaoCacheProvider {
         return true;
     }
 
+    public void remove(String cacheName, String key) {
+        LRUCache<String, Object> cache = _getCache(cacheName, false);
+        if (cache != null)
+            cache.put(key, null); // LRUCache没有remove方法, 置空即可, get时视为未命中
+    }
+
     public void clear(String cacheName) {
         LRUCache<String, Object> cache = _getCache(cacheName, false);
         if (cache != null)
@@ -58,7 +68,9 @@ public class MemoryDaoCacheProvider extends AbstractDaoCacheProvider {
             if (!create)
                 return null;
             cache = new LRUCache<String, Object>(cacheSize);
-            caches.put(cacheName, cache);
+            LRUCache<String, Object> prev = caches.putIfAbsent(cacheName, cache);
+            if (prev != null)
+                cache = prev;
         }
         // log.debugf("Cache(%s) size=%s", cacheName, cache.getAll().size());
         return cache;
@@ -4,11 +4,12 @@ import org.nutz.log.Log;
 import org.nutz.log.Logs;
 import org.nutz.plugins.cache.dao.CacheResult;
 import org.nutz.plugins.cache.dao.CachedNutDaoExecutor;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
-public class RedisDaoCacheProvider extends AbstractDaoCacheProvider {
+public class RedisDaoCacheProvider extends AbstractDaoCacheProvider implements RowCacheProvider {
 
     private static final Log log = Logs.get();
     
@@ -40,6 +41,12 @@ public class RedisDaoCacheProvider extends AbstractDaoCacheProvider {
         return true;
     }
 
+    public void remove(String cacheName, String key) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hdel(cacheName.getBytes(), key.getBytes());
+        } finally{}
+    }
+
     public void clear(String cacheName) {
         try (Jedis jedis = jedisPool.getResource()) {
             jedis.del(cacheName.getBytes());
@@ -0,0 +1,153 @@
+package org.nutz.plugins.cache.dao.impl.provider;
+
+import java.io.Closeable;
+
+import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.lang.Streams;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+import org.nutz.plugins.cache.dao.CacheResult;
+import org.nutz.plugins.cache.dao.CacheScope;
+import org.nutz.plugins.cache.dao.CachedNutDaoExecutor;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * 基于版本号的Redis缓存实现, 与RedisDaoCacheProvider相比:
+ * <ul>
+ * <li>每个缓存项是独立的key, 带过期时间</li>
+ * <li>clear只是INCR表的版本号, O(1)完成, 旧版本的key等它自然过期, 所以ttl必须大于0</li>
+ * <li>先读版本号再读写缓存项, 都是普通命令, 集群模式下缓存项按key分散到各节点</li>
+ * <li>可注入JedisAgent, 从而支持集群模式; 在CacheScope内共用一个连接</li>
+ * </ul>
+ * key的格式是 prefix+cacheName:版本号:key, 版本号存放在 prefix+cacheName.
+ * put读到版本号后表被clear, 写入的只是旧版本的key, 不会被读到
+ *
+ * @author wendal(wendal1985@gmail.com)
+ *
+ */
+public class VersionedRedisDaoCacheProvider extends AbstractDaoCacheProvider implements RowCacheProvider {
+
+    private static final Log log = Logs.get();
+
+    protected JedisAgent jedisAgent;
+
+    protected JedisPool jedisPool;
+
+    /**
+     * key前缀, 默认是"daocache:"
+     */
+    protected String prefix = "daocache:";
+
+    /**
+     * 缓存过期时间,单位秒,默认1小时. 必须大于0, clear之后旧版本的key靠它回收
+     */
+    protected int ttl = 3600;
+
+    public Object get(String cacheName, String key) {
+        Jedis jedis = jedis();
+        try {
+            byte[] data = jedis.get(entryKey(jedis, cacheName, key));
+            if (data != null)
+                return getSerializer().back(data);
+            return CacheResult.NOT_FOUNT;
+        }
+        finally {
+            release(jedis);
+        }
+    }
+
+    public boolean put(String cacheName, String key, Object obj) {
+        Object data = getSerializer().from(obj);
+        if (data == null) {
+            if (CachedNutDaoExecutor.DEBUG)
+                log.debug("Serializer.from >> NULL");
+            return false;
+        }
+        if (CachedNutDaoExecutor.DEBUG)
+            log.debugf("CacheName=%s, KEY=%s", cacheName, key);
+        Jedis jedis = jedis();
+        try {
+            jedis.setex(entryKey(jedis, cacheName, key), ttl, (byte[]) data);
+        }
+        finally {
+            release(jedis);
+        }
+        return true;
+    }
+
+    public void remove(String cacheName, String key) {
+        Jedis jedis = jedis();
+        try {
+            jedis.del(entryKey(jedis, cacheName, key));
+        }
+        finally {
+            release(jedis);
+        }
+    }
+
+    public void clear(String cacheName) {
+        Jedis jedis = jedis();
+        try {
+            jedis.incr(versionKey(cacheName));
+        }
+        finally {
+            release(jedis);
+        }
+    }
+
+    /**
+     * 当前版本的缓存项key
+     */
+    protected byte[] entryKey(Jedis jedis, String cacheName, String key) {
+        String version = jedis.get(versionKey(cacheName));
+        return (versionKey(cacheName) + ":" + (version == null ? "0" : version) + ":" + key).getBytes();
+    }
+
+    protected String versionKey(String cacheName) {
+        return prefix + cacheName;
+    }
+
+    /**
+     * 在CacheScope内时, 复用绑定在当前线程的连接
+     */
+    protected Jedis jedis() {
+        Closeable bound = CacheScope.get(this);
+        if (bound != null)
+            return (Jedis) bound;
+        Jedis jedis = jedisAgent != null ? jedisAgent.jedis() : jedisPool.getResource();
+        CacheScope.bind(this, jedis);
+        return jedis;
+    }
+
+    protected void release(Jedis jedis) {
+        if (!CacheScope.isActive())
+            Streams.safeClose(jedis);
+    }
+
+    public void setJedisAgent(JedisAgent jedisAgent) {
+        this.jedisAgent = jedisAgent;
+    }
+
+    public void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    public void init() throws Throwable {
+        super.init();
+        if (jedisAgent == null && jedisPool == null)
+            throw new IllegalArgumentException("need jedisAgent or jedisPool");
+        if (ttl <= 0)
+            throw new IllegalArgumentException("ttl must > 0, old versions are only reclaimed by expiry");
+    }
+}
@@ -0,0 +1,154 @@
+package org.nutz.plugins.cache.dao;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.MappingField;
+import org.nutz.dao.pager.Pager;
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.dao.sql.SqlContext;
+import org.nutz.plugins.cache.dao.api.DaoCacheProvider;
+import org.nutz.plugins.cache.dao.api.RowCacheProvider;
+
+/**
+ * 行级失效的sql解析及主键推导, 只用到Druid, 不需要数据库
+ */
+public class RowLevelInvalidationTest {
+
+    CachedNutDaoExecutor executor = new CachedNutDaoExecutor();
+
+    @Test
+    public void test_where_equalities() {
+        assertEquals("[id=?0]", eqs("SELECT * FROM tb_user WHERE id=?"));
+        assertEquals("[id=?0]", eqs("SELECT * FROM tb_user WHERE `id`=?"));
+        assertEquals("[name=?0, id=1]", eqs("SELECT * FROM tb_user WHERE name=? AND id=1"));
+        assertEquals("[id=?1]", eqs("UPDATE tb_user SET email=? WHERE id=?"));
+        assertEquals("[id=?0]", eqs("DELETE FROM tb_user WHERE id=?"));
+        assertEquals("[name=wendal]", eqs("DELETE FROM tb_user WHERE name='wendal' AND id>?"));
+        // OR下面的条件忽略, AND分支上的仍然有效
+        assertEquals("[]", eqs("DELETE FROM tb_user WHERE id=? OR id=?"));
+        assertEquals("[id=?0]", eqs("SELECT * FROM tb_user WHERE id=? AND (name=? OR email=?)"));
+        // 没有where或者带group by
+        assertNull(eqs("SELECT * FROM tb_user"));
+        assertNull(eqs("SELECT name, count(*) FROM tb_user WHERE id=? GROUP BY name"));
+        assertNull(eqs("INSERT INTO tb_user(id,name) VALUES(?,?)"));
+    }
+
+    @Test
+    public void test_gen_row_key() {
+        DaoStatement st = statement("tb_user", null);
+        SqlShape update = executor.getSqlShape("UPDATE tb_user SET email=? WHERE id=?");
+        assertEquals("5", executor.genRowKey(st, update, "tb_user", new Object[]{"a@b.c", 5}));
+        // 参数不足
+        assertNull(executor.genRowKey(st, update, "tb_user", new Object[]{"a@b.c"}));
+        // 实体与表不一致
+        assertNull(executor.genRowKey(st, update, "tb_user_profile", new Object[]{"a@b.c", 5}));
+
+        SqlShape literal = executor.getSqlShape("DELETE FROM tb_user WHERE id=1 AND email=?");
+        assertEquals("1", executor.genRowKey(st, literal, "tb_user", new Object[]{"x"}));
+
+        SqlShape conflict = executor.getSqlShape("SELECT * FROM tb_user WHERE id=? AND id=?");
+        assertEquals("1", executor.genRowKey(st, conflict, "tb_user", new Object[]{1, 1}));
+        assertNull(executor.genRowKey(st, conflict, "tb_user", new Object[]{1, 2}));
+
+        assertNull(executor.genRowKey(st, executor.getSqlShape("DELETE FROM tb_user WHERE id=? OR id=?"), "tb_user", new Object[]{1, 2}));
+        assertNull(executor.genRowKey(st, executor.getSqlShape("DELETE FROM tb_user WHERE email=?"), "tb_user", new Object[]{"x"}));
+
+        // 分页查询不走行缓存
+        SqlShape select = executor.getSqlShape("SELECT * FROM tb_user WHERE id=?");
+        assertEquals("3", executor.genRowKey(st, select, "tb_user", new Object[]{3}));
+        assertNull(executor.genRowKey(statement("tb_user", new Pager(1, 10)), select, "tb_user", new Object[]{3}));
+    }
+
+    @Test
+    public void test_clear_row_cache() {
+        List<String> calls = new ArrayList<String>();
+        executor.setCacheProvider(provider(RowCacheProvider.class, calls));
+        String cacheName = executor.genRowCacheName("tb_user");
+
+        DaoStatement st = statement("tb_user", null, new Object[]{"a@b.c", 5}, new Object[]{"c@d.e", 6});
+        executor.clearRowCache(st, executor.getSqlShape("UPDATE tb_user SET email=? WHERE id=?"));
+        assertEquals("[remove " + cacheName + " 5, remove " + cacheName + " 6]", calls.toString());
+
+        // 推导不出主键时清除整个行缓存
+        calls.clear();
+        executor.clearRowCache(statement("tb_user", null, new Object[]{"x"}),
+                               executor.getSqlShape("UPDATE tb_user SET id=1 WHERE email=?"));
+        assertEquals("[clear " + cacheName + "]", calls.toString());
+
+        // insert不影响行缓存
+        calls.clear();
+        executor.clearRowCache(statement("tb_user", null, new Object[]{1, "wendal"}),
+                               executor.getSqlShape("INSERT INTO tb_user(id,name) VALUES(?,?)"));
+        assertTrue(calls.isEmpty());
+
+        // 不支持移除单项的缓存提供者
+        calls.clear();
+        executor.setCacheProvider(provider(DaoCacheProvider.class, calls));
+        executor.clearRowCache(st, executor.getSqlShape("UPDATE tb_user SET email=? WHERE id=?"));
+        assertEquals("[clear " + cacheName + "]", calls.toString());
+    }
+
+    protected String eqs(String sql) {
+        SqlShape shape = executor.getSqlShape(sql);
+        assertTrue(sql, shape.isCacheable());
+        return shape.getEqualities() == null ? null : shape.getEqualities().toString();
+    }
+
+    protected DaoStatement statement(String tableName, Pager pager, final Object[]... params) {
+        final Entity<?> en = entity(tableName);
+        final SqlContext ctx = new SqlContext();
+        ctx.setPager(pager);
+        return (DaoStatement) mock(DaoStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getEntity".equals(method.getName()))
+                    return en;
+                if ("getContext".equals(method.getName()))
+                    return ctx;
+                if ("getParamMatrix".equals(method.getName()))
+                    return params;
+                return null;
+            }
+        });
+    }
+
+    protected Entity<?> entity(final String tableName) {
+        final MappingField id = (MappingField) mock(MappingField.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getColumnName".equals(method.getName()) ? "id" : null;
+            }
+        });
+        return (Entity<?>) mock(Entity.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getTableName".equals(method.getName()))
+                    return tableName;
+                if ("getIdField".equals(method.getName()))
+                    return id;
+                return null;
+            }
+        });
+    }
+
+    protected DaoCacheProvider provider(Class<? extends DaoCacheProvider> klass, final List<String> calls) {
+        return (DaoCacheProvider) mock(klass, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("remove".equals(method.getName()))
+                    calls.add("remove " + args[0] + " " + args[1]);
+                else if ("clear".equals(method.getName()))
+                    calls.add("clear " + args[0]);
+                return null;
+            }
+        });
+    }
+
+    protected static Object mock(Class<?> klass, InvocationHandler handler) {
+        return Proxy.newProxyInstance(klass.getClassLoader(), new Class<?>[]{klass}, handler);
+    }
+}
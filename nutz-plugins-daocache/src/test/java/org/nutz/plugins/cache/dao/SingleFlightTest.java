@@ -0,0 +1,154 @@
+package org.nutz.plugins.cache.dao;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.dao.sql.SqlContext;
+import org.nutz.lang.Lang;
+import org.nutz.plugins.cache.dao.impl.provider.MemoryDaoCacheProvider;
+
+/**
+ * 并发未命中时的single-flight, 用假的DaoStatement代替数据库
+ */
+public class SingleFlightTest {
+
+    static final int THREADS = 16;
+
+    AtomicInteger queries = new AtomicInteger();
+
+    /**
+     * 模拟数据库查询耗时
+     */
+    volatile long queryMillis = 200;
+
+    volatile boolean queryFail;
+
+    CachedNutDaoExecutor executor;
+
+    @Before
+    public void before() throws Throwable {
+        executor = new CachedNutDaoExecutor() {
+            protected void _exec(Connection conn, DaoStatement st) {
+                queries.incrementAndGet();
+                Lang.quiteSleep(queryMillis);
+                if (queryFail)
+                    throw new DaoException("db down");
+                st.getContext().setResult(new ArrayList<String>(Arrays.asList("wendal")));
+            }
+
+            protected String genKey(DaoStatement st, SqlShape shape, String prepareSql, Object[][] params) {
+                return "user:1";
+            }
+        };
+        // 写入缓存总是失败, 等待者只能依赖领头线程交给它的结果
+        MemoryDaoCacheProvider provider = new MemoryDaoCacheProvider() {
+            public boolean put(String cacheName, String key, Object obj) {
+                return false;
+            }
+        };
+        provider.init();
+        executor.setCacheProvider(provider);
+        executor.setCachedTableNames(new HashSet<String>(Arrays.asList("tb_user")));
+        executor.setSingleFlight(true);
+    }
+
+    @Test
+    public void test_share_result() throws Exception {
+        List<Object> results = run();
+        assertEquals(1, queries.get());
+        assertEquals(THREADS - 1, executor.getSingleFlightCoalesced());
+        assertEquals(0, executor.getSingleFlightTimeouts());
+        assertEquals(0, executor.getSingleFlightInflight());
+        for (Object result : results)
+            assertEquals(Arrays.asList("wendal"), result);
+        // 每个线程拿到的是独立的副本
+        for (int i = 1; i < results.size(); i++)
+            assertNotSame(results.get(0), results.get(i));
+    }
+
+    @Test
+    public void test_share_error() throws Exception {
+        queryFail = true;
+        List<Object> results = run();
+        assertEquals(1, queries.get());
+        assertEquals(THREADS - 1, executor.getSingleFlightCoalesced());
+        for (Object result : results)
+            assertTrue(result instanceof DaoException);
+    }
+
+    @Test
+    public void test_timeout() throws Exception {
+        executor.setSingleFlightTimeout(50);
+        queryMillis = 500;
+        run();
+        // 超时后各自查询, 不算合并
+        assertEquals(THREADS, queries.get());
+        assertEquals(0, executor.getSingleFlightCoalesced());
+        assertEquals(THREADS - 1, executor.getSingleFlightTimeouts());
+    }
+
+    /**
+     * 多个线程同时执行同一个查询, 返回各自的结果或异常
+     */
+    protected List<Object> run() throws Exception {
+        final List<Object> results = new ArrayList<Object>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    DaoStatement st = statement();
+                    Object re;
+                    try {
+                        start.await();
+                        executor.exec(null, st);
+                        re = st.getContext().getResult();
+                    }
+                    catch (Exception e) {
+                        re = e;
+                    }
+                    synchronized (results) {
+                        results.add(re);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(THREADS, results.size());
+        return results;
+    }
+
+    protected DaoStatement statement() {
+        final SqlContext ctx = new SqlContext();
+        return (DaoStatement) Proxy.newProxyInstance(DaoStatement.class.getClassLoader(),
+                                                     new Class<?>[]{DaoStatement.class},
+                                                     new InvocationHandler() {
+                                                         public Object invoke(Object proxy, Method method, Object[] args) {
+                                                             if ("getContext".equals(method.getName()))
+                                                                 return ctx;
+                                                             if ("toPreparedStatement".equals(method.getName()))
+                                                                 return "SELECT * FROM tb_user WHERE id=?";
+                                                             if ("getParamMatrix".equals(method.getName()))
+                                                                 return new Object[][]{{1}};
+                                                             return null;
+                                                         }
+                                                     });
+    }
+}
@@ -0,0 +1,118 @@
+package org.nutz.plugins.cache.dao;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nutz.dao.DB;
+
+/**
+ * 不需要数据库的SqlShapeCache测试
+ */
+public class SqlShapeCacheTest {
+
+    @Test
+    public void test_hit_miss() {
+        SqlShapeCache cache = new SqlShapeCache(16);
+        String sql = "SELECT * FROM tb_user WHERE id=?";
+        assertNull(cache.get(DB.MYSQL, sql));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        SqlShape shape = shape(sql);
+        cache.put(DB.MYSQL, sql, shape);
+        assertSame(shape, cache.get(DB.MYSQL, sql));
+        assertSame(shape, cache.get(DB.MYSQL, new String(sql)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // 数据库类型也是key的一部分
+        assertNull(cache.get(DB.ORACLE, sql));
+        assertEquals(2, cache.getMissCount());
+
+        cache.resetCounters();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(DB.MYSQL, sql));
+    }
+
+    @Test
+    public void test_evict() {
+        SqlShapeCache cache = new SqlShapeCache(64);
+        for (int i = 0; i < 1000; i++) {
+            String sql = "SELECT * FROM tb_user WHERE id in (" + i + ")";
+            cache.put(DB.MYSQL, sql, shape(sql));
+            assertTrue(cache.size() <= 64);
+        }
+        // 最后放入的肯定还在
+        String last = "SELECT * FROM tb_user WHERE id in (999)";
+        assertNotNull(cache.get(DB.MYSQL, last));
+    }
+
+    /**
+     * 每次淘汰的条目应该是随机的, 而不是总按哈希顺序淘汰同一批
+     */
+    @Test
+    public void test_evict_random() {
+        Set<String> evicted = new HashSet<String>();
+        for (int round = 0; round < 50; round++) {
+            SqlShapeCache cache = new SqlShapeCache(64);
+            for (int i = 0; i < 64; i++) {
+                String sql = "SELECT * FROM tb_user WHERE id=" + i;
+                cache.put(DB.MYSQL, sql, shape(sql));
+            }
+            cache.evict();
+            assertEquals(56, cache.size());
+            for (int i = 0; i < 64; i++) {
+                String sql = "SELECT * FROM tb_user WHERE id=" + i;
+                if (cache.get(DB.MYSQL, sql) == null)
+                    evicted.add(sql);
+            }
+        }
+        assertTrue(evicted.size() > 32);
+    }
+
+    @Test
+    public void test_disabled() {
+        SqlShapeCache cache = new SqlShapeCache(0);
+        String sql = "SELECT * FROM tb_user";
+        cache.put(DB.MYSQL, sql, shape(sql));
+        assertEquals(0, cache.size());
+        assertNull(cache.get(DB.MYSQL, sql));
+    }
+
+    @Test
+    public void test_executor_parse_once() {
+        CachedNutDaoExecutor executor = new CachedNutDaoExecutor();
+        String sql = "SELECT * FROM tb_user WHERE id=?";
+        SqlShape shape = executor.getSqlShape(sql);
+        assertTrue(shape.isCacheable());
+        assertTrue(shape.isSelect());
+        assertEquals("tb_user", shape.getTableNames().get(0));
+        assertSame(shape, executor.getSqlShape(sql));
+        assertEquals(1, executor.getSqlShapeHits());
+        assertEquals(1, executor.getSqlShapeMisses());
+
+        // 无法解析的sql也会被缓存, 下次不再解析
+        SqlShape bad = executor.getSqlShape("SELECT FROM WHERE");
+        assertFalse(bad.isCacheable());
+        assertSame(bad, executor.getSqlShape("SELECT FROM WHERE"));
+        assertEquals(2, executor.getSqlShapeHits());
+
+        executor.setSqlShapeCacheSize(0);
+        assertNull(executor.getSqlShapeCache());
+        assertNotSame(executor.getSqlShape(sql), executor.getSqlShape(sql));
+        assertEquals(0, executor.getSqlShapeHits());
+    }
+
+    protected SqlShape shape(String sql) {
+        return new SqlShape(sql, true, false, new ArrayList<String>(), true, null);
+    }
+}
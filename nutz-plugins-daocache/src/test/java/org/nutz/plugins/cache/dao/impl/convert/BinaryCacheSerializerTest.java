@@ -0,0 +1,138 @@
+package org.nutz.plugins.cache.dao.impl.convert;
+
+import static org.junit.Assert.*;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nutz.dao.entity.Record;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+import org.nutz.plugins.cache.dao.CacheResult;
+import org.nutz.plugins.cache.dao.api.CacheSerializer;
+import org.nutz.plugins.cache.dao.meta.User;
+import org.nutz.plugins.cache.dao.meta.UserProfile;
+import org.nutz.plugins.cache.serializer.DefaultJdkSerializer;
+import org.nutz.plugins.cache.serializer.NutBinarySerializer;
+
+public class BinaryCacheSerializerTest {
+
+    private static final Log log = Logs.get();
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_pojo_list() {
+        List<User> users = users(500);
+        CacheSerializer serializer = new BinaryCacheSerializer();
+        byte[] data = (byte[]) serializer.from(users);
+        List<User> back = (List<User>) serializer.back(data);
+        assertEquals(users.size(), back.size());
+        for (int i = 0; i < users.size(); i++) {
+            User u = users.get(i);
+            User b = back.get(i);
+            assertEquals(u.getId(), b.getId());
+            assertEquals(u.getName(), b.getName());
+            assertEquals(u.getEmail(), b.getEmail());
+            assertEquals(u.getProfile().getUserId(), b.getProfile().getUserId());
+            assertEquals(u.getProfile().getLocation(), b.getProfile().getLocation());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_record_list() {
+        List<Record> records = records(500);
+        CacheSerializer serializer = new BinaryCacheSerializer();
+        List<Record> back = (List<Record>) serializer.back(serializer.from(records));
+        assertEquals(records.size(), back.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(records.get(i).getInt("id"), back.get(i).getInt("id"));
+            assertEquals(records.get(i).getString("nm"), back.get(i).getString("nm"));
+            assertEquals(records.get(i).get("ct"), back.get(i).get("ct"));
+        }
+    }
+
+    @Test
+    public void test_null() {
+        CacheSerializer serializer = new BinaryCacheSerializer();
+        assertEquals(CacheResult.NULL, serializer.back(serializer.from(null)));
+    }
+
+    /**
+     * 与jdk序列化比较体积和速度
+     */
+    @Test
+    public void test_compare_with_jdk() {
+        List<User> users = users(1000);
+        List<Record> records = records(1000);
+
+        CacheSerializer bin = new BinaryCacheSerializer();
+        CacheSerializer jdk = new JavaCacheSerializer();
+        int binUsers = ((byte[]) bin.from(users)).length;
+        int jdkUsers = ((byte[]) jdk.from(users)).length;
+        int binRecords = ((byte[]) bin.from(records)).length;
+        int jdkRecords = ((byte[]) jdk.from(records)).length;
+        log.infof("List<User>   binary=%d jdk=%d", binUsers, jdkUsers);
+        log.infof("List<Record> binary=%d jdk=%d", binRecords, jdkRecords);
+        assertTrue(binUsers < jdkUsers);
+        assertTrue(binRecords < jdkRecords);
+
+        int rounds = 200;
+        log.infof("daocache     binary=%dms jdk=%dms",
+                  roundTrip(bin, users, rounds),
+                  roundTrip(jdk, users, rounds));
+
+        NutBinarySerializer nbin = new NutBinarySerializer();
+        DefaultJdkSerializer njdk = new DefaultJdkSerializer();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < rounds; i++)
+            nbin.toObject(nbin.fromObject(records));
+        long binTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        for (int i = 0; i < rounds; i++)
+            njdk.toObject(njdk.fromObject(records));
+        long jdkTime = System.currentTimeMillis() - start;
+        log.infof("plugins-cache binary=%dms jdk=%dms", binTime, jdkTime);
+    }
+
+    protected long roundTrip(CacheSerializer serializer, Object obj, int rounds) {
+        for (int i = 0; i < rounds; i++) // 预热
+            serializer.back(serializer.from(obj));
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < rounds; i++)
+            serializer.back(serializer.from(obj));
+        return System.currentTimeMillis() - start;
+    }
+
+    protected List<User> users(int count) {
+        List<User> users = new ArrayList<User>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setId(i + 1);
+            user.setName("user_" + i);
+            user.setEmail("user_" + i + "@nutzam.com");
+            UserProfile profile = new UserProfile();
+            profile.setUserId(i + 1);
+            profile.setLocation("canada");
+            profile.setSex(i % 2 == 0 ? "man" : "woman");
+            user.setProfile(profile);
+            users.add(user);
+        }
+        return users;
+    }
+
+    protected List<Record> records(int count) {
+        List<Record> records = new ArrayList<Record>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Record re = new Record();
+            re.set("id", i + 1);
+            re.set("nm", "user_" + i);
+            re.set("ct", new Timestamp(now + i));
+            records.add(re);
+        }
+        return records;
+    }
+}
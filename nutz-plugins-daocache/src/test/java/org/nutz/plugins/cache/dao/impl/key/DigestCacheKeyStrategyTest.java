@@ -0,0 +1,49 @@
+package org.nutz.plugins.cache.dao.impl.key;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.pager.Pager;
+import org.nutz.dao.sql.Sql;
+import org.nutz.plugins.cache.dao.SqlShape;
+
+public class DigestCacheKeyStrategyTest {
+
+    DigestCacheKeyStrategy strategy = new DigestCacheKeyStrategy();
+
+    @Test
+    public void test_key() {
+        String sql = "SELECT * FROM tb_user WHERE id=?";
+        Sql st = Sqls.create(sql);
+        SqlShape a = shape(sql);
+        SqlShape b = shape(sql);
+
+        String key = strategy.genKey(st, a, new Object[][]{{1}});
+        assertEquals(32, key.length());
+        // 不同的SqlShape实例(例如另一个进程), 同一条sql得到同样的key
+        assertEquals(key, strategy.genKey(st, b, new Object[][]{{1}}));
+        // 参数不同或类型不同, key也不同
+        assertFalse(key.equals(strategy.genKey(st, a, new Object[][]{{2}})));
+        assertFalse(key.equals(strategy.genKey(st, a, new Object[][]{{"1"}})));
+        // sql不同
+        assertFalse(key.equals(strategy.genKey(st, shape(sql + " AND 1=1"), new Object[][]{{1}})));
+        // 分页不同
+        Sql paged = Sqls.create(sql);
+        paged.setPager(new Pager(2, 10));
+        assertFalse(key.equals(strategy.genKey(paged, a, new Object[][]{{1}})));
+    }
+
+    @Test
+    public void test_readable() {
+        String sql = "SELECT * FROM tb_user WHERE id=?";
+        String key = new ReadableCacheKeyStrategy().genKey(Sqls.create(sql), shape(sql), new Object[][]{{1}});
+        assertTrue(key.endsWith(":_:_:" + sql + ":1"));
+    }
+
+    protected SqlShape shape(String sql) {
+        return new SqlShape(sql, true, false, new ArrayList<String>(), true, null);
+    }
+}
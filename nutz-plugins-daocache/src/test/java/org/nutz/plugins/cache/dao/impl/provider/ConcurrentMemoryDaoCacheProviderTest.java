@@ -0,0 +1,88 @@
+package org.nutz.plugins.cache.dao.impl.provider;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.nutz.lang.Lang;
+import org.nutz.plugins.cache.dao.CacheResult;
+
+public class ConcurrentMemoryDaoCacheProviderTest {
+
+    @Test
+    public void test_get_put_clear() throws Throwable {
+        ConcurrentMemoryDaoCacheProvider provider = new ConcurrentMemoryDaoCacheProvider();
+        provider.init();
+        provider.put("t_user", "a", "wendal");
+        provider.put("t_role", "a", "admin");
+        assertEquals("wendal", provider.get("t_user", "a"));
+        provider.clear("t_user");
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+        assertEquals("admin", provider.get("t_role", "a"));
+        provider.remove("t_role", "a");
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_role", "a"));
+        provider.put("t_user", "b", null);
+        assertEquals(CacheResult.NULL, provider.get("t_user", "b"));
+    }
+
+    @Test
+    public void test_max_bytes() throws Throwable {
+        ConcurrentMemoryDaoCacheProvider provider = new ConcurrentMemoryDaoCacheProvider();
+        provider.setSegmentCount(4);
+        provider.setMaxBytes(64 * 1024);
+        provider.init();
+        char[] big = new char[1024];
+        for (int i = 0; i < 1000; i++)
+            provider.put("t_user", "k" + i, new String(big));
+        assertTrue(provider.getUsedBytes() <= 64 * 1024);
+        assertEquals(new String(big), provider.get("t_user", "k999"));
+    }
+
+    @Test
+    public void test_ttl() throws Throwable {
+        ConcurrentMemoryDaoCacheProvider provider = new ConcurrentMemoryDaoCacheProvider();
+        Map<String, Integer> ttls = new HashMap<String, Integer>();
+        ttls.put("t_user", 1);
+        provider.setTtls(ttls);
+        provider.init();
+        provider.put("t_user", "a", "wendal");
+        provider.put("t_role", "a", "admin");
+        assertEquals("wendal", provider.get("t_user", "a"));
+        Lang.quiteSleep(1100);
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+        assertEquals("admin", provider.get("t_role", "a"));
+    }
+
+    /**
+     * clear与put并发时版本号不能丢失递增, 否则clear之前的数据会重新可见
+     */
+    @Test
+    public void test_concurrent_clear() throws Throwable {
+        final ConcurrentMemoryDaoCacheProvider provider = new ConcurrentMemoryDaoCacheProvider();
+        provider.init();
+        provider.put("t_user", "a", "wendal");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {}
+                    for (int i = 0; i < 10000; i++)
+                        provider.clear("t_user");
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(80000, provider.tables.get("t_user").generation.get());
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+    }
+}
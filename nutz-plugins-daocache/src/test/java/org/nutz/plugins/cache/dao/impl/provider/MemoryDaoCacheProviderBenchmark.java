@@ -0,0 +1,79 @@
+package org.nutz.plugins.cache.dao.impl.provider;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nutz.plugins.cache.dao.api.DaoCacheProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * MemoryDaoCacheProvider与ConcurrentMemoryDaoCacheProvider的读写吞吐量对比, 90%读10%写, 8张表2000个key.
+ * <p/>
+ * 运行main方法即可, 分别以8线程和32线程运行. 参考结果见README, 单核机器上分段锁没有优势
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MemoryDaoCacheProviderBenchmark {
+
+    @Param({"memory", "concurrent"})
+    String provider;
+
+    DaoCacheProvider cache;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        if ("memory".equals(provider))
+            cache = new MemoryDaoCacheProvider();
+        else
+            cache = new ConcurrentMemoryDaoCacheProvider();
+        cache.init();
+        for (int i = 0; i < 2000; i++)
+            cache.put("t_" + (i % 8), "k" + i, "k" + i);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        cache.depose();
+    }
+
+    /**
+     * 每个线程独立的操作序号
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int i;
+        int seed = (int) Thread.currentThread().getId();
+    }
+
+    @Benchmark
+    public Object mixed(Cursor cursor) {
+        int i = cursor.i++;
+        String table = "t_" + (i & 7);
+        String key = "k" + ((i * 31 + cursor.seed) & 2047);
+        if (i % 10 == 0)
+            return cache.put(table, key, key);
+        return cache.get(table, key);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[]{8, 32}) {
+            new Runner(new OptionsBuilder().include(MemoryDaoCacheProviderBenchmark.class.getSimpleName())
+                                           .forks(1)
+                                           .threads(threads)
+                                           .warmupIterations(3)
+                                           .measurementIterations(5)
+                                           .build()).run();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.nutz.plugins.cache.dao.impl.provider;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.integration.jedis.LocalRedis;
+import org.nutz.plugins.cache.dao.CacheResult;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * 需要PATH中有redis-server, 否则跳过
+ */
+public class VersionedRedisDaoCacheProviderTest {
+
+    static LocalRedis redis;
+
+    static JedisPool pool;
+
+    VersionedRedisDaoCacheProvider provider;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (pool != null)
+            pool.close();
+        if (redis != null)
+            redis.close();
+    }
+
+    @Before
+    public void before() throws Throwable {
+        Jedis jedis = pool.getResource();
+        try {
+            jedis.flushAll();
+        }
+        finally {
+            jedis.close();
+        }
+        provider = new VersionedRedisDaoCacheProvider();
+        provider.setJedisPool(pool);
+        provider.init();
+    }
+
+    @After
+    public void after() throws Throwable {
+        provider.depose();
+    }
+
+    @Test
+    public void test_get_put_remove() {
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+        provider.put("t_user", "a", "wendal");
+        provider.put("t_role", "a", "admin");
+        assertEquals("wendal", provider.get("t_user", "a"));
+        provider.remove("t_user", "a");
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+        assertEquals("admin", provider.get("t_role", "a"));
+        provider.put("t_user", "b", null);
+        assertEquals(CacheResult.NULL, provider.get("t_user", "b"));
+    }
+
+    @Test
+    public void test_clear() {
+        provider.put("t_user", "a", "wendal");
+        provider.put("t_role", "a", "admin");
+        provider.clear("t_user");
+        assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+        assertEquals("admin", provider.get("t_role", "a"));
+        provider.put("t_user", "a", "zozoh");
+        assertEquals("zozoh", provider.get("t_user", "a"));
+        // 缓存项是普通key, 不带hash tag
+        Jedis jedis = pool.getResource();
+        try {
+            assertEquals("1", jedis.get("daocache:t_user"));
+            assertTrue(jedis.exists("daocache:t_user:0:a"));
+            assertTrue(jedis.exists("daocache:t_user:1:a"));
+        }
+        finally {
+            jedis.close();
+        }
+    }
+
+    @Test
+    public void test_ttl() throws Throwable {
+        provider.setTtl(1);
+        provider.put("t_user", "a", "wendal");
+        provider.clear("t_user");
+        Jedis jedis = pool.getResource();
+        try {
+            // 旧版本的key同样带过期时间, 不会留在redis中
+            long ttl = jedis.ttl("daocache:t_user:0:a");
+            assertTrue(ttl > 0 && ttl <= 1);
+            provider.put("t_user", "a", "zozoh");
+            assertEquals("zozoh", provider.get("t_user", "a"));
+            Thread.sleep(1500);
+            assertEquals(CacheResult.NOT_FOUNT, provider.get("t_user", "a"));
+            assertFalse(jedis.exists("daocache:t_user:0:a"));
+        }
+        finally {
+            jedis.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_ttl_required() throws Throwable {
+        VersionedRedisDaoCacheProvider provider = new VersionedRedisDaoCacheProvider();
+        provider.setJedisPool(pool);
+        provider.setTtl(0);
+        provider.init();
+    }
+}
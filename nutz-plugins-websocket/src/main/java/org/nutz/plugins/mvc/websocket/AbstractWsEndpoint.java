@@ -6,6 +6,11 @@ import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.websocket.CloseReason;
 import javax.websocket.Endpoint;
@@ -46,6 +51,46 @@ public abstract class AbstractWsEndpoint extends Endpoint {
      * 存放Websocket Session Id --> Session 的映射关系
      */
     protected ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * 存放Websocket Session Id --> 发送队列 的映射关系
+     */
+    protected ConcurrentHashMap<String, WsSendQueue> queues = new ConcurrentHashMap<>();
+    
+    /**
+     * 每个会话最多允许多少条未完成的异步发送
+     */
+    protected int maxPendingSends = 64;
+    
+    /**
+     * sendText/sendJson/sendBinary是否也受maxPendingSends/maxPendingBytes限制, 默认false, 即只限制broadcast
+     */
+    protected boolean limitDirectSends;
+    
+    /**
+     * 每个会话最多允许多少字节未完成的异步发送
+     */
+    protected long maxPendingBytes = 1024 * 1024;
+    
+    /**
+     * 超出上限时的处理策略, dropNewest/dropOldest/coalesce, 详见WsSendQueue
+     */
+    protected String overflow = "dropNewest";
+    
+    /**
+     * 会话持续超过高水位多久后关闭, 单位毫秒, 0为不关闭
+     */
+    protected long evictAfter = 30000;
+    
+    /**
+     * 检查慢客户端的周期, 单位毫秒. 检查及关闭会话都在同一个后台线程中执行
+     */
+    protected long sweepInterval = 1000;
+    
+    protected ScheduledExecutorService sweeper;
+    
+    protected AtomicLong dropped = new AtomicLong();
+    
+    protected AtomicLong evicted = new AtomicLong();
     
     /**
      * 房间提供者. WebSocket默认没有房间的概念
@@ -72,6 +117,7 @@ public abstract class AbstractWsEndpoint extends Endpoint {
         handler.setSession(session);
         session.addMessageHandler(handler);
         sessions.put(wsid, session);
+        queues.put(wsid, createSendQueue(session));
         handlers.put(wsid, handler);
     }
     
@@ -80,6 +126,7 @@ public abstract class AbstractWsEndpoint extends Endpoint {
      */
     public void onClose(Session session, CloseReason closeReason) {
         sessions.remove(session.getId());
+        queues.remove(session.getId());
         WsHandler handler = handlers.remove(session.getId());
         if (handler != null)
            handler.depose();
@@ -119,6 +166,66 @@ public abstract class AbstractWsEndpoint extends Endpoint {
         return handler;
     }
     
+    /**
+     * 为WebSocket会话创建发送队列
+     */
+    protected WsSendQueue createSendQueue(Session session) {
+        WsSendQueue queue = new WsSendQueue(session, maxPendingSends);
+        queue.setMaxBytes(maxPendingBytes);
+        queue.setOverflow(overflow);
+        queue.setEvictAfter(evictAfter);
+        queue.setCounters(dropped, evicted);
+        if (evictAfter > 0)
+            queue.setCloser(sweeper());
+        return queue;
+    }
+    
+    /**
+     * 启动检查慢客户端的后台线程
+     */
+    protected synchronized ScheduledExecutorService sweeper() {
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ws.sweep");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            sweeper.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        sweep();
+                    }
+                    catch (Throwable e) {
+                        log.debug("sweep fail", e);
+                    }
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        }
+        return sweeper;
+    }
+    
+    /**
+     * 关闭持续超过高水位的会话. 完全不读取的会话没有发送回调, 只能靠定期检查
+     */
+    public void sweep() {
+        for (WsSendQueue queue : queues.values())
+            queue.sweep();
+    }
+    
+    /**
+     * 停止后台线程. 子类覆盖时需调用super.depose()
+     */
+    public void depose() {
+        synchronized (this) {
+            if (sweeper != null) {
+                sweeper.shutdown();
+                sweeper = null;
+            }
+        }
+    }
+    
     /**
      * 返回一个活跃的WebSocket Session对象
      * @param wsid session的id
@@ -154,14 +261,10 @@ public abstract class AbstractWsEndpoint extends Endpoint {
      * 异步非阻塞发送文本信息到指定的WebSocket Session
      * @param wsid session的id
      * @param text 文本信息
-     * @return session存活即返回true
+     * @return session存活且已放入发送队列,返回true(不代表已送达). limitDirectSends=true且超出上限被丢弃时返回false
      */
     public boolean sendText(String wsid, CharSequence text) {
-        Session session = getSession(wsid);
-        if (session == null)
-            return false;
-        session.getAsyncRemote().sendText(text.toString());
-        return true;
+        return send(wsid, text.toString(), limitDirectSends);
     }
     
     /**
@@ -187,14 +290,12 @@ public abstract class AbstractWsEndpoint extends Endpoint {
      * 异步非阻塞发送文本信息到指定的WebSocket Session
      * @param wsid session的id
      * @param msg 将转换为Json字符串的对象
-     * @return session存活即返回true
+     * @return session存活且已放入发送队列,返回true(不代表已送达). limitDirectSends=true且超出上限被丢弃时返回false
      */
     public boolean sendJson(String wsid, Object msg) {
-        Session session = getSession(wsid);
-        if (session == null)
+        if (getSession(wsid) == null)
             return false;
-        session.getAsyncRemote().sendText(Json.toJson(msg, JsonFormat.full()));
-        return true;
+        return send(wsid, Json.toJson(msg, JsonFormat.full()), limitDirectSends);
     }
     
     /**
@@ -240,17 +341,32 @@ public abstract class AbstractWsEndpoint extends Endpoint {
      * 异步非阻塞发送一段二进制数据到指定的WebSocket Session
      * @param wsid session的id
      * @param msg byte[]/InputStream/ByteBuffer等
-     * @return session存活且msg不是null,返回true,否则返回false
+     * @return session存活,msg不是null且已放入发送队列,返回true(不代表已送达). limitDirectSends=true且超出上限被丢弃时返回false
      */
     public boolean sendBinary(String wsid, Object msg) {
-        Session session = getSession(wsid);
-        if (session == null || msg == null)
+        if (getSession(wsid) == null || msg == null)
             return false;
         ByteBuffer buf = toByteBuffer(msg);
         if (buf == null)
             return false;
-        session.getAsyncRemote().sendBinary(buf);
-        return true;
+        return send(wsid, buf, limitDirectSends);
+    }
+    
+    /**
+     * 放入会话的发送队列, 异步发送
+     * @param wsid session的id
+     * @param msg String或ByteBuffer
+     * @param bounded 是否受maxPendingSends/maxPendingBytes限制
+     * @return session存活且消息未被丢弃,返回true
+     */
+    protected boolean send(String wsid, Object msg, boolean bounded) {
+        Session session = getSession(wsid);
+        if (session == null)
+            return false;
+        WsSendQueue queue = queues.get(wsid);
+        if (queue == null)
+            return false;
+        return queue.offer(msg, bounded);
     }
     
     /**
@@ -293,6 +409,54 @@ public abstract class AbstractWsEndpoint extends Endpoint {
         });
     }
 
+    /**
+     * 向房间内的全部会话异步发送文本信息
+     * @param room 房间名称
+     * @param text 文本信息
+     * @return 成功放入发送队列的会话数
+     */
+    public int broadcastText(String room, CharSequence text) {
+        return broadcast(room, text.toString());
+    }
+    
+    /**
+     * 向房间内的全部会话异步发送Json, 只转换一次Json字符串
+     * @param room 房间名称
+     * @param msg 将转换为Json字符串的对象
+     * @return 成功放入发送队列的会话数
+     */
+    public int broadcastJson(String room, Object msg) {
+        return broadcast(room, Json.toJson(msg, JsonFormat.full()));
+    }
+    
+    /**
+     * 向房间内的全部会话异步发送二进制数据, 各会话共享同一个ByteBuffer
+     * @param room 房间名称
+     * @param msg byte[]/InputStream/ByteBuffer等
+     * @return 成功放入发送队列的会话数
+     */
+    public int broadcastBinary(String room, Object msg) {
+        ByteBuffer buf = toByteBuffer(msg);
+        if (buf == null)
+            return 0;
+        return broadcast(room, buf);
+    }
+    
+    /**
+     * 直接遍历房间的wsid集合, 不复制成数组. 慢客户端的消息超出上限时按overflow策略处理, 不会阻塞其他会话
+     */
+    protected int broadcast(String room, Object msg) {
+        Set<String> wsids = roomProvider.wsids(room);
+        if (wsids == null)
+            return 0;
+        int count = 0;
+        for (String wsid : wsids) {
+            if (send(wsid, msg, true))
+                count++;
+        }
+        return count;
+    }
+
     public WsRoomProvider getRoomProvider() {
         return roomProvider;
     }
@@ -308,4 +472,42 @@ public abstract class AbstractWsEndpoint extends Endpoint {
     public void setRoomPrefix(String roomPrefix) {
         this.roomPrefix = roomPrefix;
     }
+
+    public void setMaxPendingSends(int maxPendingSends) {
+        this.maxPendingSends = maxPendingSends;
+    }
+
+    public void setLimitDirectSends(boolean limitDirectSends) {
+        this.limitDirectSends = limitDirectSends;
+    }
+
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public void setOverflow(String overflow) {
+        this.overflow = overflow;
+    }
+
+    public void setEvictAfter(long evictAfter) {
+        this.evictAfter = evictAfter;
+    }
+
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * 因超出上限而丢弃的消息总数
+     */
+    public long getDroppedMessages() {
+        return dropped.get();
+    }
+
+    /**
+     * 因发送过慢而被关闭的会话总数
+     */
+    public long getEvictedSessions() {
+        return evicted.get();
+    }
 }
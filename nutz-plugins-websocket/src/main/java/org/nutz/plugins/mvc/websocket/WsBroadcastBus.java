@@ -0,0 +1,110 @@
+package org.nutz.plugins.mvc.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nutz.integration.jedis.pubsub.PubSub;
+import org.nutz.integration.jedis.pubsub.PubSubService;
+import org.nutz.json.Json;
+import org.nutz.json.JsonFormat;
+import org.nutz.lang.random.R;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 多节点部署时的房间广播. 每个节点只订阅一个共享频道, 广播时先投递给本节点的会话,
+ * 再把 节点id\n房间\n消息 发布到频道, 其他节点收到后各自投递给本地会话, 整个过程不需要SMEMBERS.
+ * <p/>
+ * 投递依赖endpoint的roomProvider返回本节点的会话, 所以应使用MemoryRoomProvider(默认)之类的本地实现.
+ * 用法, 在endpoint的init方法中:
+ * <code>
+ * bus = new WsBroadcastBus(this, pubSubService);
+ * bus.init();
+ * </code>
+ *
+ * @author wendal
+ *
+ */
+public class WsBroadcastBus implements PubSub {
+
+    private static final Log log = Logs.get();
+
+    protected AbstractWsEndpoint endpoint;
+
+    protected PubSubService pubSubService;
+
+    protected String channel = "wsroom:bus";
+
+    /**
+     * 本节点的id, 用于忽略自己发布的消息
+     */
+    protected String nodeId = R.UU32();
+
+    protected AtomicLong received = new AtomicLong();
+
+    public WsBroadcastBus(AbstractWsEndpoint endpoint, PubSubService pubSubService) {
+        this.endpoint = endpoint;
+        this.pubSubService = pubSubService;
+    }
+
+    public void init() {
+        pubSubService.reg(channel, this);
+    }
+
+    /**
+     * 只移除本实例, 同一频道上的其他订阅者不受影响
+     */
+    public void depose() {
+        pubSubService.unreg(channel, this);
+    }
+
+    /**
+     * 向全部节点上该房间的会话发送Json, 只转换一次Json字符串
+     * @return 本节点成功放入发送队列的会话数
+     */
+    public int broadcastJson(String room, Object msg) {
+        return broadcastText(room, Json.toJson(msg, JsonFormat.full()));
+    }
+
+    /**
+     * 向全部节点上该房间的会话发送文本信息
+     * @return 本节点成功放入发送队列的会话数
+     */
+    public int broadcastText(String room, CharSequence text) {
+        String payload = text.toString();
+        int count = endpoint.broadcastText(room, payload);
+        pubSubService.fire(channel, nodeId + "\n" + room + "\n" + payload);
+        return count;
+    }
+
+    public void onMessage(String channel, String message) {
+        int a = message.indexOf('\n');
+        int b = message.indexOf('\n', a + 1);
+        if (a < 0 || b < 0) {
+            log.debug("bad message : " + message);
+            return;
+        }
+        if (message.regionMatches(0, nodeId, 0, a) && a == nodeId.length())
+            return;
+        received.incrementAndGet();
+        endpoint.broadcastText(message.substring(a + 1, b), message.substring(b + 1));
+    }
+
+    /**
+     * 收到的其他节点的广播数
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+}
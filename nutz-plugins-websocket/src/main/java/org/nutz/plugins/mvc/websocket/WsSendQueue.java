@@ -0,0 +1,293 @@
+package org.nutz.plugins.mvc.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+/**
+ * 每个WebSocket会话一个发送队列. 同一时刻只有一条消息在异步发送中(多数容器不允许同一会话并发异步发送),
+ * 发送完成后在回调中发送下一条.
+ * <p/>
+ * 未完成的消息(排队中+发送中)的条数不超过maxMessages, 字节数不超过maxBytes(文本按字符数估算). 超出时按overflow处理:
+ * <li>dropNewest 丢弃新消息(默认)</li>
+ * <li>dropOldest 丢弃最早排队的消息</li>
+ * <li>coalesce 丢弃全部排队中的消息, 只保留最新的一条, 适合推送状态快照</li>
+ * <p/>
+ * 未完成的消息持续超过上限的3/4达到evictAfter毫秒, 视为慢客户端, 关闭该会话. 完全不读取的会话不会再触发发送回调,
+ * 所以除了offer时检查外, 还需要定期调用sweep(), AbstractWsEndpoint中由定时线程执行. 关闭会话在closer中执行, 不占用广播线程
+ *
+ * @author wendal
+ *
+ */
+public class WsSendQueue implements SendHandler {
+
+    private static final Log log = Logs.get();
+
+    protected Session session;
+
+    protected int maxMessages;
+
+    protected long maxBytes = 1024 * 1024;
+
+    protected String overflow = "dropNewest";
+
+    /**
+     * 超过高水位多久关闭会话, 单位毫秒, 0为不关闭
+     */
+    protected long evictAfter = 30000;
+
+    /**
+     * String或ByteBuffer, ByteBuffer是多个会话共享的, 发送时需要duplicate
+     */
+    protected ArrayDeque<Object> queue = new ArrayDeque<Object>();
+
+    protected Object inflight;
+
+    protected int messages;
+
+    protected long bytes;
+
+    /**
+     * 开始超过高水位的时间, 0为未超过
+     */
+    protected long overSince;
+
+    protected boolean closed;
+
+    protected AtomicLong dropped = new AtomicLong();
+
+    protected AtomicLong evicted = new AtomicLong();
+
+    /**
+     * 执行session.close的线程池, 为null时在当前线程关闭
+     */
+    protected Executor closer;
+
+    public WsSendQueue(Session session, int maxMessages) {
+        this.session = session;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * 放入发送队列, 受上限限制
+     * @param msg String或ByteBuffer
+     * @return 消息被丢弃或会话已关闭时返回false
+     */
+    public boolean offer(Object msg) {
+        return offer(msg, true);
+    }
+
+    /**
+     * 放入发送队列
+     * @param msg String或ByteBuffer
+     * @param bounded 为false时不按overflow丢弃, 总是放入队列, 但仍计入未完成的消息数和字节数
+     * @return 消息被丢弃或会话已关闭时返回false
+     */
+    public boolean offer(Object msg, boolean bounded) {
+        long size = sizeOf(msg);
+        boolean accept = true;
+        boolean evict = false;
+        synchronized (this) {
+            if (closed)
+                return false;
+            if (bounded && !fits(size))
+                accept = overflow(size);
+            if (accept) {
+                queue.add(msg);
+                messages++;
+                bytes += size;
+            } else {
+                dropped.incrementAndGet();
+            }
+            evict = checkHighWater();
+        }
+        if (evict)
+            evict();
+        else
+            drain();
+        return accept && !evict;
+    }
+
+    protected boolean fits(long size) {
+        return messages == 0 || (messages < maxMessages && bytes + size <= maxBytes);
+    }
+
+    /**
+     * 按overflow策略腾出空间
+     * @return 能否放入新消息
+     */
+    protected boolean overflow(long size) {
+        if ("dropOldest".equals(overflow)) {
+            while (!fits(size) && !queue.isEmpty())
+                discard(queue.poll());
+        } else if ("coalesce".equals(overflow)) {
+            while (!queue.isEmpty())
+                discard(queue.poll());
+        } else {
+            return false;
+        }
+        return fits(size);
+    }
+
+    protected void discard(Object msg) {
+        messages--;
+        bytes -= sizeOf(msg);
+        dropped.incrementAndGet();
+    }
+
+    protected boolean checkHighWater() {
+        if (messages * 4 < maxMessages * 3 && bytes * 4 < maxBytes * 3) {
+            overSince = 0;
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (overSince == 0)
+            overSince = now;
+        return evictAfter > 0 && now - overSince >= evictAfter;
+    }
+
+    /**
+     * 定期检查, 会话持续超过高水位达到evictAfter时关闭之
+     * @return 是否关闭了该会话
+     */
+    public boolean sweep() {
+        synchronized (this) {
+            if (closed || !checkHighWater())
+                return false;
+        }
+        evict();
+        return true;
+    }
+
+    protected void evict() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            while (!queue.isEmpty())
+                discard(queue.poll());
+        }
+        evicted.incrementAndGet();
+        log.debugf("session(id=%s) is too slow, close it", session.getId());
+        Runnable close = new Runnable() {
+            public void run() {
+                try {
+                    session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "slow consumer"));
+                }
+                catch (Exception e) {
+                    log.debug("close session fail", e);
+                }
+            }
+        };
+        if (closer == null) {
+            close.run();
+            return;
+        }
+        try {
+            closer.execute(close);
+        }
+        catch (Exception e) {
+            close.run();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    protected void drain() {
+        Object msg;
+        synchronized (this) {
+            if (inflight != null || queue.isEmpty())
+                return;
+            msg = inflight = queue.poll();
+        }
+        send(msg);
+    }
+
+    protected void send(Object msg) {
+        try {
+            RemoteEndpoint.Async remote = session.getAsyncRemote();
+            if (msg instanceof ByteBuffer)
+                remote.sendBinary(((ByteBuffer) msg).duplicate(), this);
+            else
+                remote.sendText((String) msg, this);
+        }
+        catch (Exception e) {
+            onResult(new SendResult(e));
+        }
+    }
+
+    public void onResult(SendResult result) {
+        if (!result.isOK())
+            log.debugf("session(id=%s) send fail: %s", session.getId(), result.getException());
+        synchronized (this) {
+            if (inflight != null) {
+                messages--;
+                bytes -= sizeOf(inflight);
+                inflight = null;
+            }
+            checkHighWater();
+        }
+        drain();
+    }
+
+    protected long sizeOf(Object msg) {
+        if (msg instanceof ByteBuffer)
+            return ((ByteBuffer) msg).remaining();
+        return ((String) msg).length();
+    }
+
+    /**
+     * 未完成的消息数
+     */
+    public synchronized int getPending() {
+        return messages;
+    }
+
+    /**
+     * 未完成的字节数
+     */
+    public synchronized long getPendingBytes() {
+        return bytes;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setOverflow(String overflow) {
+        this.overflow = overflow;
+    }
+
+    public void setEvictAfter(long evictAfter) {
+        this.evictAfter = evictAfter;
+    }
+
+    public void setCloser(Executor closer) {
+        this.closer = closer;
+    }
+
+    /**
+     * 使用共享的计数器, 便于汇总统计
+     */
+    public void setCounters(AtomicLong dropped, AtomicLong evicted) {
+        this.dropped = dropped;
+        this.evicted = evicted;
+    }
+}
@@ -0,0 +1,238 @@
+package org.nutz.plugins.mvc.websocket.room;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.nutz.plugins.mvc.websocket.WsRoomProvider;
+
+/**
+ * 单机版的WsRoom实现, 适合会话数很多的场景. 每个wsid分配一个紧凑的int编号, 房间成员用ConcurrentBitmap存放,
+ * 每个成员只占1位, 加入/离开房间不需要字符串比较.
+ * <p/>
+ * wsids(room)返回位图的只读视图, 遍历时不加锁也不复制. intersect可快速求同时在多个房间的会话
+ * <p/>
+ * 编号释放后立即重用. 每次分配编号都生成新的Slot(带代数), 遍历时读取Slot前后各检查一次, 且期间位图中该位仍被设置,
+ * 才返回该wsid, 所以不会把旧编号的房间成员身份算到新会话头上
+ *
+ * @author wendal
+ *
+ */
+public class BitmapRoomProvider implements WsRoomProvider {
+
+    protected ConcurrentHashMap<String, ConcurrentBitmap> rooms = new ConcurrentHashMap<>();
+
+    protected ConcurrentHashMap<String, Integer> handles = new ConcurrentHashMap<>();
+
+    /**
+     * 编号 --> Slot, 扩容时整体替换
+     */
+    protected volatile AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(1024);
+
+    /**
+     * 编号 --> 所在房间数, 归零时释放编号. 由this保护
+     */
+    protected int[] refs = new int[1024];
+
+    protected int nextHandle;
+
+    protected int generation;
+
+    protected ArrayDeque<Integer> free = new ArrayDeque<>();
+
+    public Set<String> wsids(String room) {
+        ConcurrentBitmap bitmap = getRoom(room);
+        return new View(bitmap, bitmap);
+    }
+
+    public void join(String room, String wsid) {
+        ConcurrentBitmap bitmap = getRoom(room);
+        synchronized (this) {
+            int handle = acquire(wsid);
+            if (bitmap.add(handle))
+                refs[handle]++;
+        }
+    }
+
+    public void left(String room, String wsid) {
+        ConcurrentBitmap bitmap = rooms.get(room);
+        if (bitmap == null)
+            return;
+        synchronized (this) {
+            Integer handle = handles.get(wsid);
+            if (handle != null && bitmap.remove(handle) && --refs[handle] == 0)
+                release(wsid, handle);
+        }
+    }
+
+    /**
+     * 同时在全部指定房间中的会话
+     */
+    public Set<String> intersect(String... rooms) {
+        ConcurrentBitmap re = null;
+        ConcurrentBitmap[] sources = new ConcurrentBitmap[rooms.length];
+        for (int i = 0; i < rooms.length; i++) {
+            ConcurrentBitmap bitmap = this.rooms.get(rooms[i]);
+            if (bitmap == null)
+                return new View(new ConcurrentBitmap());
+            sources[i] = bitmap;
+            re = re == null ? bitmap : re.and(bitmap);
+        }
+        return new View(re == null ? new ConcurrentBitmap() : re, sources);
+    }
+
+    public ConcurrentBitmap getRoom(String room) {
+        ConcurrentBitmap bitmap = rooms.get(room);
+        if (bitmap == null) {
+            bitmap = new ConcurrentBitmap();
+            ConcurrentBitmap prev = rooms.putIfAbsent(room, bitmap);
+            if (prev != null)
+                bitmap = prev;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 当前分配出去的编号数, 即至少在一个房间中的会话数
+     */
+    public int getSessionCount() {
+        return handles.size();
+    }
+
+    protected int acquire(String wsid) {
+        Integer handle = handles.get(wsid);
+        if (handle != null)
+            return handle;
+        int h;
+        if (!free.isEmpty()) {
+            h = free.pop();
+        } else {
+            h = nextHandle++;
+            if (h == slots.length()) {
+                AtomicReferenceArray<Slot> tmp = new AtomicReferenceArray<>(h * 2);
+                for (int i = 0; i < h; i++)
+                    tmp.set(i, slots.get(i));
+                slots = tmp;
+                int[] r = new int[h * 2];
+                System.arraycopy(refs, 0, r, 0, h);
+                refs = r;
+            }
+        }
+        slots.set(h, new Slot(wsid, ++generation));
+        handles.put(wsid, h);
+        return h;
+    }
+
+    protected void release(String wsid, int handle) {
+        handles.remove(wsid);
+        slots.set(handle, null);
+        free.push(handle);
+    }
+
+    protected Slot slot(int handle) {
+        AtomicReferenceArray<Slot> tmp = slots;
+        return handle < tmp.length() ? tmp.get(handle) : null;
+    }
+
+    /**
+     * 编号被分配给某个wsid的一次记录, 每次分配都是新实例
+     */
+    protected static class Slot {
+        protected final String wsid;
+        protected final int generation;
+
+        public Slot(String wsid, int generation) {
+            this.wsid = wsid;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 位图的只读视图
+     */
+    protected class View extends AbstractSet<String> {
+
+        /**
+         * 遍历用的位图
+         */
+        protected ConcurrentBitmap bitmap;
+
+        /**
+         * 判断成员身份用的房间位图, intersect时bitmap是快照, 需要回到各房间确认
+         */
+        protected ConcurrentBitmap[] sources;
+
+        public View(ConcurrentBitmap bitmap, ConcurrentBitmap... sources) {
+            this.bitmap = bitmap;
+            this.sources = sources;
+        }
+
+        /**
+         * handle当前的持有者确实在房间中时返回其wsid, 否则返回null
+         */
+        protected String member(int handle) {
+            Slot slot = slot(handle);
+            if (slot == null)
+                return null;
+            for (ConcurrentBitmap source : sources)
+                if (!source.contains(handle))
+                    return null;
+            // 检查位图期间编号没有被释放或重新分配
+            Slot now = slot(handle);
+            if (now == null || now.generation != slot.generation)
+                return null;
+            return slot.wsid;
+        }
+
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                int cursor;
+                String next;
+
+                public boolean hasNext() {
+                    while (next == null) {
+                        if (cursor < 0)
+                            return false;
+                        int handle = bitmap.next(cursor);
+                        if (handle < 0) {
+                            cursor = -1;
+                            return false;
+                        }
+                        cursor = handle + 1;
+                        next = member(handle);
+                    }
+                    return true;
+                }
+
+                public String next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    String re = next;
+                    next = null;
+                    return re;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public int size() {
+            return bitmap.cardinality();
+        }
+
+        public boolean isEmpty() {
+            return bitmap.isEmpty();
+        }
+
+        public boolean contains(Object o) {
+            Integer handle = handles.get(o);
+            return handle != null && o.equals(member(handle));
+        }
+    }
+}
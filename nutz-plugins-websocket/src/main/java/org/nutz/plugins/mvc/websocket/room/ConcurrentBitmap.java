@@ -0,0 +1,135 @@
+package org.nutz.plugins.mvc.websocket.room;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分页的并发位图. 每页4096位, 按需分配, 页目录写时复制.
+ * <p/>
+ * add/remove用CAS修改单个long, 遍历不加锁, 是弱一致的(遍历期间的修改可能看得到也可能看不到)
+ *
+ * @author wendal
+ *
+ */
+public class ConcurrentBitmap {
+
+    protected static final int PAGE_SHIFT = 12;
+
+    protected static final int PAGE_WORDS = (1 << PAGE_SHIFT) / 64;
+
+    protected volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    public boolean add(int i) {
+        AtomicLongArray page = page(i >>> PAGE_SHIFT, true);
+        int w = (i >>> 6) & (PAGE_WORDS - 1);
+        long mask = 1L << i;
+        while (true) {
+            long old = page.get(w);
+            if ((old & mask) != 0)
+                return false;
+            if (page.compareAndSet(w, old, old | mask))
+                return true;
+        }
+    }
+
+    public boolean remove(int i) {
+        AtomicLongArray page = page(i >>> PAGE_SHIFT, false);
+        if (page == null)
+            return false;
+        int w = (i >>> 6) & (PAGE_WORDS - 1);
+        long mask = 1L << i;
+        while (true) {
+            long old = page.get(w);
+            if ((old & mask) == 0)
+                return false;
+            if (page.compareAndSet(w, old, old & ~mask))
+                return true;
+        }
+    }
+
+    public boolean contains(int i) {
+        AtomicLongArray page = page(i >>> PAGE_SHIFT, false);
+        return page != null && (page.get((i >>> 6) & (PAGE_WORDS - 1)) & (1L << i)) != 0;
+    }
+
+    /**
+     * 返回大于等于from的第一个被设置的位, 没有则返回-1
+     */
+    public int next(int from) {
+        AtomicLongArray[] tmp = pages;
+        int p = from >>> PAGE_SHIFT;
+        int w = (from >>> 6) & (PAGE_WORDS - 1);
+        long mask = -1L << from;
+        for (; p < tmp.length; p++, w = 0, mask = -1L) {
+            AtomicLongArray page = tmp[p];
+            if (page == null)
+                continue;
+            for (; w < PAGE_WORDS; w++, mask = -1L) {
+                long word = page.get(w) & mask;
+                if (word != 0)
+                    return (p << PAGE_SHIFT) + (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return -1;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (AtomicLongArray page : pages) {
+            if (page == null)
+                continue;
+            for (int w = 0; w < PAGE_WORDS; w++)
+                count += Long.bitCount(page.get(w));
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return next(0) < 0;
+    }
+
+    /**
+     * 与另一个位图求交集, 返回新的位图, 两者均不修改
+     */
+    public ConcurrentBitmap and(ConcurrentBitmap other) {
+        ConcurrentBitmap re = new ConcurrentBitmap();
+        AtomicLongArray[] a = pages;
+        AtomicLongArray[] b = other.pages;
+        int len = Math.min(a.length, b.length);
+        AtomicLongArray[] tmp = new AtomicLongArray[len];
+        for (int p = 0; p < len; p++) {
+            if (a[p] == null || b[p] == null)
+                continue;
+            AtomicLongArray page = new AtomicLongArray(PAGE_WORDS);
+            boolean empty = true;
+            for (int w = 0; w < PAGE_WORDS; w++) {
+                long word = a[p].get(w) & b[p].get(w);
+                if (word != 0) {
+                    page.set(w, word);
+                    empty = false;
+                }
+            }
+            if (!empty)
+                tmp[p] = page;
+        }
+        re.pages = tmp;
+        return re;
+    }
+
+    protected AtomicLongArray page(int p, boolean create) {
+        AtomicLongArray[] tmp = pages;
+        if (p < tmp.length && tmp[p] != null)
+            return tmp[p];
+        if (!create)
+            return null;
+        synchronized (this) {
+            tmp = pages;
+            if (p < tmp.length && tmp[p] != null)
+                return tmp[p];
+            tmp = Arrays.copyOf(tmp, Math.max(tmp.length, p + 1));
+            tmp[p] = new AtomicLongArray(PAGE_WORDS);
+            pages = tmp;
+            return tmp[p];
+        }
+    }
+}
@@ -1,26 +1,60 @@
 package org.nutz.plugins.mvc.websocket.room;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.nutz.integration.jedis.ClientSideCache;
+import org.nutz.integration.jedis.ClusterPipeline;
 import org.nutz.integration.jedis.JedisAgent;
 import org.nutz.plugins.mvc.websocket.WsRoomProvider;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
 /**
  * 基于Redis/Jedis的Websocket房间实现
+ * <p/>
+ * 设置cache后, wsids(room)优先返回本地缓存的成员快照, 由keyspace通知失效, 详见ClientSideCache
  * @author wendal
  *
  */
 public class JedisRoomProvider implements WsRoomProvider {
-    
+
     protected JedisAgent jedisAgent;
-    
+
+    /**
+     * 房间成员的本地缓存, 为null时不启用
+     */
+    protected ClientSideCache cache;
+
+    /**
+     * sscan每批的数量
+     */
+    protected int scanBatch = 1000;
+
     public JedisRoomProvider(JedisAgent jedisAgent) {
         this.jedisAgent = jedisAgent;
     }
 
+    @SuppressWarnings("unchecked")
     public Set<String> wsids(String room) {
+        if (cache == null || !cache.accept(room))
+            return smembers(room);
+        Object re = cache.get(room);
+        if (re != ClientSideCache.MISS)
+            return (Set<String>) re;
+        long gen = cache.generation();
+        Set<String> wsids = Collections.unmodifiableSet(smembers(room));
+        cache.put(room, wsids, gen);
+        return wsids;
+    }
+
+    protected Set<String> smembers(String room) {
         try (Jedis jedis = jedisAgent.getResource()) {
             return jedis.smembers(room);
         }
@@ -30,13 +64,100 @@ public class JedisRoomProvider implements WsRoomProvider {
         try (Jedis jedis = jedisAgent.getResource()) {
             jedis.sadd(room, wsid);
         }
+        invalidate(room);
     }
 
     public void left(String room, String wsid) {
         try (Jedis jedis = jedisAgent.getResource()) {
             jedis.srem(room, wsid);
         }
+        invalidate(room);
+    }
+
+    /**
+     * 一次往返加入多个房间
+     */
+    public void joinAll(String wsid, String... rooms) {
+        batch(wsid, true, rooms);
+    }
+
+    /**
+     * 一次往返离开多个房间
+     */
+    public void leftAll(String wsid, String... rooms) {
+        batch(wsid, false, rooms);
+    }
+
+    protected void batch(String wsid, boolean join, String... rooms) {
+        if (rooms.length == 0)
+            return;
+        try (Jedis jedis = jedisAgent.getResource()) {
+            Pipeline pipe = jedis.pipelined();
+            try {
+                for (String room : rooms) {
+                    if (join)
+                        pipe.sadd(room, wsid);
+                    else
+                        pipe.srem(room, wsid);
+                }
+            }
+            finally {
+                if (pipe instanceof ClusterPipeline)
+                    ((ClusterPipeline) pipe).close();
+                else
+                    pipe.sync();
+            }
+        }
+        for (String room : rooms)
+            invalidate(room);
+    }
+
+    /**
+     * 用SSCAN逐批遍历房间成员, 适合成员很多的房间, 不走本地缓存
+     */
+    public Iterator<String> iterator(final String room) {
+        final ScanParams params = new ScanParams().count(scanBatch);
+        return new Iterator<String>() {
+            String cursor;
+            Iterator<String> batch = Collections.<String> emptyList().iterator();
+
+            public boolean hasNext() {
+                while (!batch.hasNext()) {
+                    if (ScanParams.SCAN_POINTER_START.equals(cursor))
+                        return false;
+                    ScanResult<String> re;
+                    try (Jedis jedis = jedisAgent.getResource()) {
+                        re = jedis.sscan(room, cursor == null ? ScanParams.SCAN_POINTER_START : cursor, params);
+                    }
+                    cursor = re.getStringCursor();
+                    // SSCAN可能返回重复的成员, 同一批内去重
+                    batch = new HashSet<String>(re.getResult()).iterator();
+                }
+                return true;
+            }
+
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return batch.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    protected void invalidate(String room) {
+        if (cache != null)
+            cache.invalidate(room);
+    }
+
+    public void setCache(ClientSideCache cache) {
+        this.cache = cache;
+    }
+
+    public void setScanBatch(int scanBatch) {
+        this.scanBatch = scanBatch;
     }
-    
-    
 }
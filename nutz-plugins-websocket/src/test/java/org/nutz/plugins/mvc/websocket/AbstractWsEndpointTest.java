@@ -0,0 +1,97 @@
+package org.nutz.plugins.mvc.websocket;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.lang.util.NutMap;
+
+public class AbstractWsEndpointTest {
+
+    AbstractWsEndpoint endpoint;
+
+    @Before
+    public void before() {
+        endpoint = new AbstractWsEndpoint() {};
+    }
+
+    @After
+    public void after() {
+        endpoint.depose();
+    }
+
+    protected MockSession open(String id) {
+        MockSession mock = new MockSession(id);
+        endpoint.onOpen(mock.session, null);
+        return mock;
+    }
+
+    /**
+     * 直接发送默认不受上限限制, 只有limitDirectSends=true时才丢弃
+     */
+    @Test
+    public void test_direct_send_unbounded() {
+        MockSession mock = open("a");
+        mock.autoComplete = false;
+        for (int i = 0; i < 1000; i++)
+            assertTrue(endpoint.sendText("a", "msg" + i));
+        assertEquals(1000, endpoint.queues.get("a").getPending());
+        assertEquals(0, endpoint.getDroppedMessages());
+        while (mock.complete()) {}
+        assertEquals(1000, mock.sent.size());
+        assertEquals("msg999", mock.sent.get(999));
+
+        endpoint.setLimitDirectSends(true);
+        MockSession limited = open("b");
+        limited.autoComplete = false;
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++)
+            if (endpoint.sendJson("b", new NutMap("i", i)))
+                accepted++;
+        assertEquals(endpoint.maxPendingSends, accepted);
+        assertEquals(1000 - accepted, endpoint.getDroppedMessages());
+        assertFalse(endpoint.sendText("none", "x"));
+    }
+
+    /**
+     * 几千个会话的房间广播, 其中一部分是不读取的慢客户端
+     */
+    @Test
+    public void test_broadcast_many_sessions() {
+        int count = 5000;
+        int rounds = 200;
+        List<MockSession> mocks = new ArrayList<MockSession>();
+        for (int i = 0; i < count; i++) {
+            MockSession mock = open("s" + i);
+            mock.autoComplete = i % 10 != 0;
+            endpoint.getRoomProvider().join("room", mock.id);
+            mocks.add(mock);
+        }
+        NutMap msg = new NutMap("action", "tick");
+        long start = System.nanoTime();
+        long delivered = 0;
+        for (int i = 0; i < rounds; i++)
+            delivered += endpoint.broadcastJson("room", msg.setv("i", i));
+        long cost = System.nanoTime() - start;
+        System.out.printf("broadcast %d sessions x %d rounds: %dms, %d msg/s%n",
+                          count,
+                          rounds,
+                          cost / 1000000,
+                          delivered * 1000000000L / Math.max(1, cost));
+
+        int slow = count / 10;
+        long expect = (long) (count - slow) * rounds + (long) slow * endpoint.maxPendingSends;
+        assertEquals(expect, delivered);
+        assertEquals((long) slow * (rounds - endpoint.maxPendingSends), endpoint.getDroppedMessages());
+        for (MockSession mock : mocks) {
+            if (mock.autoComplete)
+                assertEquals(rounds, mock.sent.size());
+            else
+                assertEquals(1, mock.sent.size());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.nutz.plugins.mvc.websocket;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * 用java.lang.reflect.Proxy模拟的Session及RemoteEndpoint.Async.
+ * <p/>
+ * autoComplete为true时异步发送立即完成, 否则挂起, 调用complete()后才完成, 用于模拟慢客户端
+ */
+public class MockSession implements InvocationHandler {
+
+    public final String id;
+
+    public final Session session;
+
+    public final RemoteEndpoint.Async async;
+
+    public volatile boolean open = true;
+
+    public volatile boolean autoComplete = true;
+
+    public final List<Object> sent = Collections.synchronizedList(new ArrayList<Object>());
+
+    public final List<SendHandler> pending = Collections.synchronizedList(new ArrayList<SendHandler>());
+
+    public volatile CloseReason closeReason;
+
+    public volatile Thread closeThread;
+
+    public MockSession(String id) {
+        this.id = id;
+        session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Session.class}, this);
+        async = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                              new Class<?>[]{RemoteEndpoint.Async.class},
+                                                              new InvocationHandler() {
+                                                                  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                                                      return onAsync(method, args);
+                                                                  }
+                                                              });
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("getId".equals(name))
+            return id;
+        if ("isOpen".equals(name))
+            return open;
+        if ("getAsyncRemote".equals(name))
+            return async;
+        if ("close".equals(name)) {
+            open = false;
+            closeReason = args == null ? null : (CloseReason) args[0];
+            closeThread = Thread.currentThread();
+            return null;
+        }
+        if ("hashCode".equals(name))
+            return System.identityHashCode(proxy);
+        if ("equals".equals(name))
+            return proxy == args[0];
+        if ("toString".equals(name))
+            return "MockSession(" + id + ")";
+        return null;
+    }
+
+    protected Object onAsync(Method method, Object[] args) {
+        String name = method.getName();
+        if (("sendText".equals(name) || "sendBinary".equals(name)) && args.length == 2) {
+            Object msg = args[0];
+            if (msg instanceof ByteBuffer)
+                msg = ((ByteBuffer) msg).remaining();
+            sent.add(msg);
+            SendHandler handler = (SendHandler) args[1];
+            if (autoComplete)
+                handler.onResult(new SendResult());
+            else
+                pending.add(handler);
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * 完成一条挂起的发送
+     */
+    public boolean complete() {
+        SendHandler handler;
+        synchronized (pending) {
+            if (pending.isEmpty())
+                return false;
+            handler = pending.remove(0);
+        }
+        handler.onResult(new SendResult());
+        return true;
+    }
+}
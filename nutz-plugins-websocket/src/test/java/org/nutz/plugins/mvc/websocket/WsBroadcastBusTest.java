@@ -0,0 +1,98 @@
+package org.nutz.plugins.mvc.websocket;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.integration.jedis.pubsub.PubSub;
+import org.nutz.integration.jedis.pubsub.PubSubService;
+
+/**
+ * 两个endpoint模拟两个节点, 共用一个不连redis的PubSubService, fire时直接投递给已注册的PubSub
+ */
+public class WsBroadcastBusTest {
+
+    PubSubService pubSub;
+
+    AbstractWsEndpoint[] endpoints;
+
+    WsBroadcastBus[] buses;
+
+    MockSession[] sessions;
+
+    /**
+     * fire时本节点会话已收到的消息数, 用于确认先本地投递再发布
+     */
+    List<Integer> localBeforeFire = new ArrayList<Integer>();
+
+    @Before
+    public void before() {
+        pubSub = new PubSubService() {
+            protected synchronized void start() {}
+
+            public void fire(String channel, String message) {
+                localBeforeFire.add(sessions[message.startsWith("node0\n") ? 0 : 1].sent.size());
+                List<PubSub> list = handlers.get(channel);
+                if (list != null)
+                    for (PubSub pb : list)
+                        pb.onMessage(channel, message);
+            }
+        };
+        endpoints = new AbstractWsEndpoint[2];
+        buses = new WsBroadcastBus[2];
+        sessions = new MockSession[2];
+        for (int i = 0; i < 2; i++) {
+            endpoints[i] = new AbstractWsEndpoint() {};
+            sessions[i] = new MockSession("s" + i);
+            endpoints[i].onOpen(sessions[i].session, null);
+            endpoints[i].getRoomProvider().join("room", "s" + i);
+            buses[i] = new WsBroadcastBus(endpoints[i], pubSub);
+            buses[i].setNodeId("node" + i);
+            buses[i].init();
+        }
+    }
+
+    @After
+    public void after() {
+        for (AbstractWsEndpoint endpoint : endpoints)
+            endpoint.depose();
+    }
+
+    @Test
+    public void test_broadcast() {
+        assertEquals(1, buses[0].broadcastText("room", "hi"));
+        assertEquals(Arrays.<Object> asList("hi"), sessions[0].sent);
+        assertEquals(Arrays.<Object> asList("hi"), sessions[1].sent);
+        // 先投递本地, 再发布
+        assertEquals(Arrays.asList(1), localBeforeFire);
+        assertEquals(0, buses[0].getReceived());
+        assertEquals(1, buses[1].getReceived());
+
+        assertEquals(0, buses[1].broadcastText("other", "x"));
+        assertEquals(1, sessions[0].sent.size());
+        assertEquals(1, sessions[1].sent.size());
+    }
+
+    /**
+     * 一个节点的bus关闭, 不影响同一频道上其他bus的订阅
+     */
+    @Test
+    public void test_depose_one() {
+        buses[1].depose();
+        buses[1].broadcastText("room", "from1");
+        assertEquals(Arrays.<Object> asList("from1"), sessions[1].sent);
+        assertEquals(Arrays.<Object> asList("from1"), sessions[0].sent);
+        buses[0].broadcastText("room", "from0");
+        assertEquals(Arrays.<Object> asList("from1", "from0"), sessions[0].sent);
+        assertEquals(Arrays.<Object> asList("from1"), sessions[1].sent);
+
+        buses[0].depose();
+        buses[1].broadcastText("room", "none");
+        assertEquals(2, sessions[0].sent.size());
+    }
+}
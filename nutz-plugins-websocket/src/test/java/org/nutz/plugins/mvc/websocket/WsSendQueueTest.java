@@ -0,0 +1,155 @@
+package org.nutz.plugins.mvc.websocket;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import javax.websocket.CloseReason.CloseCodes;
+
+import org.junit.Test;
+
+public class WsSendQueueTest {
+
+    /**
+     * 挂起的会话, 第一条消息发送中, 其余排队
+     */
+    protected WsSendQueue stalled(MockSession mock, String overflow) {
+        mock.autoComplete = false;
+        WsSendQueue queue = new WsSendQueue(mock.session, 4);
+        queue.setOverflow(overflow);
+        queue.setEvictAfter(0);
+        return queue;
+    }
+
+    protected void completeAll(MockSession mock) {
+        while (mock.complete()) {}
+    }
+
+    @Test
+    public void test_drop_newest() {
+        MockSession mock = new MockSession("a");
+        WsSendQueue queue = stalled(mock, "dropNewest");
+        for (int i = 0; i < 4; i++)
+            assertTrue(queue.offer("m" + i));
+        assertFalse(queue.offer("m4"));
+        assertFalse(queue.offer("m5"));
+        assertEquals(4, queue.getPending());
+        completeAll(mock);
+        assertEquals(Arrays.<Object> asList("m0", "m1", "m2", "m3"), mock.sent);
+        assertEquals(0, queue.getPending());
+        assertEquals(2, queue.dropped.get());
+    }
+
+    @Test
+    public void test_drop_oldest() {
+        MockSession mock = new MockSession("a");
+        WsSendQueue queue = stalled(mock, "dropOldest");
+        for (int i = 0; i < 6; i++)
+            assertTrue(queue.offer("m" + i));
+        assertEquals(4, queue.getPending());
+        completeAll(mock);
+        // m0已在发送中, 丢弃的是排队中最早的m1, m2
+        assertEquals(Arrays.<Object> asList("m0", "m3", "m4", "m5"), mock.sent);
+        assertEquals(2, queue.dropped.get());
+    }
+
+    @Test
+    public void test_coalesce() {
+        MockSession mock = new MockSession("a");
+        WsSendQueue queue = stalled(mock, "coalesce");
+        for (int i = 0; i < 6; i++)
+            assertTrue(queue.offer("m" + i));
+        // 第5条时清空排队中的m1..m3, 只留m4, 第6条放在m4后面
+        assertEquals(3, queue.getPending());
+        completeAll(mock);
+        assertEquals(Arrays.<Object> asList("m0", "m4", "m5"), mock.sent);
+        assertEquals(3, queue.dropped.get());
+    }
+
+    @Test
+    public void test_max_bytes() {
+        MockSession mock = new MockSession("a");
+        WsSendQueue queue = stalled(mock, "dropNewest");
+        queue.setMaxBytes(10);
+        assertTrue(queue.offer(ByteBuffer.wrap(new byte[6])));
+        assertTrue(queue.offer("1234"));
+        assertFalse(queue.offer("1"));
+        assertEquals(10, queue.getPendingBytes());
+        // 队列为空时超大的消息也放行
+        completeAll(mock);
+        assertTrue(queue.offer(ByteBuffer.wrap(new byte[100])));
+        assertEquals(Arrays.<Object> asList(6, "1234", 100), mock.sent);
+    }
+
+    /**
+     * 完全不读取的会话, 没有新消息也没有发送回调, 只能靠sweep关闭
+     */
+    @Test
+    public void test_sweep_stalled() throws Exception {
+        MockSession mock = new MockSession("a");
+        WsSendQueue queue = stalled(mock, "dropNewest");
+        queue.setEvictAfter(50);
+        for (int i = 0; i < 3; i++)
+            queue.offer("m" + i);
+        assertFalse(queue.sweep());
+        Thread.sleep(60);
+        assertTrue(queue.sweep());
+        assertTrue(queue.isClosed());
+        assertFalse(mock.open);
+        assertEquals(CloseCodes.TRY_AGAIN_LATER, mock.closeReason.getCloseCode());
+        assertEquals(1, queue.evicted.get());
+        assertFalse(queue.offer("m3"));
+        assertFalse(queue.sweep());
+    }
+
+    /**
+     * offer时发现需要关闭, 关闭在closer中执行, 不占用调用者线程
+     */
+    @Test
+    public void test_evict_off_caller_thread() throws Exception {
+        MockSession mock = new MockSession("a");
+        WsSendQueue queue = stalled(mock, "dropNewest");
+        queue.setEvictAfter(1);
+        final Thread[] closer = new Thread[1];
+        queue.setCloser(new Executor() {
+            public void execute(Runnable command) {
+                closer[0] = new Thread(command, "closer");
+                closer[0].start();
+            }
+        });
+        for (int i = 0; i < 3; i++)
+            queue.offer("m" + i);
+        Thread.sleep(5);
+        assertFalse(queue.offer("m3"));
+        closer[0].join(5000);
+        assertFalse(mock.open);
+        assertSame(closer[0], mock.closeThread);
+    }
+
+    @Test
+    public void test_endpoint_sweeper() throws Exception {
+        AbstractWsEndpoint endpoint = new AbstractWsEndpoint() {};
+        endpoint.setMaxPendingSends(4);
+        endpoint.setEvictAfter(50);
+        endpoint.setSweepInterval(10);
+        try {
+            MockSession mock = new MockSession("a");
+            mock.autoComplete = false;
+            endpoint.onOpen(mock.session, null);
+            for (int i = 0; i < 3; i++)
+                endpoint.sendText("a", "m" + i);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mock.open) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            assertEquals("ws.sweep", mock.closeThread.getName());
+            assertEquals(1, endpoint.getEvictedSessions());
+        }
+        finally {
+            endpoint.depose();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.nutz.plugins.mvc.websocket.room;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class BitmapRoomProviderTest {
+
+    @Test
+    public void test_join_left() {
+        BitmapRoomProvider provider = new BitmapRoomProvider();
+        provider.join("r", "a");
+        provider.join("r", "b");
+        provider.join("s", "b");
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), new HashSet<String>(provider.wsids("r")));
+        assertTrue(provider.wsids("r").contains("a"));
+        assertFalse(provider.wsids("s").contains("a"));
+        assertEquals(2, provider.getSessionCount());
+        assertEquals(new HashSet<String>(Arrays.asList("b")), new HashSet<String>(provider.intersect("r", "s")));
+        assertTrue(provider.intersect("r", "none").isEmpty());
+
+        provider.left("r", "b");
+        assertEquals(2, provider.getSessionCount());
+        provider.left("s", "b");
+        assertEquals(1, provider.getSessionCount());
+        // 编号立即重用
+        int handle = provider.handles.get("a");
+        provider.left("r", "a");
+        provider.join("s", "c");
+        assertEquals(Integer.valueOf(handle), provider.handles.get("c"));
+        assertTrue(provider.wsids("r").isEmpty());
+        assertEquals(Arrays.asList("c"), new ArrayList<String>(provider.wsids("s")));
+    }
+
+    /**
+     * intersect的结果是快照, 编号被重新分配后不能把旧的成员身份算到新会话头上
+     */
+    @Test
+    public void test_intersect_after_reuse() {
+        BitmapRoomProvider provider = new BitmapRoomProvider();
+        provider.join("r", "a");
+        provider.join("s", "a");
+        Set<String> both = provider.intersect("r", "s");
+        provider.left("r", "a");
+        provider.left("s", "a");
+        provider.join("r", "b");
+        assertEquals(provider.handles.get("b"), Integer.valueOf(0));
+        assertFalse(both.iterator().hasNext());
+        assertFalse(both.contains("b"));
+    }
+
+    /**
+     * r-开头的会话只进房间r, s-开头的只进房间s, 编号不停地被释放和重用. 遍历房间r时不能出现s-开头的会话
+     */
+    @Test
+    public void test_reuse_while_iterating() throws Exception {
+        final BitmapRoomProvider provider = new BitmapRoomProvider();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> wrong = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final String room = t % 2 == 0 ? "r" : "s";
+            final String prefix = room + "-" + t + "-";
+            threads.add(new Thread() {
+                public void run() {
+                    int i = 0;
+                    while (running.get()) {
+                        String wsid = prefix + (i % 64);
+                        provider.join(room, wsid);
+                        provider.left(room, prefix + ((i + 32) % 64));
+                        i++;
+                    }
+                }
+            });
+        }
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread() {
+                public void run() {
+                    while (running.get()) {
+                        Iterator<String> it = provider.wsids("r").iterator();
+                        while (it.hasNext()) {
+                            String wsid = it.next();
+                            if (!wsid.startsWith("r-"))
+                                wrong.set(wsid);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        Thread.sleep(2000);
+        running.set(false);
+        for (Thread t : threads)
+            t.join();
+        assertNull(wrong.get());
+    }
+}
@@ -0,0 +1,112 @@
+package org.nutz.plugins.mvc.websocket.room;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrentBitmapTest {
+
+    @Test
+    public void test_basic() {
+        ConcurrentBitmap bitmap = new ConcurrentBitmap();
+        assertTrue(bitmap.isEmpty());
+        assertEquals(-1, bitmap.next(0));
+        assertTrue(bitmap.add(0));
+        assertFalse(bitmap.add(0));
+        assertTrue(bitmap.add(63));
+        assertTrue(bitmap.add(64));
+        // 跨页, 中间的页不分配
+        assertTrue(bitmap.add(4096 * 3 + 5));
+        assertEquals(4, bitmap.cardinality());
+        assertTrue(bitmap.contains(63));
+        assertFalse(bitmap.contains(62));
+        assertFalse(bitmap.contains(4096 * 10));
+        assertNull(bitmap.pages[1]);
+        assertEquals(0, bitmap.next(0));
+        assertEquals(63, bitmap.next(1));
+        assertEquals(64, bitmap.next(64));
+        assertEquals(4096 * 3 + 5, bitmap.next(65));
+        assertEquals(-1, bitmap.next(4096 * 3 + 6));
+        assertTrue(bitmap.remove(63));
+        assertFalse(bitmap.remove(63));
+        assertFalse(bitmap.remove(4096 * 10));
+        assertEquals(64, bitmap.next(1));
+        assertEquals(3, bitmap.cardinality());
+    }
+
+    @Test
+    public void test_same_as_bitset() {
+        Random random = new Random(42);
+        ConcurrentBitmap bitmap = new ConcurrentBitmap();
+        BitSet expect = new BitSet();
+        for (int i = 0; i < 100000; i++) {
+            int n = random.nextInt(20000);
+            if (random.nextBoolean()) {
+                assertEquals(!expect.get(n), bitmap.add(n));
+                expect.set(n);
+            } else {
+                assertEquals(expect.get(n), bitmap.remove(n));
+                expect.clear(n);
+            }
+        }
+        assertEquals(expect.cardinality(), bitmap.cardinality());
+        int i = bitmap.next(0);
+        int j = expect.nextSetBit(0);
+        while (j >= 0) {
+            assertEquals(j, i);
+            i = bitmap.next(i + 1);
+            j = expect.nextSetBit(j + 1);
+        }
+        assertEquals(-1, i);
+    }
+
+    @Test
+    public void test_and() {
+        ConcurrentBitmap a = new ConcurrentBitmap();
+        ConcurrentBitmap b = new ConcurrentBitmap();
+        for (int i = 0; i < 10000; i += 2)
+            a.add(i);
+        for (int i = 0; i < 20000; i += 3)
+            b.add(i);
+        ConcurrentBitmap c = a.and(b);
+        assertEquals(1667, c.cardinality());
+        for (int i = 0; i < 20000; i++)
+            assertEquals(i < 10000 && i % 6 == 0, c.contains(i));
+        // 结果是独立的位图
+        a.remove(0);
+        assertTrue(c.contains(0));
+        assertEquals(0, a.and(new ConcurrentBitmap()).cardinality());
+    }
+
+    @Test
+    public void test_concurrent_add() throws Exception {
+        final ConcurrentBitmap bitmap = new ConcurrentBitmap();
+        final int threads = 8;
+        final int count = 50000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            ts[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {}
+                    // 相邻的位落在同一个long上, 考验CAS
+                    for (int i = offset; i < count * threads; i += threads)
+                        bitmap.add(i);
+                }
+            };
+            ts[t].start();
+        }
+        start.countDown();
+        for (Thread t : ts)
+            t.join();
+        assertEquals(count * threads, bitmap.cardinality());
+    }
+}
@@ -0,0 +1,190 @@
+package org.nutz.plugins.mvc.websocket.room;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nutz.integration.jedis.ClientSideCache;
+import org.nutz.integration.jedis.JedisAgent;
+import org.nutz.integration.jedis.LocalRedis;
+import org.nutz.lang.Lang;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * 需要PATH中有redis-server, 否则跳过
+ */
+public class JedisRoomProviderTest {
+
+    static LocalRedis redis;
+
+    static JedisPool pool;
+
+    JedisRoomProvider provider;
+
+    ClientSideCache cache;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Assume.assumeTrue(LocalRedis.available());
+        redis = LocalRedis.start();
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", redis.port());
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (pool != null)
+            pool.close();
+        if (redis != null)
+            redis.close();
+    }
+
+    @Before
+    public void before() {
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+            jedis.configResetStat();
+        }
+        provider = new JedisRoomProvider(new JedisAgent(pool));
+    }
+
+    @After
+    public void after() {
+        if (cache != null)
+            cache.depose();
+    }
+
+    @Test
+    public void test_join_all() {
+        String[] rooms = {"room:1", "room:2", "room:3"};
+        provider.join("room:1", "a");
+        provider.joinAll("b", rooms);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), provider.wsids("room:1"));
+        assertEquals(new HashSet<String>(Arrays.asList("b")), provider.wsids("room:3"));
+        provider.leftAll("b", "room:1", "room:2");
+        assertEquals(new HashSet<String>(Arrays.asList("a")), provider.wsids("room:1"));
+        assertTrue(provider.wsids("room:2").isEmpty());
+        assertEquals(new HashSet<String>(Arrays.asList("b")), provider.wsids("room:3"));
+        // 空参数不借连接
+        provider.joinAll("c");
+        assertEquals(0, provider.jedisAgent.getNumActive());
+    }
+
+    /**
+     * 集群模式下joinAll走ClusterPipeline, 房间分布在两个节点上
+     */
+    @Test
+    public void test_join_all_cluster() throws Exception {
+        LocalRedis[] nodes = LocalRedis.startCluster(2);
+        JedisCluster cluster = new JedisCluster(new HostAndPort("127.0.0.1", nodes[0].port()));
+        try {
+            JedisRoomProvider provider = new JedisRoomProvider(new JedisAgent(cluster));
+            String[] rooms = new String[20];
+            for (int i = 0; i < rooms.length; i++)
+                rooms[i] = "room:" + i;
+            provider.joinAll("a", rooms);
+            provider.joinAll("b", rooms);
+            for (LocalRedis node : nodes) {
+                try (Jedis jedis = node.jedis()) {
+                    assertTrue(jedis.dbSize() > 0);
+                }
+            }
+            for (String room : rooms)
+                assertEquals(new HashSet<String>(Arrays.asList("a", "b")), provider.wsids(room));
+            provider.leftAll("a", rooms);
+            for (String room : rooms)
+                assertEquals(new HashSet<String>(Arrays.asList("b")), provider.wsids(room));
+        }
+        finally {
+            cluster.close();
+            for (LocalRedis node : nodes)
+                node.close();
+        }
+    }
+
+    @Test
+    public void test_iterator() throws Exception {
+        int count = 2500;
+        try (Jedis jedis = pool.getResource()) {
+            String[] members = new String[count];
+            for (int i = 0; i < count; i++)
+                members[i] = "ws" + i;
+            jedis.sadd("room:big", members);
+        }
+        provider.setScanBatch(100);
+        List<String> wsids = new ArrayList<String>();
+        Iterator<String> it = provider.iterator("room:big");
+        while (it.hasNext())
+            wsids.add(it.next());
+        // 分多批SSCAN, 每个成员恰好返回一次
+        assertTrue(sscanCalls() > 1);
+        assertEquals(count, wsids.size());
+        assertEquals(provider.wsids("room:big"), new HashSet<String>(wsids));
+        assertFalse(provider.iterator("room:none").hasNext());
+    }
+
+    /**
+     * 本地快照由其他客户端的SADD通过keyspace通知失效
+     */
+    @Test
+    public void test_cache() throws Exception {
+        cache = new ClientSideCache();
+        cache.setJedisAgent(new JedisAgent(pool));
+        cache.setPrefixes("room:");
+        cache.setAutoConfig(true);
+        provider.setCache(cache);
+        provider.join("room:c", "a");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!cache.accept("room:c")) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Lang.quiteSleep(10);
+        }
+        Set<String> snapshot = provider.wsids("room:c");
+        assertEquals(new HashSet<String>(Arrays.asList("a")), snapshot);
+        assertSame(snapshot, provider.wsids("room:c"));
+        try {
+            snapshot.add("x");
+            fail();
+        }
+        catch (UnsupportedOperationException e) {}
+
+        try (Jedis other = pool.getResource()) {
+            other.sadd("room:c", "b");
+        }
+        while (!provider.wsids("room:c").contains("b")) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Lang.quiteSleep(10);
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), provider.wsids("room:c"));
+        assertFalse(snapshot.contains("b"));
+
+        // 自己的修改立即失效, 不等通知
+        provider.leftAll("a", "room:c");
+        assertEquals(new HashSet<String>(Arrays.asList("b")), provider.wsids("room:c"));
+    }
+
+    protected long sscanCalls() {
+        try (Jedis jedis = pool.getResource()) {
+            for (String line : jedis.info("commandstats").split("\r\n")) {
+                if (line.startsWith("cmdstat_sscan:calls="))
+                    return Long.parseLong(line.substring("cmdstat_sscan:calls=".length(), line.indexOf(',')));
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,110 @@
+package org.nutz.plugins.mvc.websocket.room;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nutz.plugins.mvc.websocket.WsRoomProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BitmapRoomProvider与MemoryRoomProvider的对比: 遍历房间(广播), 加入/离开房间的吞吐量, 以及Setup时打印的内存占用.
+ * <p/>
+ * 运行main方法即可
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RoomProviderBenchmark {
+
+    @Param({"memory", "bitmap"})
+    String provider;
+
+    /**
+     * 会话总数
+     */
+    @Param({"100000"})
+    int sessions;
+
+    /**
+     * 每个会话加入的大房间数(全部会话都在其中), 另外每个会话还加入1个小房间(每100个会话一个)
+     */
+    @Param({"1", "10"})
+    int bigRooms;
+
+    WsRoomProvider rooms;
+
+    String[] wsids;
+
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wsids = new String[sessions];
+        for (int i = 0; i < sessions; i++)
+            wsids[i] = "ws" + Integer.toHexString(i * 31 + 0x10000000);
+        long before = usedMemory();
+        rooms = create(provider);
+        for (int i = 0; i < sessions; i++) {
+            for (int j = 0; j < bigRooms; j++)
+                rooms.join("all" + j, wsids[i]);
+            rooms.join("small" + (i / 100), wsids[i]);
+        }
+        long after = usedMemory();
+        System.out.printf("%n%s: %d sessions x %d rooms, about %d bytes per session%n",
+                          provider,
+                          sessions,
+                          bigRooms + 1,
+                          (after - before) / sessions);
+    }
+
+    protected static WsRoomProvider create(String provider) {
+        return "bitmap".equals(provider) ? new BitmapRoomProvider() : new MemoryRoomProvider();
+    }
+
+    protected static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * 遍历大房间, 即一次广播
+     */
+    @Benchmark
+    public void broadcast(Blackhole bh) {
+        for (String wsid : rooms.wsids("all0"))
+            bh.consume(wsid);
+    }
+
+    /**
+     * 一个会话离开再加入小房间
+     */
+    @Benchmark
+    public void joinLeft() {
+        int i = cursor++ % sessions;
+        if (i < 0)
+            i = -i;
+        String room = "small" + (i / 100);
+        rooms.left(room, wsids[i]);
+        rooms.join(room, wsids[i]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RoomProviderBenchmark.class.getSimpleName())
+                                       .forks(1)
+                                       .warmupIterations(3)
+                                       .measurementIterations(5)
+                                       .build()).run();
+    }
+}